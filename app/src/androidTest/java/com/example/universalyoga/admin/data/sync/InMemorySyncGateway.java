@@ -0,0 +1,126 @@
+package com.example.universalyoga.admin.data.sync;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for the cloud store that keeps documents in memory. Each commit completes
+ * after a configurable latency, with random jitter, and fails with a configurable probability,
+ * so the sync code can be measured and exercised without a Firebase project.
+ */
+public class InMemorySyncGateway implements CloudSyncGateway {
+
+    private final Map<String, Map<String, Object>> documents = new HashMap<>(); // Guarded by this
+    // Commits complete on their own threads, as Firestore's do, so several can be in flight.
+    private final ScheduledExecutorService network = Executors.newScheduledThreadPool(4);
+    private final Random random;
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile double failureRate;
+
+    /**
+     * @param seed Seed of the jitter and failure draws, so runs are repeatable.
+     */
+    public InMemorySyncGateway(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Makes each commit take latencyMs plus a uniformly random extra of up to jitterMs.
+     */
+    public void setLatency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+    }
+
+    /**
+     * Makes each commit fail, without applying any of its writes, with the given probability.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public Task<Void> commit(List<Write> writes) {
+        if (writes.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " writes per batch, got " + writes.size());
+        }
+        long delay;
+        boolean fails;
+        synchronized (random) {
+            delay = latencyMs + (jitterMs > 0 ? (long) (random.nextDouble() * jitterMs) : 0);
+            fails = random.nextDouble() < failureRate;
+        }
+        TaskCompletionSource<Void> result = new TaskCompletionSource<>();
+        network.schedule(() -> {
+            if (fails) {
+                result.setException(new IOException("Injected failure"));
+                return;
+            }
+            apply(writes);
+            result.setResult(null);
+        }, delay, TimeUnit.MILLISECONDS);
+        return result.getTask();
+    }
+
+    @Override
+    public Task<List<String>> listDocuments(String collectionPath, @Nullable String startAfterId, int limit) {
+        List<String> paths = new ArrayList<>();
+        synchronized (this) {
+            for (String path : documents.keySet()) {
+                int slash = path.lastIndexOf('/');
+                if (!path.substring(0, slash).equals(collectionPath)) continue;
+                if (startAfterId != null && path.substring(slash + 1).compareTo(startAfterId) <= 0) continue;
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        List<String> page = new ArrayList<>(paths.subList(0, Math.min(limit, paths.size())));
+        TaskCompletionSource<List<String>> result = new TaskCompletionSource<>();
+        network.schedule(() -> result.setResult(page), latencyMs, TimeUnit.MILLISECONDS);
+        return result.getTask();
+    }
+
+    private synchronized void apply(List<Write> writes) {
+        long now = System.currentTimeMillis();
+        for (Write write : writes) {
+            if (write.isDelete()) {
+                documents.remove(write.path);
+                continue;
+            }
+            Map<String, Object> document = documents.get(write.path);
+            if (document == null || !SyncOutbox.OP_MERGE.equals(write.op)) {
+                document = new HashMap<>();
+                documents.put(write.path, document);
+            }
+            document.putAll(write.fields);
+            document.put(CloudDocuments.FIELD_UPDATED_AT, now);
+        }
+    }
+
+    public synchronized int documentCount() {
+        return documents.size();
+    }
+
+    public synchronized Map<String, Object> document(String path) {
+        Map<String, Object> document = documents.get(path);
+        return document == null ? null : new HashMap<>(document);
+    }
+
+    public void shutdown() {
+        network.shutdownNow();
+    }
+}
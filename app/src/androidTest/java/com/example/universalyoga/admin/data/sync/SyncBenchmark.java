@@ -0,0 +1,217 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.ConnectivityMonitor;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.google.android.gms.tasks.Task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pushes synthetic schedules through the sync path against InMemorySyncGateway and reports
+ * documents per second and the p50/p99 commit latency, to catch throughput regressions
+ * without a Firebase project. Results are logged under the "SyncBenchmark" tag and reported
+ * as instrumentation status. Runs on its own database file, so the app's data is untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncBenchmark {
+
+    private static final String TAG = "SyncBenchmark";
+    private static final String DATABASE_NAME = "sync-benchmark.db";
+    private static final long LATENCY_MS = 40;
+    private static final long JITTER_MS = 40;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private InMemorySyncGateway cloud;
+    private TimedGateway gateway;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = DatabaseHelper.createStandalone(context, DATABASE_NAME);
+        cloud = new InMemorySyncGateway(42);
+        cloud.setLatency(LATENCY_MS, JITTER_MS);
+        gateway = new TimedGateway(cloud);
+    }
+
+    @After
+    public void tearDown() {
+        cloud.shutdown();
+        dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void uploadChangedSchedule() throws InterruptedException {
+        int documents = seedSchedule(200, 50);
+        ScheduleUploader uploader = new ScheduleUploader(dbHelper, AppExecutors.get(), gateway);
+
+        long start = System.nanoTime();
+        UploadResult result = upload(uploader);
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(result.getFailure(), result.isSuccessful());
+        assertEquals(documents, result.getDocumentsWritten());
+        assertEquals(documents, cloud.documentCount());
+        report("upload", documents, elapsed);
+    }
+
+    @Test
+    public void drainOutbox() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int documents = 5000;
+        db.beginTransaction();
+        try {
+            for (int i = 1; i <= documents; i++) {
+                SyncOutbox.enqueueSet(db, CloudDocuments.coursePath(String.valueOf(i)),
+                        CloudDocuments.courseFields("Monday", "10:00", "Flow Yoga", 20, 60, 12.5, "Course " + i));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        OutboxDispatcher dispatcher = new OutboxDispatcher(ConnectivityMonitor.getInstance(context), dbHelper,
+                AppExecutors.get(), gateway);
+
+        long start = System.nanoTime();
+        dispatcher.drain();
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(0, SyncOutbox.loadPending(dbHelper.getReadableDatabase(), 1).size());
+        assertEquals(documents, cloud.documentCount());
+        report("outbox", documents, elapsed);
+    }
+
+    @Test
+    public void failedUploadIsSentAgain() throws InterruptedException {
+        int documents = seedSchedule(20, 50);
+        ScheduleUploader uploader = new ScheduleUploader(dbHelper, AppExecutors.get(), gateway);
+
+        cloud.setFailureRate(1);
+        UploadResult failed = upload(uploader);
+        assertNotNull(failed.getFailure());
+        assertEquals(0, SyncState.get(dbHelper.getReadableDatabase(), DatabaseHelper.STATE_UPLOADED_THROUGH));
+
+        cloud.setFailureRate(0);
+        UploadResult retried = upload(uploader);
+        assertTrue(retried.getFailure(), retried.isSuccessful());
+        assertEquals(documents, cloud.documentCount());
+    }
+
+    /**
+     * Inserts courses with their instances, all as local changes not yet uploaded.
+     * @return The number of documents the schedule makes up.
+     */
+    private int seedSchedule(int courses, int instancesPerCourse) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int c = 0; c < courses; c++) {
+                ContentValues course = new ContentValues();
+                course.put(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK, "Monday");
+                course.put(DatabaseHelper.COLUMN_COURSE_TIME, "10:00");
+                course.put(DatabaseHelper.COLUMN_COURSE_TYPE, "Flow Yoga");
+                course.put(DatabaseHelper.COLUMN_COURSE_CAPACITY, 20);
+                course.put(DatabaseHelper.COLUMN_COURSE_DURATION, 60);
+                course.put(DatabaseHelper.COLUMN_COURSE_PRICE, 12.5);
+                course.put(DatabaseHelper.COLUMN_COURSE_DESCRIPTION, "Synthetic course " + c);
+                long courseId = db.insertOrThrow(DatabaseHelper.TABLE_COURSES, null, course);
+                for (int i = 0; i < instancesPerCourse; i++) {
+                    ContentValues instance = new ContentValues();
+                    instance.put(DatabaseHelper.COLUMN_INSTANCE_COURSE_ID, courseId);
+                    instance.put(DatabaseHelper.COLUMN_INSTANCE_DATE, 20_000 + i * 7L);
+                    instance.put(DatabaseHelper.COLUMN_INSTANCE_TEACHER, "Teacher " + (i % 5));
+                    instance.put(DatabaseHelper.COLUMN_INSTANCE_COMMENTS, "Class " + i);
+                    db.insertOrThrow(DatabaseHelper.TABLE_INSTANCES, null, instance);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return courses * (1 + instancesPerCourse);
+    }
+
+    private static UploadResult upload(ScheduleUploader uploader) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<UploadResult> result = new AtomicReference<>();
+        uploader.uploadChanges((written, total) -> { }, uploadResult -> {
+            result.set(uploadResult);
+            done.countDown();
+        });
+        assertTrue("The upload did not finish", done.await(5, TimeUnit.MINUTES));
+        return result.get();
+    }
+
+    private void report(String name, int documents, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        Bundle results = new Bundle();
+        results.putDouble(name + "_documents_per_second", documents / seconds);
+        results.putLong(name + "_commit_p50_ms", gateway.percentileMillis(50));
+        results.putLong(name + "_commit_p99_ms", gateway.percentileMillis(99));
+        results.putInt(name + "_commits", gateway.commits());
+        Log.i(TAG, name + ": " + documents + " documents in " + String.format("%.2f", seconds) + " s = " +
+                String.format("%.0f", documents / seconds) + " documents/s, commits p50 " +
+                gateway.percentileMillis(50) + " ms, p99 " + gateway.percentileMillis(99) + " ms over " +
+                gateway.commits() + " commits");
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    /**
+     * Records how long each commit takes, from the call to its completion.
+     */
+    private static final class TimedGateway implements CloudSyncGateway {
+        private final CloudSyncGateway delegate;
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+        TimedGateway(CloudSyncGateway delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Task<Void> commit(List<Write> writes) {
+            long start = System.nanoTime();
+            Task<Void> task = delegate.commit(writes);
+            task.addOnCompleteListener(Runnable::run, completed -> latencies.add(System.nanoTime() - start));
+            return task;
+        }
+
+        int commits() {
+            return latencies.size();
+        }
+
+        long percentileMillis(int percentile) {
+            List<Long> sorted;
+            synchronized (latencies) {
+                sorted = new ArrayList<>(latencies);
+            }
+            if (sorted.isEmpty()) return 0;
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+            return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, index)));
+        }
+    }
+}
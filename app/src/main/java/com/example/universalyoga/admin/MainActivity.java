@@ -1,40 +1,46 @@
 package com.example.universalyoga.admin;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.annotation.SuppressLint;
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.CheckBox;
 import android.widget.Toast;
 
 import com.example.universalyoga.admin.activities.ClassInstanceActivity;
 import com.example.universalyoga.admin.activities.CourseDetailsActivity;
 import com.example.universalyoga.admin.activities.SearchActivity;
 import com.example.universalyoga.admin.adapters.CourseAdapter;
-import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.adapters.Paginator;
+import com.example.universalyoga.admin.data.ConnectivityMonitor;
+import com.example.universalyoga.admin.data.backup.DatabaseBackupManager;
+import com.example.universalyoga.admin.data.io.ImportResult;
+import com.example.universalyoga.admin.data.io.ScheduleExporter;
+import com.example.universalyoga.admin.data.io.ScheduleImporter;
+import com.example.universalyoga.admin.data.repository.CourseRepository;
+import com.example.universalyoga.admin.data.sync.CloudDeleter;
+import com.example.universalyoga.admin.data.sync.ScheduleUploader;
 import com.example.universalyoga.admin.models.Course;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.WriteBatch;
 
+import java.io.File;
+import java.text.DateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
 
 /**
  * This is the main screen of the Admin App.
@@ -43,12 +49,32 @@ import java.util.Map;
  */
 public class MainActivity extends AppCompatActivity implements CourseAdapter.OnItemInteractionListener {
 
+    // Courses are loaded a page at a time; the next page is requested this many rows before the end.
+    private static final int PAGE_SIZE = 30;
+    private static final int PREFETCH_DISTANCE = 10;
+
     // UI Components and Class Variables
     private FloatingActionButton fabAddCourse;
     private RecyclerView recyclerView;
     private CourseAdapter courseAdapter;
     private List<Course> courseList;
-    private DatabaseHelper dbHelper;
+    private CourseRepository courseRepository;
+    private Paginator<Course> coursePaginator;
+
+    // Lets the user pick a CSV or JSON file to import.
+    private final ActivityResultLauncher<String[]> importFilePicker =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) importSchedule(uri);
+            });
+    // Let the user choose where to save an export, one picker per file type.
+    private final ActivityResultLauncher<String> csvExportPicker =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument("text/csv"), uri -> {
+                if (uri != null) exportSchedule(uri, ScheduleExporter.Format.CSV);
+            });
+    private final ActivityResultLauncher<String> jsonExportPicker =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument("application/json"), uri -> {
+                if (uri != null) exportSchedule(uri, ScheduleExporter.Format.JSON);
+            });
 
     /**
      * Called when the Activity is first created. This is where you should do all of your
@@ -63,8 +89,8 @@ public class MainActivity extends AppCompatActivity implements CourseAdapter.OnI
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
-        // Initialize the database helper and UI components.
-        dbHelper = new DatabaseHelper(this);
+        // Initialize the repository and UI components.
+        courseRepository = CourseRepository.getInstance(this);
         recyclerView = findViewById(R.id.recycler_view_courses);
         fabAddCourse = findViewById(R.id.fab_add_course);
 
@@ -73,6 +99,19 @@ public class MainActivity extends AppCompatActivity implements CourseAdapter.OnI
         courseList = new ArrayList<>();
         courseAdapter = new CourseAdapter(courseList, this);
         recyclerView.setAdapter(courseAdapter);
+        coursePaginator = new Paginator<>(courseRepository::loadCoursePage, new Paginator.Listener<Course>() {
+            @Override
+            public void onItemsReplaced(List<Course> items) {
+                courseAdapter.updateData(items);
+                checkScrollAndShowFab();
+            }
+
+            @Override
+            public void onItemsAppended(List<Course> items) {
+                courseAdapter.appendData(items);
+            }
+        }, PAGE_SIZE, PREFETCH_DISTANCE);
+        coursePaginator.attachTo(recyclerView);
 
         // Set a click listener for the FloatingActionButton to open the course creation screen.
         fabAddCourse.setOnClickListener(new View.OnClickListener() {
@@ -87,6 +126,7 @@ public class MainActivity extends AppCompatActivity implements CourseAdapter.OnI
     /**
      * This method is called when the activity will start interacting with the user.
      * We reload the courses here to ensure the list is always up-to-date.
+     * If no course was written since the last load, this is served from the query cache.
      */
     @Override
     protected void onResume() {
@@ -120,6 +160,18 @@ public class MainActivity extends AppCompatActivity implements CourseAdapter.OnI
         } else if (itemId == R.id.action_reset_database) {
             showResetConfirmationDialog();
             return true;
+        } else if (itemId == R.id.action_import) {
+            importFilePicker.launch(new String[]{"text/csv", "text/comma-separated-values", "application/json", "text/plain"});
+            return true;
+        } else if (itemId == R.id.action_export) {
+            showExportFormatDialog();
+            return true;
+        } else if (itemId == R.id.action_backup) {
+            backUpDatabase();
+            return true;
+        } else if (itemId == R.id.action_restore) {
+            showRestoreDialog();
+            return true;
         } else if (itemId == R.id.action_upload) {
             uploadData();
             return true;
@@ -128,34 +180,11 @@ public class MainActivity extends AppCompatActivity implements CourseAdapter.OnI
     }
 
     /**
-     * Loads all courses from the local SQLite database and updates the RecyclerView.
+     * Reloads the courses from the local SQLite database in the background, one page at a time,
+     * and updates the RecyclerView. Further pages are loaded as the user scrolls.
      */
-    @SuppressLint("NotifyDataSetChanged")
     private void loadCourses() {
-        List<Course> newCourses = new ArrayList<>();
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String[] projection = {
-                DatabaseHelper.COLUMN_COURSE_ID,
-                DatabaseHelper.COLUMN_COURSE_TYPE,
-                DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK,
-                DatabaseHelper.COLUMN_COURSE_TIME
-        };
-        Cursor cursor = db.query(
-                DatabaseHelper.TABLE_COURSES, projection, null, null, null, null, null
-        );
-        while (cursor.moveToNext()) {
-            @SuppressLint("Range") long id = cursor.getLong(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_ID));
-            @SuppressLint("Range") String type = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_TYPE));
-            @SuppressLint("Range") String day = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK));
-            @SuppressLint("Range") String time = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_TIME));
-            newCourses.add(new Course(id, day, time, type));
-        }
-        cursor.close();
-
-        if (courseAdapter != null) {
-            courseAdapter.updateData(newCourses);
-        }
-        checkScrollAndShowFab();
+        coursePaginator.refresh();
     }
 
     /**
@@ -197,136 +226,233 @@ public class MainActivity extends AppCompatActivity implements CourseAdapter.OnI
     }
 
     /**
-     * Deletes a course from the local SQLite database and syncs the deletion to Firestore.
+     * Deletes a course from the local SQLite database and queues the deletion for Firestore.
      */
     private void deleteCourseFromDb(long id) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        String selection = DatabaseHelper.COLUMN_COURSE_ID + " = ?";
-        String[] selectionArgs = { String.valueOf(id) };
-        int deletedRows = db.delete(DatabaseHelper.TABLE_COURSES, selection, selectionArgs);
-        if (deletedRows > 0) {
-            Toast.makeText(this, "Course deleted locally.", Toast.LENGTH_SHORT).show();
-            deleteCourseFromFirestore(id);
-            loadCourses();
-        } else {
-            Toast.makeText(this, "Error deleting course.", Toast.LENGTH_SHORT).show();
-        }
+        courseRepository.deleteCourse(id, deletedRows -> {
+            if (deletedRows > 0) {
+                Toast.makeText(this, "Course deleted locally.", Toast.LENGTH_SHORT).show();
+                loadCourses();
+            } else {
+                Toast.makeText(this, "Error deleting course.", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Deletes a course document from Cloud Firestore.
+     * Uploads the changes made since the last successful upload to Cloud Firestore in the background,
+     * showing how many documents have been written so far. The upload can be cancelled.
      */
-    private void deleteCourseFromFirestore(long id) {
-        if (!isNetworkAvailable()) {
-            Toast.makeText(this, "No network. Deletion will sync later.", Toast.LENGTH_SHORT).show();
+    private void uploadData() {
+        if (!ConnectivityMonitor.getInstance(this).isOnline()) {
+            Toast.makeText(this, "No internet connection available.", Toast.LENGTH_LONG).show();
             return;
         }
 
-        FirebaseFirestore firestoreDb = FirebaseFirestore.getInstance();
-        firestoreDb.collection("courses").document(String.valueOf(id))
-                .delete()
-                .addOnSuccessListener(aVoid -> Toast.makeText(MainActivity.this, "Deleted from cloud.", Toast.LENGTH_SHORT).show())
-                .addOnFailureListener(e -> Toast.makeText(MainActivity.this, "Failed to delete from cloud.", Toast.LENGTH_SHORT).show());
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle("Uploading")
+                .setMessage("Looking for changes...")
+                .setCancelable(false)
+                .setNegativeButton("Cancel", null)
+                .create();
+        ScheduleUploader.Upload upload = ScheduleUploader.getInstance(this).uploadChanges(
+                (documentsWritten, totalChanges) ->
+                        progressDialog.setMessage(documentsWritten + " of " + totalChanges + " changes uploaded..."),
+                result -> {
+                    if (isDestroyed()) return;
+                    progressDialog.dismiss();
+                    String message;
+                    if (result.isCancelled()) {
+                        message = "Upload cancelled. The remaining changes will be sent with the next upload.";
+                    } else if (!result.isSuccessful()) {
+                        message = "Upload failed: " + result.getFailure()
+                                + ". The changes not sent will go with the next upload.";
+                    } else if (result.getDocumentsWritten() == 0) {
+                        message = "Everything is already uploaded.";
+                    } else {
+                        message = "Uploaded " + result.getDocumentsWritten() + " changes.";
+                    }
+                    Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+                });
+        progressDialog.setOnShowListener(dialog -> progressDialog.getButton(DialogInterface.BUTTON_NEGATIVE)
+                .setOnClickListener(v -> {
+                    upload.cancel();
+                    progressDialog.setMessage("Cancelling...");
+                }));
+        progressDialog.show();
     }
 
     /**
-     * Uploads all local data from SQLite to Cloud Firestore in a single batch operation.
+     * Imports courses and class instances from a CSV or JSON file in the background,
+     * showing how many rows have been imported so far, then reloads the course list.
      */
-    private void uploadData() {
-        if (!isNetworkAvailable()) {
-            Toast.makeText(this, "No internet connection available.", Toast.LENGTH_LONG).show();
-            return;
-        }
-
-        Toast.makeText(this, "Starting upload...", Toast.LENGTH_SHORT).show();
-
-        FirebaseFirestore firestoreDb = FirebaseFirestore.getInstance();
-        WriteBatch batch = firestoreDb.batch();
-        SQLiteDatabase sqliteDb = dbHelper.getReadableDatabase();
-
-        Cursor courseCursor = sqliteDb.query(DatabaseHelper.TABLE_COURSES, null, null, null, null, null, null);
-
-        if (courseCursor.getCount() == 0) {
-            Toast.makeText(this, "No data to upload.", Toast.LENGTH_SHORT).show();
-            courseCursor.close();
-            return;
-        }
+    private void importSchedule(Uri uri) {
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle("Importing")
+                .setMessage("Reading file...")
+                .setCancelable(false)
+                .show();
+        ScheduleImporter.getInstance(this).importSchedule(uri,
+                (rowsImported, rowsRejected) -> progressDialog.setMessage(rowsImported + " rows imported" +
+                        (rowsRejected > 0 ? ", " + rowsRejected + " skipped" : "") + "..."),
+                result -> {
+                    if (isDestroyed()) return;
+                    progressDialog.dismiss();
+                    showImportResult(result);
+                    loadCourses();
+                });
+    }
 
-        while (courseCursor.moveToNext()) {
-            @SuppressLint("Range") long courseId = courseCursor.getLong(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_ID));
-            @SuppressLint("Range") String dayOfWeek = courseCursor.getString(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK));
-            @SuppressLint("Range") String time = courseCursor.getString(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_TIME));
-            @SuppressLint("Range") String type = courseCursor.getString(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_TYPE));
-            @SuppressLint("Range") int capacity = courseCursor.getInt(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_CAPACITY));
-            @SuppressLint("Range") int duration = courseCursor.getInt(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DURATION));
-            @SuppressLint("Range") double price = courseCursor.getDouble(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_PRICE));
-            @SuppressLint("Range") String description = courseCursor.getString(courseCursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DESCRIPTION));
-
-            Map<String, Object> courseData = new HashMap<>();
-            courseData.put("dayOfWeek", dayOfWeek);
-            courseData.put("time", time);
-            courseData.put("type", type);
-            courseData.put("capacity", capacity);
-            courseData.put("duration", duration);
-            courseData.put("price", price);
-            courseData.put("description", description);
-
-            batch.set(firestoreDb.collection("courses").document(String.valueOf(courseId)), courseData);
-
-            Cursor instanceCursor = sqliteDb.query(
-                    DatabaseHelper.TABLE_INSTANCES, null,
-                    DatabaseHelper.COLUMN_INSTANCE_COURSE_ID + " = ?",
-                    new String[]{String.valueOf(courseId)},
-                    null, null, null
-            );
-
-            while (instanceCursor.moveToNext()) {
-                @SuppressLint("Range") long instanceId = instanceCursor.getLong(instanceCursor.getColumnIndex(DatabaseHelper.COLUMN_INSTANCE_ID));
-                @SuppressLint("Range") String date = instanceCursor.getString(instanceCursor.getColumnIndex(DatabaseHelper.COLUMN_INSTANCE_DATE));
-                @SuppressLint("Range") String teacher = instanceCursor.getString(instanceCursor.getColumnIndex(DatabaseHelper.COLUMN_INSTANCE_TEACHER));
-                @SuppressLint("Range") String comments = instanceCursor.getString(instanceCursor.getColumnIndex(DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
-
-                Map<String, Object> instanceData = new HashMap<>();
-                instanceData.put("date", date);
-                instanceData.put("teacher", teacher);
-                instanceData.put("comments", comments);
-
-                batch.set(firestoreDb.collection("courses").document(String.valueOf(courseId))
-                        .collection("instances").document(String.valueOf(instanceId)), instanceData);
+    /**
+     * Shows the outcome of an import, including the first rows that were skipped.
+     */
+    private void showImportResult(ImportResult result) {
+        String message;
+        if (!result.isSuccessful()) {
+            message = "Nothing was imported: " + result.getFailure();
+        } else {
+            StringBuilder text = new StringBuilder("Imported " + result.getCoursesImported() + " courses and " +
+                    result.getInstancesImported() + " classes.");
+            if (result.getRowsRejected() > 0) {
+                text.append("\n\n").append(result.getRowsRejected()).append(" rows were skipped:");
+                for (String error : result.getErrors()) {
+                    text.append("\n").append(error);
+                }
             }
-            instanceCursor.close();
+            message = text.toString();
         }
-        courseCursor.close();
+        new AlertDialog.Builder(this)
+                .setTitle("Import")
+                .setMessage(message)
+                .setPositiveButton("OK", null)
+                .show();
+    }
 
-        batch.commit().addOnSuccessListener(aVoid -> {
-            Toast.makeText(MainActivity.this, "All data uploaded successfully!", Toast.LENGTH_LONG).show();
-        }).addOnFailureListener(e -> {
-            Toast.makeText(MainActivity.this, "Upload failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-        });
+    /**
+     * Asks for the export file type, then lets the user choose where to save the file.
+     */
+    private void showExportFormatDialog() {
+        String fileName = "yoga-schedule-" + LocalDate.now();
+        new AlertDialog.Builder(this)
+                .setTitle("Export Schedule")
+                .setItems(new String[]{"CSV (spreadsheet)", "JSON"}, (dialog, which) -> {
+                    if (which == 0) {
+                        csvExportPicker.launch(fileName + ".csv");
+                    } else {
+                        jsonExportPicker.launch(fileName + ".json");
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Writes all courses and class instances to the chosen file in the background,
+     * showing how many rows have been written so far.
+     */
+    private void exportSchedule(Uri uri, ScheduleExporter.Format format) {
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle("Exporting")
+                .setMessage("Starting export...")
+                .setCancelable(false)
+                .show();
+        ScheduleExporter.getInstance(this).exportSchedule(uri, format,
+                (rowsWritten, totalRows) -> progressDialog.setMessage(rowsWritten + " of " + totalRows + " rows written..."),
+                rowsWritten -> {
+                    if (isDestroyed()) return;
+                    progressDialog.dismiss();
+                    if (rowsWritten < 0) {
+                        Toast.makeText(this, "Export failed.", Toast.LENGTH_LONG).show();
+                    } else {
+                        Toast.makeText(this, "Exported " + rowsWritten + " rows.", Toast.LENGTH_LONG).show();
+                    }
+                });
     }
 
     /**
-     * Shows a confirmation dialog before deleting all data from the local database.
+     * Shows a confirmation dialog before deleting all data from the local database, with the
+     * option to delete the cloud copy as well.
      */
     private void showResetConfirmationDialog() {
+        View dialogView = getLayoutInflater().inflate(R.layout.dialog_reset_database, null);
+        CheckBox purgeCloud = dialogView.findViewById(R.id.checkbox_purge_cloud);
         new AlertDialog.Builder(this)
                 .setTitle("Reset Database")
-                .setMessage("Are you sure you want to delete all courses? This action cannot be undone.")
-                .setPositiveButton("Yes, Reset", (dialog, which) -> resetDatabase())
+                .setView(dialogView)
+                .setPositiveButton("Yes, Reset", (dialog, which) -> resetDatabase(purgeCloud.isChecked()))
                 .setNegativeButton("Cancel", null)
                 .setIcon(android.R.drawable.ic_dialog_alert)
                 .show();
     }
 
     /**
-     * Deletes all data from the 'courses' and 'instances' tables in the local SQLite database.
+     * Backs up the local database, then deletes all data from the 'courses' and 'instances' tables.
+     * Nothing is deleted if the backup fails.
+     * @param purgeCloud Whether to also delete every course, class and weekly schedule from the cloud.
      */
-    private void resetDatabase() {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        db.delete(DatabaseHelper.TABLE_COURSES, null, null);
-        db.delete(DatabaseHelper.TABLE_INSTANCES, null, null);
-        Toast.makeText(this, "Database has been reset.", Toast.LENGTH_SHORT).show();
-        loadCourses();
+    private void resetDatabase(boolean purgeCloud) {
+        DatabaseBackupManager.getInstance(this).createBackup(backup -> {
+            if (backup == null) {
+                Toast.makeText(this, "Backup failed, the database was not reset.", Toast.LENGTH_LONG).show();
+                return;
+            }
+            courseRepository.deleteAll(deleted -> {
+                if (!deleted) {
+                    Toast.makeText(this, "Reset failed, the database was not changed.", Toast.LENGTH_LONG).show();
+                    return;
+                }
+                loadCourses();
+                if (!purgeCloud) {
+                    Toast.makeText(this, "Database has been reset.", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                Toast.makeText(this, "Database has been reset. Deleting cloud data...", Toast.LENGTH_SHORT).show();
+                CloudDeleter.getInstance(this).purgeCloud(deleted -> Toast.makeText(this, deleted >= 0
+                        ? "Deleted " + deleted + " documents from the cloud."
+                        : "Deleting cloud data failed. Reset again to finish.", Toast.LENGTH_LONG).show());
+            });
+        });
+    }
+
+    /**
+     * Takes a compressed snapshot of the local database in the background.
+     */
+    private void backUpDatabase() {
+        DatabaseBackupManager.getInstance(this).createBackup(backup -> Toast.makeText(this,
+                backup != null ? "Backup saved." : "Backup failed.", Toast.LENGTH_SHORT).show());
+    }
+
+    /**
+     * Lists the saved backups, newest first, and restores the chosen one after confirmation.
+     */
+    private void showRestoreDialog() {
+        DatabaseBackupManager backupManager = DatabaseBackupManager.getInstance(this);
+        backupManager.listBackups(backups -> {
+            if (backups.isEmpty()) {
+                Toast.makeText(this, "No backups available.", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+            String[] labels = new String[backups.size()];
+            for (int i = 0; i < labels.length; i++) {
+                File backup = backups.get(i);
+                labels[i] = dateFormat.format(new Date(backup.lastModified())) + " (" + (backup.length() / 1024 + 1) + " KB)";
+            }
+            new AlertDialog.Builder(this)
+                    .setTitle("Restore Backup")
+                    .setItems(labels, (dialog, which) -> new AlertDialog.Builder(this)
+                            .setTitle("Restore Backup")
+                            .setMessage("Replace all local courses and classes with the backup from " + labels[which] + "?")
+                            .setPositiveButton("Restore", (confirm, ignored) -> backupManager.restoreBackup(backups.get(which), restored -> {
+                                Toast.makeText(this, restored ? "Backup restored." : "The backup could not be restored.",
+                                        Toast.LENGTH_LONG).show();
+                                loadCourses();
+                            }))
+                            .setNegativeButton("Cancel", null)
+                            .show())
+                    .setNegativeButton("Cancel", null)
+                    .show();
+        });
     }
 
     /**
@@ -338,14 +464,4 @@ public class MainActivity extends AppCompatActivity implements CourseAdapter.OnI
             fabAddCourse.show();
         }
     }
-
-    /**
-     * Checks if a network connection is available.
-     * @return true if connected, false otherwise.
-     */
-    private boolean isNetworkAvailable() {
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetworkInfo = cm.getActiveNetworkInfo();
-        return activeNetworkInfo != null && activeNetworkInfo.isConnected();
-    }
-}
\ No newline at end of file
+}
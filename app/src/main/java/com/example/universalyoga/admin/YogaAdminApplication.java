@@ -0,0 +1,39 @@
+package com.example.universalyoga.admin;
+
+import android.app.Application;
+
+import com.example.universalyoga.admin.data.ConnectivityMonitor;
+import com.example.universalyoga.admin.data.cache.QueryCache;
+import com.example.universalyoga.admin.data.sync.CloudPuller;
+import com.example.universalyoga.admin.data.sync.OutboxDispatcher;
+
+/**
+ * Application class holding process-wide setup and reacting to system memory pressure.
+ */
+public class YogaAdminApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        OutboxDispatcher dispatcher = OutboxDispatcher.getInstance(this);
+        // Send the cloud writes queued while the device was offline as soon as it has a validated
+        // network again, and whatever was left over when the app last stopped, including the
+        // writes parked after failing too often.
+        ConnectivityMonitor.getInstance(this).addListener((online, metered) -> {
+            if (online) dispatcher.retryParked();
+        });
+        dispatcher.retryParked();
+        // Apply what other devices changed in the cloud, while the app runs.
+        CloudPuller.getInstance(this).start();
+    }
+
+    /**
+     * Called when the system asks the app to release memory. Cached query results
+     * can always be reloaded from SQLite, so they are the first thing to go.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        QueryCache.get().trimMemory(level);
+    }
+}
@@ -8,15 +8,8 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.annotation.SuppressLint;
-import android.app.DatePickerDialog;
 import android.content.ContentValues;
-import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Color;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -24,7 +17,6 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.DatePicker;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
@@ -32,37 +24,36 @@ import android.widget.Toast;
 
 import com.example.universalyoga.admin.R;
 import com.example.universalyoga.admin.adapters.InstanceAdapter;
+import com.example.universalyoga.admin.adapters.Paginator;
 import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.repository.InstanceRepository;
 import com.example.universalyoga.admin.models.ClassInstance;
+import com.example.universalyoga.admin.utils.DateUtils;
 import com.google.android.material.datepicker.CalendarConstraints;
 import com.google.android.material.datepicker.CompositeDateValidator;
 import com.google.android.material.datepicker.DateValidatorPointForward;
 import com.google.android.material.datepicker.MaterialDatePicker;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import com.google.firebase.firestore.FirebaseFirestore;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.TimeZone;
 
 /**
  * This Activity manages the display, creation, editing, and deletion of class instances
- * for a specific course. It also handles syncing these changes with Cloud Firestore.
+ * for a specific course. Changes reach Cloud Firestore through the repository's sync outbox.
  */
 public class ClassInstanceActivity extends AppCompatActivity implements InstanceAdapter.OnInstanceInteractionListener {
 
+    // Instances are loaded a page at a time; the next page is requested this many rows before the end.
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 15;
+
     // UI Components and Class Variables
     private RecyclerView recyclerView;
     private InstanceAdapter instanceAdapter;
-    private List<ClassInstance> instanceList;
-    private DatabaseHelper dbHelper;
+    private InstanceRepository instanceRepository;
+    private Paginator<ClassInstance> instancePaginator;
     private long courseId = -1;
     private String requiredDayOfWeek;
     private FloatingActionButton fabAddInstance;
@@ -85,7 +76,7 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
         }
 
         // Initialize helpers and retrieve data from the Intent.
-        dbHelper = new DatabaseHelper(this);
+        instanceRepository = InstanceRepository.getInstance(this);
         courseId = getIntent().getLongExtra("COURSE_ID", -1);
         requiredDayOfWeek = getIntent().getStringExtra("COURSE_DAY_OF_WEEK");
 
@@ -102,22 +93,37 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
         // Setup the RecyclerView to display the list of instances.
         recyclerView = findViewById(R.id.recycler_view_instances);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        instanceList = new ArrayList<>();
-        instanceAdapter = new InstanceAdapter(instanceList, this);
+        instanceAdapter = new InstanceAdapter(new ArrayList<>(), this);
         recyclerView.setAdapter(instanceAdapter);
+        instancePaginator = new Paginator<>(
+                (after, limit, callback) -> instanceRepository.loadInstancePage(courseId, after, limit, callback),
+                new Paginator.Listener<ClassInstance>() {
+                    @Override
+                    public void onItemsReplaced(List<ClassInstance> items) {
+                        instanceAdapter.updateData(items);
+
+                        // Check FAB visibility after loading data.
+                        checkScrollAndShowFab();
+                    }
+
+                    @Override
+                    public void onItemsAppended(List<ClassInstance> items) {
+                        instanceAdapter.appendData(items);
+                    }
+                }, PAGE_SIZE, PREFETCH_DISTANCE);
+        instancePaginator.attachTo(recyclerView);
 
         // Setup the FloatingActionButton to open the "add instance" dialog.
         fabAddInstance = findViewById(R.id.fab_add_instance);
         fabAddInstance.setOnClickListener(v -> showInstanceDialog(null));
 
-        // Load the initial list of instances from the database.
-        loadInstances();
+        // The list is loaded in onResume(), which always follows onCreate().
     }
 
     /**
      * This method is called when the activity will start interacting with the user.
      * We reload the instances here to ensure the list is always up-to-date
-     * when the user navigates back to this screen.
+     * when the user navigates back to this screen. Unchanged data comes from the query cache.
      */
     @Override
     protected void onResume() {
@@ -149,7 +155,7 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
         // If in "edit mode", populate the dialog with existing data.
         if (instance != null) {
             builder.setTitle("Edit Instance");
-            editTextDate.setText(instance.getDate());
+            editTextDate.setText(DateUtils.formatEpochDay(instance.getEpochDay()));
             setSpinnerToValue(spinnerTeacher, instance.getTeacher());
             editTextComments.setText(instance.getComments()); // Display existing comments.
         } else {
@@ -179,10 +185,7 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
 
             // Handle the positive button click (when the user selects a date).
             datePicker.addOnPositiveButtonClickListener(selection -> {
-                SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy", Locale.UK);
-                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-                calendar.setTimeInMillis(selection);
-                editTextDate.setText(sdf.format(calendar.getTime()));
+                editTextDate.setText(DateUtils.formatEpochDay(DateUtils.epochDayFromUtcMillis(selection)));
             });
 
             // Show the date picker.
@@ -204,10 +207,12 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
 
                 // If input is valid, save the data and dismiss the dialog.
                 if (validateInstanceInput(editTextDate, spinnerTeacher)) {
+                    // The date is stored as an epoch day; only the dialog shows it as text.
+                    long epochDay = DateUtils.parseDisplayDate(dateStr);
                     if (instance == null) {
-                        addInstanceToDb(dateStr, teacher, comments);
+                        addInstanceToDb(epochDay, teacher, comments);
                     } else {
-                        updateInstanceInDb(instance.getId(), dateStr, teacher, comments);
+                        updateInstanceInDb(instance.getId(), epochDay, teacher, comments);
                     }
                     dialog.dismiss(); // Only dismiss if validation passes.
                 }
@@ -245,139 +250,74 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
     }
 
     /**
-     * Adds a new class instance to the local SQLite database and syncs it to Firestore.
+     * Adds a new class instance to the local SQLite database and queues it for Firestore.
      */
-    private void addInstanceToDb(String date, String teacher, String comments) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
+    private void addInstanceToDb(long epochDay, String teacher, String comments) {
         ContentValues values = new ContentValues();
         values.put(DatabaseHelper.COLUMN_INSTANCE_COURSE_ID, courseId);
-        values.put(DatabaseHelper.COLUMN_INSTANCE_DATE, date);
+        values.put(DatabaseHelper.COLUMN_INSTANCE_DATE, epochDay);
         values.put(DatabaseHelper.COLUMN_INSTANCE_TEACHER, teacher);
         values.put(DatabaseHelper.COLUMN_INSTANCE_COMMENTS, comments);
 
-        long newRowId = db.insert(DatabaseHelper.TABLE_INSTANCES, null, values);
-        if (newRowId != -1) {
-            Toast.makeText(this, "Instance added locally!", Toast.LENGTH_SHORT).show();
-            syncInstanceToFirestore(newRowId, values); // Sync the change to the cloud.
-            loadInstances(); // Refresh the list.
-        } else {
-            Toast.makeText(this, "Error adding instance.", Toast.LENGTH_SHORT).show();
-        }
+        instanceRepository.insertInstance(values, newRowId -> {
+            if (newRowId != -1) {
+                Toast.makeText(this, "Instance added locally!", Toast.LENGTH_SHORT).show();
+                loadInstances(); // Refresh the list.
+            } else {
+                Toast.makeText(this, "Error adding instance.", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Updates an existing class instance in the local SQLite database and syncs it to Firestore.
+     * Updates an existing class instance in the local SQLite database and queues it for Firestore.
      */
-    private void updateInstanceInDb(long id, String date, String teacher, String comments) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
+    private void updateInstanceInDb(long id, long epochDay, String teacher, String comments) {
         ContentValues values = new ContentValues();
-        values.put(DatabaseHelper.COLUMN_INSTANCE_DATE, date);
+        values.put(DatabaseHelper.COLUMN_INSTANCE_DATE, epochDay);
         values.put(DatabaseHelper.COLUMN_INSTANCE_TEACHER, teacher);
         values.put(DatabaseHelper.COLUMN_INSTANCE_COMMENTS, comments);
 
-        String selection = DatabaseHelper.COLUMN_INSTANCE_ID + " = ?";
-        String[] selectionArgs = { String.valueOf(id) };
-
-        int count = db.update(DatabaseHelper.TABLE_INSTANCES, values, selection, selectionArgs);
-        if (count > 0) {
-            Toast.makeText(this, "Instance updated locally!", Toast.LENGTH_SHORT).show();
-            syncInstanceToFirestore(id, values); // Sync the change to the cloud.
-            loadInstances(); // Refresh the list.
-        } else {
-            Toast.makeText(this, "Error updating instance.", Toast.LENGTH_SHORT).show();
-        }
+        instanceRepository.updateInstance(id, values, count -> {
+            if (count > 0) {
+                Toast.makeText(this, "Instance updated locally!", Toast.LENGTH_SHORT).show();
+                // Only a new date can move the row; otherwise it is updated where it is.
+                ClassInstance updated = new ClassInstance(id, epochDay, teacher, comments);
+                if (instanceAdapter.updateInPlace(updated)) {
+                    instancePaginator.replaceItem(instance -> instance.getId() == id, updated);
+                } else {
+                    loadInstances(); // Refresh the list.
+                }
+            } else {
+                Toast.makeText(this, "Error updating instance.", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Deletes a class instance from the local SQLite database and syncs the deletion to Firestore.
+     * Deletes a class instance from the local SQLite database and queues the deletion for Firestore.
      */
     private void deleteInstanceFromDb(long id) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        String selection = DatabaseHelper.COLUMN_INSTANCE_ID + " = ?";
-        String[] selectionArgs = { String.valueOf(id) };
-        int deletedRows = db.delete(DatabaseHelper.TABLE_INSTANCES, selection, selectionArgs);
-        if (deletedRows > 0) {
-            Toast.makeText(this, "Instance deleted locally.", Toast.LENGTH_SHORT).show();
-            deleteInstanceFromFirestore(id); // Sync the deletion to the cloud.
-            loadInstances(); // Refresh the list.
-        } else {
-            Toast.makeText(this, "Error deleting instance.", Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    /**
-     * Uploads a single class instance's data (on create or update) to Cloud Firestore.
-     */
-    private void syncInstanceToFirestore(long instanceId, ContentValues values) {
-        if (!isNetworkAvailable()) {
-            Toast.makeText(this, "No network. Instance will sync later.", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
-        FirebaseFirestore firestoreDb = FirebaseFirestore.getInstance();
-        Map<String, Object> instanceData = new HashMap<>();
-        instanceData.put("date", values.getAsString(DatabaseHelper.COLUMN_INSTANCE_DATE));
-        instanceData.put("teacher", values.getAsString(DatabaseHelper.COLUMN_INSTANCE_TEACHER));
-        instanceData.put("comments", values.getAsString(DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
-
-        // Note: This creates the instance document inside a subcollection of the parent course document.
-        firestoreDb.collection("courses").document(String.valueOf(courseId))
-                .collection("instances").document(String.valueOf(instanceId))
-                .set(instanceData)
-                .addOnSuccessListener(aVoid -> Toast.makeText(this, "Instance synced.", Toast.LENGTH_SHORT).show())
-                .addOnFailureListener(e -> Toast.makeText(this, "Instance sync failed.", Toast.LENGTH_SHORT).show());
-    }
-
-    /**
-     * Deletes a single class instance document from Cloud Firestore.
-     */
-    private void deleteInstanceFromFirestore(long instanceId) {
-        if (!isNetworkAvailable()) {
-            Toast.makeText(this, "No network. Deletion will sync later.", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
-        FirebaseFirestore firestoreDb = FirebaseFirestore.getInstance();
-        firestoreDb.collection("courses").document(String.valueOf(courseId))
-                .collection("instances").document(String.valueOf(instanceId))
-                .delete()
-                .addOnSuccessListener(aVoid -> Toast.makeText(this, "Instance deleted from cloud.", Toast.LENGTH_SHORT).show())
-                .addOnFailureListener(e -> Toast.makeText(this, "Failed to delete from cloud.", Toast.LENGTH_SHORT).show());
+        instanceRepository.deleteInstance(id, deletedRows -> {
+            if (deletedRows > 0) {
+                Toast.makeText(this, "Instance deleted locally.", Toast.LENGTH_SHORT).show();
+                if (instanceAdapter.removeInPlace(id)) {
+                    instancePaginator.removeItem(instance -> instance.getId() == id);
+                } else {
+                    loadInstances(); // Refresh the list.
+                }
+            } else {
+                Toast.makeText(this, "Error deleting instance.", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Loads all instances for the current course from the local SQLite database and updates the RecyclerView.
+     * Reloads the instances of the current course in the background, one page at a time,
+     * and updates the RecyclerView. Further pages are loaded as the user scrolls.
      */
-    @SuppressLint("NotifyDataSetChanged")
     private void loadInstances() {
-        instanceList.clear();
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-
-        // We need to query for the comments column as well.
-        String[] projection = {
-                DatabaseHelper.COLUMN_INSTANCE_ID,
-                DatabaseHelper.COLUMN_INSTANCE_DATE,
-                DatabaseHelper.COLUMN_INSTANCE_TEACHER,
-                DatabaseHelper.COLUMN_INSTANCE_COMMENTS
-        };
-
-        String selection = DatabaseHelper.COLUMN_INSTANCE_COURSE_ID + " = ?";
-        String[] selectionArgs = { String.valueOf(courseId) };
-        Cursor cursor = db.query(
-                DatabaseHelper.TABLE_INSTANCES, projection, selection, selectionArgs, null, null, null
-        );
-        while (cursor.moveToNext()) {
-            long id = cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_INSTANCE_ID));
-            String date = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_INSTANCE_DATE));
-            String teacher = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_INSTANCE_TEACHER));
-            String comments = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
-            instanceList.add(new ClassInstance(id, date, teacher, comments));
-        }
-        cursor.close();
-        instanceAdapter.notifyDataSetChanged();
-
-        // Check FAB visibility after loading data.
-        checkScrollAndShowFab();
+        instancePaginator.refresh();
     }
 
     // --- HELPER METHODS AND CALLBACKS ---
@@ -392,16 +332,6 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
         }
     }
 
-    /**
-     * Checks if a network connection is available.
-     * @return true if connected, false otherwise.
-     */
-    private boolean isNetworkAvailable() {
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetworkInfo = cm.getActiveNetworkInfo();
-        return activeNetworkInfo != null && activeNetworkInfo.isConnected();
-    }
-
     /**
      * Converts a day name (e.g., "Monday") into its corresponding Calendar constant (e.g., Calendar.MONDAY).
      */
@@ -429,21 +359,6 @@ public class ClassInstanceActivity extends AppCompatActivity implements Instance
         }
     }
 
-    /**
-     * Validates if a given date string matches the required day of the week.
-     */
-    private boolean isDateValid(String dateStr, String requiredDay) {
-        try {
-            SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy", Locale.UK);
-            sdf.setLenient(false);
-            Date date = sdf.parse(dateStr);
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE", Locale.ENGLISH);
-            return dayFormat.format(date).equalsIgnoreCase(requiredDay);
-        } catch (ParseException e) {
-            return false;
-        }
-    }
-
     /**
      * Handles clicks on menu items in the Toolbar (specifically, the back button).
      */
@@ -3,16 +3,10 @@ package com.example.universalyoga.admin.activities;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Color;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.MenuItem;
@@ -24,15 +18,13 @@ import android.widget.Toast;
 import com.google.android.material.textfield.TextInputEditText;
 import com.example.universalyoga.admin.R;
 import com.example.universalyoga.admin.data.database.DatabaseHelper;
-import com.google.firebase.firestore.FirebaseFirestore;
-import java.util.HashMap;
-import java.util.Map;
+import com.example.universalyoga.admin.data.repository.CourseRepository;
 
 /**
  * This Activity handles the creation and editing of a yoga course schedule.
  * It provides a form for the user to enter all course details, validates the input,
- * shows a confirmation screen, and then saves the data to both the local SQLite database
- * and the remote Cloud Firestore database.
+ * shows a confirmation screen, and then saves the data to the local SQLite database. The
+ * repository queues the change for Cloud Firestore, where it is sent once the device is online.
  */
 public class CourseDetailsActivity extends AppCompatActivity {
 
@@ -44,8 +36,8 @@ public class CourseDetailsActivity extends AppCompatActivity {
     private Spinner spinnerDayOfWeek, spinnerTime, spinnerCapacity, spinnerDuration, spinnerClassType;
     private Button buttonSave;
 
-    // Helper for database operations
-    private DatabaseHelper dbHelper;
+    // Repository for database operations
+    private CourseRepository courseRepository;
 
     // Variable to store the ID of the course being edited. -1 indicates "add new" mode.
     private long courseId = -1;
@@ -68,8 +60,8 @@ public class CourseDetailsActivity extends AppCompatActivity {
             getSupportActionBar().setDisplayShowHomeEnabled(true);
         }
 
-        // Initialize the database helper and UI views.
-        dbHelper = new DatabaseHelper(this);
+        // Initialize the repository and UI views.
+        courseRepository = CourseRepository.getInstance(this);
         initViews();
         setupSpinners();
 
@@ -128,26 +120,20 @@ public class CourseDetailsActivity extends AppCompatActivity {
      * This is used when the activity is in "edit mode".
      * @param id The ID of the course to load.
      */
-    @SuppressLint("Range")
     private void loadCourseData(long id) {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String selection = DatabaseHelper.COLUMN_COURSE_ID + " = ?";
-        String[] selectionArgs = { String.valueOf(id) };
-        Cursor cursor = db.query(DatabaseHelper.TABLE_COURSES, null, selection, selectionArgs, null, null, null);
-
-        if (cursor.moveToFirst()) {
+        courseRepository.loadCourse(id, course -> {
+            if (course == null) return;
             // Set the selection for each Spinner.
-            setSpinnerToValue(spinnerDayOfWeek, cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK)));
-            setSpinnerToValue(spinnerTime, cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_TIME)));
-            setSpinnerToValue(spinnerClassType, cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_TYPE)));
-            setSpinnerToValue(spinnerCapacity, String.valueOf(cursor.getInt(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_CAPACITY))));
-            setSpinnerToValue(spinnerDuration, String.valueOf(cursor.getInt(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DURATION))));
+            setSpinnerToValue(spinnerDayOfWeek, course.getDayOfWeek());
+            setSpinnerToValue(spinnerTime, course.getTime());
+            setSpinnerToValue(spinnerClassType, course.getType());
+            setSpinnerToValue(spinnerCapacity, String.valueOf(course.getCapacity()));
+            setSpinnerToValue(spinnerDuration, String.valueOf(course.getDuration()));
 
             // Set the text for the EditTexts.
-            editTextPrice.setText(String.valueOf(cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_PRICE))));
-            editTextDescription.setText(cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DESCRIPTION)));
-        }
-        cursor.close();
+            editTextPrice.setText(String.valueOf(course.getPrice()));
+            editTextDescription.setText(course.getDescription());
+        });
     }
 
     /**
@@ -197,7 +183,6 @@ public class CourseDetailsActivity extends AppCompatActivity {
      * and updating an existing one (UPDATE).
      */
     private void saveCourseToDatabase() {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK, spinnerDayOfWeek.getSelectedItem().toString());
         values.put(DatabaseHelper.COLUMN_COURSE_TIME, spinnerTime.getSelectedItem().toString());
@@ -208,63 +193,24 @@ public class CourseDetailsActivity extends AppCompatActivity {
         values.put(DatabaseHelper.COLUMN_COURSE_PRICE, Double.parseDouble(editTextPrice.getText().toString()));
 
         if (courseId == -1) { // "Add new" mode
-            long newRowId = db.insert(DatabaseHelper.TABLE_COURSES, null, values);
-            if (newRowId != -1) {
-                Toast.makeText(this, "Course saved locally!", Toast.LENGTH_SHORT).show();
-                syncSingleCourseToFirestore(newRowId, values); // Sync the new course to the cloud.
-                finish(); // Close the activity.
-            } else {
-                Toast.makeText(this, "Error saving course.", Toast.LENGTH_SHORT).show();
-            }
+            courseRepository.insertCourse(values, newRowId -> {
+                if (newRowId != -1) {
+                    Toast.makeText(this, "Course saved locally!", Toast.LENGTH_SHORT).show();
+                    finish(); // Close the activity.
+                } else {
+                    Toast.makeText(this, "Error saving course.", Toast.LENGTH_SHORT).show();
+                }
+            });
         } else { // "Edit" mode
-            String selection = DatabaseHelper.COLUMN_COURSE_ID + " = ?";
-            String[] selectionArgs = { String.valueOf(courseId) };
-            int count = db.update(DatabaseHelper.TABLE_COURSES, values, selection, selectionArgs);
-            if (count > 0) {
-                Toast.makeText(this, "Course updated locally!", Toast.LENGTH_SHORT).show();
-                syncSingleCourseToFirestore(courseId, values); // Sync the updated course to the cloud.
-                finish(); // Close the activity.
-            } else {
-                Toast.makeText(this, "Error updating course.", Toast.LENGTH_SHORT).show();
-            }
-        }
-    }
-
-    /**
-     * Syncs a single course's data (on create or update) to Cloud Firestore.
-     * @param id The ID of the course.
-     * @param values The ContentValues containing the course data.
-     */
-    private void syncSingleCourseToFirestore(long id, ContentValues values) {
-        if (!isNetworkAvailable()) {
-            Toast.makeText(this, "No network. Will sync later.", Toast.LENGTH_SHORT).show();
-            return;
+            courseRepository.updateCourse(courseId, values, count -> {
+                if (count > 0) {
+                    Toast.makeText(this, "Course updated locally!", Toast.LENGTH_SHORT).show();
+                    finish(); // Close the activity.
+                } else {
+                    Toast.makeText(this, "Error updating course.", Toast.LENGTH_SHORT).show();
+                }
+            });
         }
-
-        FirebaseFirestore firestoreDb = FirebaseFirestore.getInstance();
-        Map<String, Object> courseData = new HashMap<>();
-        courseData.put("dayOfWeek", values.getAsString(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK));
-        courseData.put("time", values.getAsString(DatabaseHelper.COLUMN_COURSE_TIME));
-        courseData.put("type", values.getAsString(DatabaseHelper.COLUMN_COURSE_TYPE));
-        courseData.put("capacity", values.getAsInteger(DatabaseHelper.COLUMN_COURSE_CAPACITY));
-        courseData.put("duration", values.getAsInteger(DatabaseHelper.COLUMN_COURSE_DURATION));
-        courseData.put("price", values.getAsDouble(DatabaseHelper.COLUMN_COURSE_PRICE));
-        courseData.put("description", values.getAsString(DatabaseHelper.COLUMN_COURSE_DESCRIPTION));
-
-        firestoreDb.collection("courses").document(String.valueOf(id))
-                .set(courseData)
-                .addOnSuccessListener(aVoid -> Toast.makeText(CourseDetailsActivity.this, "Synced to cloud.", Toast.LENGTH_SHORT).show())
-                .addOnFailureListener(e -> Toast.makeText(CourseDetailsActivity.this, "Sync failed: " + e.getMessage(), Toast.LENGTH_SHORT).show());
-    }
-
-    /**
-     * Checks if a network connection is available.
-     * @return true if connected, false otherwise.
-     */
-    private boolean isNetworkAvailable() {
-        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
-        return activeNetworkInfo != null && activeNetworkInfo.isConnected();
     }
 
     /**
@@ -6,17 +6,16 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.annotation.SuppressLint;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
 import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.universalyoga.admin.R;
 import com.example.universalyoga.admin.adapters.SearchAdapter;
-import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.repository.SearchRepository;
 import com.example.universalyoga.admin.models.SearchResult;
 
 import java.util.ArrayList;
@@ -24,16 +23,18 @@ import java.util.List;
 
 /**
  * This Activity allows the user to search for class instances in the database
- * based on a query and displays the results in a list.
+ * based on a query and displays the results in a list, best matches first.
  */
 public class SearchActivity extends AppCompatActivity implements SearchAdapter.OnSearchResultClickListener {
 
-    // Class variables for UI components, data, and the database helper.
-    private DatabaseHelper dbHelper;
+    // Class variables for UI components, data, and the search repository.
+    private SearchRepository searchRepository;
+    private String latestQuery = "";
     private SearchAdapter searchAdapter;
     private List<SearchResult> searchResults;
     private RecyclerView recyclerView;
     private SearchView searchView;
+    private TextView textViewTruncated;
 
     /**
      * Called when the Activity is first created.
@@ -52,9 +53,10 @@ public class SearchActivity extends AppCompatActivity implements SearchAdapter.O
         }
 
         // Initialize components.
-        dbHelper = new DatabaseHelper(this);
+        searchRepository = SearchRepository.getInstance(this);
         recyclerView = findViewById(R.id.recycler_view_search_results);
         searchView = findViewById(R.id.search_view);
+        textViewTruncated = findViewById(R.id.text_view_search_truncated);
 
         // Setup the RecyclerView.
         searchResults = new ArrayList<>();
@@ -95,48 +97,45 @@ public class SearchActivity extends AppCompatActivity implements SearchAdapter.O
     }
 
     /**
-     * Performs a JOIN query on the database to search across multiple tables and fields.
+     * Runs the search in the background and shows the best matches first.
+     * Results for an older query that arrive after a newer one was typed are ignored.
      * @param query The user's search keyword.
      */
-    @SuppressLint("NotifyDataSetChanged")
     private void performSearch(String query) {
-        List<SearchResult> newResults = new ArrayList<>();
-
-        // If the query is not empty, perform the search.
-        if (!query.isEmpty()) {
-            SQLiteDatabase db = dbHelper.getReadableDatabase();
-            String searchQuery = "%" + query + "%";
-
-            String rawQuery = "SELECT c." + DatabaseHelper.COLUMN_COURSE_ID + ", c." + DatabaseHelper.COLUMN_COURSE_TYPE +
-                    ", c." + DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK +
-                    ", i." + DatabaseHelper.COLUMN_INSTANCE_DATE + ", i." + DatabaseHelper.COLUMN_INSTANCE_TEACHER +
-                    " FROM " + DatabaseHelper.TABLE_COURSES + " c" +
-                    " JOIN " + DatabaseHelper.TABLE_INSTANCES + " i ON c." + DatabaseHelper.COLUMN_COURSE_ID + " = i." + DatabaseHelper.COLUMN_INSTANCE_COURSE_ID +
-                    " WHERE i." + DatabaseHelper.COLUMN_INSTANCE_TEACHER + " LIKE ?" +
-                    " OR i." + DatabaseHelper.COLUMN_INSTANCE_DATE + " LIKE ?" +
-                    " OR c." + DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK + " LIKE ?";
-
-            Cursor cursor = db.rawQuery(rawQuery, new String[]{searchQuery, searchQuery, searchQuery});
-
-            while (cursor.moveToNext()) {
-                @SuppressLint("Range") long courseId = cursor.getLong(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_ID));
-                @SuppressLint("Range") String courseType = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_TYPE));
-                @SuppressLint("Range") String dayOfWeek = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK));
-                @SuppressLint("Range") String instanceDate = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_INSTANCE_DATE));
-                @SuppressLint("Range") String instanceTeacher = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_INSTANCE_TEACHER));
-
-                newResults.add(new SearchResult(courseId, courseType, instanceDate, instanceTeacher, dayOfWeek));
+        latestQuery = query;
+        searchRepository.search(query, cursor -> {
+            if (!query.equals(latestQuery) || isDestroyed()) {
+                if (cursor != null) cursor.close();
+                return;
             }
-            cursor.close();
-        }
 
-        // Update the adapter with the new search results (or an empty list if the query is empty).
-        searchAdapter.updateData(newResults);
+            // Say so when only the best matches are shown, since the rest cannot be scrolled to.
+            int matchCount = cursor != null ? SearchRepository.matchCount(cursor) : 0;
+            if (cursor != null && matchCount > cursor.getCount()) {
+                textViewTruncated.setText("Showing the best " + cursor.getCount() + " of " + matchCount +
+                        " matches. Type more words to narrow the search.");
+                textViewTruncated.setVisibility(View.VISIBLE);
+            } else {
+                textViewTruncated.setVisibility(View.GONE);
+            }
 
-        // Optional: Show a message if no results were found for a non-empty query.
-        if (newResults.isEmpty() && !query.isEmpty()) {
-            Toast.makeText(this, "No results found for '" + query + "'", Toast.LENGTH_SHORT).show();
-        }
+            // Show the new results straight from the cursor; the adapter closes the previous one.
+            searchAdapter.swapCursor(cursor);
+
+            // Optional: Show a message if no results were found for a non-empty query.
+            if (cursor == null && !query.trim().isEmpty()) {
+                Toast.makeText(this, "No results found for '" + query + "'", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Releases the cursor of the last search.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchAdapter.swapCursor(null);
     }
 
     /**
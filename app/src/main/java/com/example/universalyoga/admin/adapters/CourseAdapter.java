@@ -1,6 +1,5 @@
 package com.example.universalyoga.admin.adapters;
 
-import android.annotation.SuppressLint;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,20 +7,53 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.universalyoga.admin.R;
 import com.example.universalyoga.admin.models.Course;
+import com.example.universalyoga.admin.models.CourseSummary;
+import com.example.universalyoga.admin.utils.DateUtils;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * This adapter acts as a bridge between the data (a list of courses)
  * and the UI (the RecyclerView on the main screen).
+ * A new list is compared with the shown one on a background thread, matching courses by id,
+ * and only the rows that were added, removed, moved or changed are updated.
  */
 public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseViewHolder> {
 
-    // The list of courses to be displayed.
-    private final List<Course> courseList;
+    /**
+     * Matches courses by id; a course whose fields are all unchanged keeps its row as it is.
+     */
+    private static final DiffUtil.ItemCallback<Course> DIFF_CALLBACK = new DiffUtil.ItemCallback<Course>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Course oldCourse, @NonNull Course newCourse) {
+            return oldCourse.getId() == newCourse.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Course oldCourse, @NonNull Course newCourse) {
+            // All fields count, not just the shown ones, since the row hands its Course to the listener.
+            return Objects.equals(oldCourse.getDayOfWeek(), newCourse.getDayOfWeek())
+                    && Objects.equals(oldCourse.getTime(), newCourse.getTime())
+                    && Objects.equals(oldCourse.getType(), newCourse.getType())
+                    && oldCourse.getCapacity() == newCourse.getCapacity()
+                    && oldCourse.getDuration() == newCourse.getDuration()
+                    && Double.compare(oldCourse.getPrice(), newCourse.getPrice()) == 0
+                    && Objects.equals(oldCourse.getDescription(), newCourse.getDescription())
+                    && sameSummary(oldCourse.getSummary(), newCourse.getSummary());
+        }
+    };
+
+    // Holds the courses shown and works out the row updates for a new list.
+    private final AsyncListDiffer<Course> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    // The list last handed to the differ, which the shown list catches up with once diffed.
+    private List<Course> courseList;
     // The listener to handle clicks on items.
     private final OnItemInteractionListener listener;
 
@@ -41,19 +73,34 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
      * @param listener The activity that will handle the interaction events.
      */
     public CourseAdapter(List<Course> courseList, OnItemInteractionListener listener) {
-        this.courseList = courseList;
         this.listener = listener;
+        submit(new ArrayList<>(courseList));
     }
 
     /**
-     * A method to update the adapter's data set and refresh the RecyclerView.
+     * Replaces the courses displayed. The rows are updated once the new list has been compared
+     * with the current one in the background.
      * @param newCourses The new list of courses to display.
      */
-    @SuppressLint("NotifyDataSetChanged")
     public void updateData(List<Course> newCourses) {
-        this.courseList.clear();
-        this.courseList.addAll(newCourses);
-        notifyDataSetChanged();
+        submit(new ArrayList<>(newCourses));
+    }
+
+    /**
+     * Adds the next page of courses to the end of the list.
+     * @param moreCourses The courses to append.
+     */
+    public void appendData(List<Course> moreCourses) {
+        // Built on the last list submitted, which a pending update may not have shown yet.
+        List<Course> newList = new ArrayList<>(courseList.size() + moreCourses.size());
+        newList.addAll(courseList);
+        newList.addAll(moreCourses);
+        submit(newList);
+    }
+
+    private void submit(List<Course> newList) {
+        courseList = newList;
+        differ.submitList(newList);
     }
 
     /**
@@ -74,7 +121,7 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
      */
     @Override
     public void onBindViewHolder(@NonNull CourseViewHolder holder, int position) {
-        Course currentCourse = courseList.get(position);
+        Course currentCourse = differ.getCurrentList().get(position);
         holder.bind(currentCourse, listener);
     }
 
@@ -83,7 +130,15 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
      */
     @Override
     public int getItemCount() {
-        return courseList.size();
+        return differ.getCurrentList().size();
+    }
+
+    private static boolean sameSummary(@Nullable CourseSummary a, @Nullable CourseSummary b) {
+        if (a == null || b == null) return a == b;
+        return a.getInstanceCount() == b.getInstanceCount()
+                && a.getUpcomingCount() == b.getUpcomingCount()
+                && a.getNextEpochDay() == b.getNextEpochDay()
+                && Objects.equals(a.getLastTeacher(), b.getLastTeacher());
     }
 
     /**
@@ -92,7 +147,7 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
     static class CourseViewHolder extends RecyclerView.ViewHolder {
         // UI elements for a single list item.
         LinearLayout infoLayout;
-        TextView textViewCourseType, textViewCourseDayTime;
+        TextView textViewCourseType, textViewCourseDayTime, textViewCourseSummary;
         // Changed from TextView to ImageView
         ImageView imageViewEdit, imageViewDelete;
 
@@ -102,6 +157,7 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
             infoLayout = itemView.findViewById(R.id.course_info_layout);
             textViewCourseType = itemView.findViewById(R.id.text_view_course_type);
             textViewCourseDayTime = itemView.findViewById(R.id.text_view_course_day_time);
+            textViewCourseSummary = itemView.findViewById(R.id.text_view_course_summary);
             // Correctly reference the ImageViews
             imageViewEdit = itemView.findViewById(R.id.image_view_edit);
             imageViewDelete = itemView.findViewById(R.id.image_view_delete);
@@ -114,9 +170,7 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
          */
         public void bind(final Course course, final OnItemInteractionListener listener) {
             // Set the text for the course details.
-            textViewCourseType.setText(course.getType());
-            String dayTime = course.getDayOfWeek() + ", " + course.getTime();
-            textViewCourseDayTime.setText(dayTime);
+            bindRow(course.getType(), course.getDayOfWeek(), course.getTime(), course.getSummary());
 
             // Set click listeners.
             // Click on the main info area to view instances.
@@ -126,5 +180,39 @@ public class CourseAdapter extends RecyclerView.Adapter<CourseAdapter.CourseView
             // Click on the delete icon to delete the course.
             imageViewDelete.setOnClickListener(v -> listener.onItemDelete(course.getId()));
         }
+
+        /**
+         * Sets the text of the row.
+         */
+        void bindRow(String type, String dayOfWeek, String time, @Nullable CourseSummary summary) {
+            textViewCourseType.setText(type);
+            String dayTime = dayOfWeek + ", " + time;
+            textViewCourseDayTime.setText(dayTime);
+            if (summary == null) {
+                textViewCourseSummary.setVisibility(View.GONE);
+            } else {
+                textViewCourseSummary.setVisibility(View.VISIBLE);
+                textViewCourseSummary.setText(describe(summary));
+            }
+        }
+
+        /**
+         * Builds the overview line of a course, e.g. "12 upcoming classes, next on 21 Oct · Jess".
+         */
+        private static String describe(CourseSummary summary) {
+            if (summary.getInstanceCount() == 0) return "No classes scheduled";
+            StringBuilder text = new StringBuilder();
+            int upcoming = summary.getUpcomingCount();
+            if (upcoming == 0) {
+                text.append("No upcoming classes");
+            } else {
+                text.append(upcoming).append(upcoming == 1 ? " upcoming class" : " upcoming classes")
+                        .append(", next on ").append(DateUtils.formatShortEpochDay(summary.getNextEpochDay()));
+            }
+            if (summary.getLastTeacher() != null) {
+                text.append(" · ").append(summary.getLastTeacher());
+            }
+            return text.toString();
+        }
     }
 }
\ No newline at end of file
@@ -7,18 +7,36 @@ import android.widget.ImageView; // Import ImageView
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.universalyoga.admin.R;
 import com.example.universalyoga.admin.models.ClassInstance;
+import com.example.universalyoga.admin.utils.DateUtils;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Adapter for the class instances RecyclerView.
  * It connects the list of ClassInstance data to the UI.
+ * Rows have stable ids, the instance ids. An edited or deleted instance is updated in place
+ * (see updateInPlace() and removeInPlace()), and a reloaded list is diffed against the shown
+ * one; either way a changed row gets a payload naming the fields that changed, so only
+ * those views are set again.
  */
 public class InstanceAdapter extends RecyclerView.Adapter<InstanceAdapter.InstanceViewHolder> {
 
+    // Change payload flags, combined into an Integer.
+    private static final int CHANGED_DATE = 1;
+    private static final int CHANGED_TEACHER = 1 << 1;
+    // The comments are not shown, but the row hands its ClassInstance to the listener.
+    private static final int CHANGED_COMMENTS = 1 << 2;
+
     private final List<ClassInstance> instanceList;
+    // Position of each instance in instanceList, by id.
+    private final Map<Long, Integer> positions = new HashMap<>();
     private final OnInstanceInteractionListener listener;
 
     /**
@@ -31,8 +49,82 @@ public class InstanceAdapter extends RecyclerView.Adapter<InstanceAdapter.Instan
     }
 
     public InstanceAdapter(List<ClassInstance> instanceList, OnInstanceInteractionListener listener) {
-        this.instanceList = instanceList;
+        this.instanceList = new ArrayList<>(instanceList);
         this.listener = listener;
+        indexFrom(0);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replaces the instances displayed, updating only the rows that were added, removed, moved
+     * or changed. The lists are a few pages long, so the diff runs here on the main thread,
+     * in order with the in-place updates.
+     * @param newInstances The new list of instances, ordered by date.
+     */
+    public void updateData(List<ClassInstance> newInstances) {
+        List<ClassInstance> newList = new ArrayList<>(newInstances);
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new InstanceDiff(instanceList, newList));
+        instanceList.clear();
+        instanceList.addAll(newList);
+        positions.clear();
+        indexFrom(0);
+        diff.dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Adds the next page of instances to the end of the list.
+     */
+    public void appendData(List<ClassInstance> moreInstances) {
+        int start = instanceList.size();
+        instanceList.addAll(moreInstances);
+        indexFrom(start);
+        notifyItemRangeInserted(start, moreInstances.size());
+    }
+
+    /**
+     * Shows the edited instance in its row, setting only the views of the fields that changed.
+     * @return false if the instance is not shown or its date changed, which can move its row;
+     *         the list must be reloaded then.
+     */
+    public boolean updateInPlace(ClassInstance instance) {
+        Integer position = positions.get(instance.getId());
+        if (position == null) return false;
+        ClassInstance old = instanceList.get(position);
+        if (old.getEpochDay() != instance.getEpochDay()) return false;
+        int changes = changesBetween(old, instance);
+        instanceList.set(position, instance);
+        if (changes != 0) notifyItemChanged(position, changes);
+        return true;
+    }
+
+    /**
+     * Removes the row of a deleted instance.
+     * @return false if the instance is not shown, in which case the list must be reloaded.
+     */
+    public boolean removeInPlace(long instanceId) {
+        Integer position = positions.remove(instanceId);
+        if (position == null) return false;
+        instanceList.remove((int) position);
+        indexFrom(position);
+        notifyItemRemoved(position);
+        return true;
+    }
+
+    /**
+     * Records the positions of the instances from the given position on.
+     */
+    private void indexFrom(int start) {
+        for (int i = start; i < instanceList.size(); i++) {
+            positions.put(instanceList.get(i).getId(), i);
+        }
+    }
+
+    private static int changesBetween(ClassInstance old, ClassInstance instance) {
+        int changes = 0;
+        if (old.getEpochDay() != instance.getEpochDay()) changes |= CHANGED_DATE;
+        if (!Objects.equals(old.getTeacher(), instance.getTeacher())) changes |= CHANGED_TEACHER;
+        if (!Objects.equals(old.getComments(), instance.getComments())) changes |= CHANGED_COMMENTS;
+        return changes;
     }
 
     @NonNull
@@ -44,6 +136,25 @@ public class InstanceAdapter extends RecyclerView.Adapter<InstanceAdapter.Instan
         return new InstanceViewHolder(itemView);
     }
 
+    /**
+     * Binds only the changed fields when the row is being updated with change payloads.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull InstanceViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int changes = 0;
+        for (Object payload : payloads) {
+            changes |= (Integer) payload;
+        }
+        ClassInstance instance = instanceList.get(position);
+        if ((changes & CHANGED_DATE) != 0) holder.bindDate(instance.getEpochDay());
+        if ((changes & CHANGED_TEACHER) != 0) holder.bindTeacher(instance.getTeacher());
+        holder.bindListeners(instance, listener);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull InstanceViewHolder holder, int position) {
         // Get the data for the current position and bind it to the ViewHolder.
@@ -57,6 +168,48 @@ public class InstanceAdapter extends RecyclerView.Adapter<InstanceAdapter.Instan
         return instanceList.size();
     }
 
+    @Override
+    public long getItemId(int position) {
+        return instanceList.get(position).getId();
+    }
+
+    /**
+     * Matches instances by id and reports which of their fields changed.
+     */
+    private static final class InstanceDiff extends DiffUtil.Callback {
+        private final List<ClassInstance> oldList, newList;
+
+        InstanceDiff(List<ClassInstance> oldList, List<ClassInstance> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldList.get(oldPosition).getId() == newList.get(newPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return changesBetween(oldList.get(oldPosition), newList.get(newPosition)) == 0;
+        }
+
+        @Override
+        public Object getChangePayload(int oldPosition, int newPosition) {
+            return changesBetween(oldList.get(oldPosition), newList.get(newPosition));
+        }
+    }
+
     /**
      * ViewHolder for a single class instance item.
      * It holds references to the UI views for a single row.
@@ -83,13 +236,34 @@ public class InstanceAdapter extends RecyclerView.Adapter<InstanceAdapter.Instan
          */
         public void bind(final ClassInstance instance, final OnInstanceInteractionListener listener) {
             // Set the data to the TextViews.
-            textViewDate.setText(instance.getDate());
-            textViewTeacher.setText("Teacher: " + instance.getTeacher());
+            bindRow(instance.getEpochDay(), instance.getTeacher());
+            bindListeners(instance, listener);
+        }
 
+        /**
+         * Sets the click listeners for the instance, which they pass on.
+         */
+        void bindListeners(final ClassInstance instance, final OnInstanceInteractionListener listener) {
             // Set click listener for the main info area (for editing).
             infoLayout.setOnClickListener(v -> listener.onInstanceClick(instance));
             // Set click listener for the delete icon.
             imageViewDelete.setOnClickListener(v -> listener.onInstanceDelete(instance.getId()));
         }
+
+        /**
+         * Sets the text of the row.
+         */
+        void bindRow(long epochDay, String teacher) {
+            bindDate(epochDay);
+            bindTeacher(teacher);
+        }
+
+        void bindDate(long epochDay) {
+            textViewDate.setText(DateUtils.formatEpochDay(epochDay));
+        }
+
+        void bindTeacher(String teacher) {
+            textViewTeacher.setText("Teacher: " + teacher);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package com.example.universalyoga.admin.adapters;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.universalyoga.admin.data.repository.Page;
+import com.example.universalyoga.admin.data.repository.RepositoryCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Drives page-by-page loading of a RecyclerView list.
+ * The first page is shown as soon as it is loaded, and the next page is requested while
+ * the user is still a few rows away from the end of what has been loaded.
+ * @param <T> The type of the list items.
+ */
+public class Paginator<T> {
+
+    /**
+     * Loads one page of items starting after the given item (null for the first page), or
+     * delivers null if the page could not be loaded.
+     */
+    public interface PageSource<T> {
+        void loadPage(@Nullable T after, int limit, RepositoryCallback<Page<T>> callback);
+    }
+
+    /**
+     * Receives the loaded items so the adapter can be updated.
+     */
+    public interface Listener<T> {
+        /** The whole list was reloaded. */
+        void onItemsReplaced(List<T> items);
+        /** More items were loaded and belong after the existing ones. */
+        void onItemsAppended(List<T> items);
+    }
+
+    private final PageSource<T> source;
+    private final Listener<T> listener;
+    private final int pageSize;
+    private final int prefetchDistance;
+
+    private final List<T> loaded = new ArrayList<>();
+    private RecyclerView recyclerView;
+    private boolean hasMore;
+    private boolean loading;
+    // Incremented by refresh() so results of an older load are ignored.
+    private int generation;
+
+    public Paginator(PageSource<T> source, Listener<T> listener, int pageSize, int prefetchDistance) {
+        this.source = source;
+        this.listener = listener;
+        this.pageSize = pageSize;
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    /**
+     * Starts loading the next page whenever the user scrolls near the end of the list.
+     */
+    public void attachTo(RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                maybeLoadMore();
+            }
+        });
+    }
+
+    /**
+     * Reloads the list from the start, keeping as many rows as are currently loaded
+     * so the user's scroll position stays filled.
+     */
+    public void refresh() {
+        int requestGeneration = ++generation;
+        loading = true;
+        source.loadPage(null, Math.max(pageSize, loaded.size()), page -> {
+            if (requestGeneration != generation) return;
+            loading = false;
+            if (page == null) return; // Not loaded; the next scroll or refresh tries again.
+            loaded.clear();
+            loaded.addAll(page.getItems());
+            hasMore = page.hasMore();
+            listener.onItemsReplaced(Collections.unmodifiableList(new ArrayList<>(loaded)));
+            postMaybeLoadMore();
+        });
+    }
+
+    /**
+     * Replaces a loaded item that was edited in place, so later pages and refreshes start from
+     * the list as it is shown. The edit must not move the item in the list's order.
+     * @param isItem Matches the item to replace.
+     */
+    public void replaceItem(Predicate<T> isItem, T item) {
+        for (int i = 0; i < loaded.size(); i++) {
+            if (isItem.test(loaded.get(i))) {
+                loaded.set(i, item);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops a loaded item that was removed in place, so the next page is not requested after
+     * an item that no longer exists. Loads more if the list no longer fills the screen.
+     * @param isItem Matches the item to drop.
+     */
+    public void removeItem(Predicate<T> isItem) {
+        if (loaded.removeIf(isItem)) postMaybeLoadMore();
+    }
+
+    private void loadMore() {
+        if (loaded.isEmpty()) return;
+        int requestGeneration = generation;
+        loading = true;
+        source.loadPage(loaded.get(loaded.size() - 1), pageSize, page -> {
+            if (requestGeneration != generation) return;
+            loading = false;
+            if (page == null) return; // Not loaded; the next scroll or refresh tries again.
+            loaded.addAll(page.getItems());
+            hasMore = page.hasMore();
+            listener.onItemsAppended(page.getItems());
+            postMaybeLoadMore();
+        });
+    }
+
+    /**
+     * Checks again after the adapter has laid out the new rows, in case they did not fill the screen.
+     */
+    private void postMaybeLoadMore() {
+        if (recyclerView != null) {
+            recyclerView.post(this::maybeLoadMore);
+        }
+    }
+
+    private void maybeLoadMore() {
+        if (loading || !hasMore || recyclerView == null) return;
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!(layoutManager instanceof LinearLayoutManager)) return;
+        int lastVisible = ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition();
+        if (lastVisible >= loaded.size() - 1 - prefetchDistance) {
+            loadMore();
+        }
+    }
+}
@@ -1,35 +1,140 @@
 package com.example.universalyoga.admin.adapters;
 
-import android.annotation.SuppressLint;
+import android.database.Cursor;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.universalyoga.admin.R;
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.database.FullTextSearch;
+import com.example.universalyoga.admin.data.repository.SearchRepository;
 import com.example.universalyoga.admin.models.SearchResult;
+import com.example.universalyoga.admin.utils.DateUtils;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
+/**
+ * Shows search results, either from a list or straight from the cursor returned by
+ * SearchRepository (see swapCursor()). In cursor mode each row is read from the cursor
+ * window only when it is bound, and a SearchResult is only built when a row is clicked.
+ * New results are compared with the shown ones on the computation thread, matching rows by
+ * class instance id, so a keystroke only updates the rows that were added, removed, moved or
+ * changed instead of rebinding the whole list. The comparison keeps only each row's id and a
+ * hash of what it displays, in two arrays, rather than a copy of every row.
+ */
 public class SearchAdapter extends RecyclerView.Adapter<SearchAdapter.SearchResultViewHolder> {
 
-    private final List<SearchResult> resultList;
+    private final List<SearchResult> resultList = new ArrayList<>();
     private final OnSearchResultClickListener listener;
+    // When set, rows are bound from this cursor instead of resultList.
+    private Cursor cursor;
+    private CursorColumns columns;
+    // What each shown row displays, to compare the next results with.
+    private Rows rows = Rows.EMPTY;
+    // Incremented by every change of results, so the diff of results already replaced is dropped.
+    // Written on the main thread only; read by the diff to skip results already replaced.
+    private volatile int generation;
 
     public interface OnSearchResultClickListener {
         void onResultClick(SearchResult result);
     }
 
     public SearchAdapter(List<SearchResult> resultList, OnSearchResultClickListener listener) {
-        this.resultList = resultList;
         this.listener = listener;
+        updateData(resultList);
     }
 
-    @SuppressLint("NotifyDataSetChanged")
+    /**
+     * Shows the given results, once they have been compared with the shown ones.
+     */
     public void updateData(List<SearchResult> newResults) {
+        List<SearchResult> results = new ArrayList<>(newResults);
+        show(null, results, () -> {
+            Rows newRows = new Rows(results.size());
+            for (int i = 0; i < results.size(); i++) {
+                SearchResult result = results.get(i);
+                newRows.set(i, result.getInstanceId(), result.getCourseType(), result.getDayOfWeek(),
+                        result.getInstanceDate(), result.getInstanceTeacher(), result.getSnippet());
+            }
+            return newRows;
+        });
+    }
+
+    /**
+     * Switches the adapter to cursor mode, binding rows directly from the given cursor,
+     * and closes the previous cursor. Pass null to go back to the result list.
+     * The switch happens once the cursor's rows have been compared with the shown ones.
+     */
+    public void swapCursor(@Nullable Cursor newCursor) {
+        if (newCursor == cursor) return;
+        show(newCursor, Collections.emptyList(), () -> {
+            if (newCursor == null) return Rows.EMPTY;
+            // Nothing binds from the new cursor yet, so it can be read on this thread.
+            CursorColumns newColumns = new CursorColumns(newCursor);
+            Rows newRows = new Rows(newCursor.getCount());
+            newCursor.moveToPosition(-1);
+            while (newCursor.moveToNext()) {
+                newRows.set(newCursor.getPosition(), newCursor.getLong(newColumns.instanceId),
+                        newCursor.getString(newColumns.courseType),
+                        newCursor.getString(newColumns.dayOfWeek), newCursor.getLong(newColumns.date),
+                        newCursor.getString(newColumns.teacher), newCursor.getString(newColumns.snippet));
+            }
+            return newRows;
+        });
+    }
+
+    /**
+     * Reads the rows of the new results and diffs them against the shown rows on the
+     * computation thread, then shows the new results and dispatches only the row changes.
+     * If newer results come in meanwhile, these are dropped and their cursor closed; the
+     * diff is skipped if they came before it started.
+     */
+    private void show(@Nullable Cursor newCursor, List<SearchResult> newResults, RowReader reader) {
+        int showGeneration = ++generation;
+        Rows oldRows = rows;
+        AppExecutors executors = AppExecutors.get();
+        executors.computation().execute(() -> {
+            Rows newRows = null;
+            DiffUtil.DiffResult diff = null;
+            if (showGeneration == generation) {
+                newRows = reader.read();
+                diff = DiffUtil.calculateDiff(new RowDiff(oldRows, newRows));
+            }
+            Rows shownRows = newRows;
+            DiffUtil.DiffResult shownDiff = diff;
+            executors.mainThread().execute(() -> {
+                if (showGeneration != generation) {
+                    if (newCursor != null) newCursor.close();
+                    return;
+                }
+                replace(newCursor, newResults, shownRows);
+                shownDiff.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    /**
+     * Makes the new results the shown ones and closes the previous cursor. Rows must be notified after.
+     */
+    private void replace(@Nullable Cursor newCursor, List<SearchResult> newResults, Rows newRows) {
+        Cursor oldCursor = cursor;
+        cursor = newCursor;
+        columns = newCursor == null ? null : new CursorColumns(newCursor);
         resultList.clear();
         resultList.addAll(newResults);
-        notifyDataSetChanged();
+        rows = newRows;
+        if (oldCursor != null) oldCursor.close();
     }
 
     @NonNull
@@ -42,31 +147,157 @@ public class SearchAdapter extends RecyclerView.Adapter<SearchAdapter.SearchResu
 
     @Override
     public void onBindViewHolder(@NonNull SearchResultViewHolder holder, int position) {
+        if (cursor != null) {
+            cursor.moveToPosition(position);
+            holder.bindRow(cursor.getString(columns.courseType), cursor.getString(columns.dayOfWeek),
+                    cursor.getLong(columns.date), cursor.getString(columns.teacher), cursor.getString(columns.snippet));
+            holder.itemView.setOnClickListener(v -> {
+                int clicked = holder.getAdapterPosition();
+                if (cursor != null && clicked != RecyclerView.NO_POSITION && cursor.moveToPosition(clicked)) {
+                    listener.onResultClick(SearchRepository.readResult(cursor));
+                }
+            });
+            return;
+        }
         SearchResult currentResult = resultList.get(position);
         holder.bind(currentResult, listener);
     }
 
     @Override
     public int getItemCount() {
-        return resultList.size();
+        return cursor != null ? cursor.getCount() : resultList.size();
+    }
+
+    /**
+     * Reads the rows of new results, on a background thread.
+     */
+    private interface RowReader {
+        Rows read();
+    }
+
+    /**
+     * The class instance each row shows and a hash of the values it displays. Two rows whose
+     * values hash alike are taken to look the same; at worst such a row keeps its old text
+     * until it is rebound.
+     */
+    private static final class Rows {
+        static final Rows EMPTY = new Rows(0);
+
+        final long[] instanceIds;
+        final int[] contentHashes;
+
+        Rows(int count) {
+            instanceIds = new long[count];
+            contentHashes = new int[count];
+        }
+
+        void set(int position, long instanceId, String courseType, String dayOfWeek, long date, String teacher,
+                 String snippet) {
+            instanceIds[position] = instanceId;
+            int hash = Long.hashCode(date);
+            hash = 31 * hash + Objects.hashCode(courseType);
+            hash = 31 * hash + Objects.hashCode(dayOfWeek);
+            hash = 31 * hash + Objects.hashCode(teacher);
+            hash = 31 * hash + Objects.hashCode(snippet);
+            contentHashes[position] = hash;
+        }
+    }
+
+    /**
+     * Matches rows by class instance id; a row that displays the same values is left as it is.
+     */
+    private static final class RowDiff extends DiffUtil.Callback {
+        private final Rows oldRows, newRows;
+
+        RowDiff(Rows oldRows, Rows newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.instanceIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.instanceIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldRows.instanceIds[oldPosition] == newRows.instanceIds[newPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return oldRows.contentHashes[oldPosition] == newRows.contentHashes[newPosition];
+        }
+    }
+
+    /**
+     * Column indices of a search cursor, looked up once per cursor instead of once per row.
+     */
+    private static final class CursorColumns {
+        final int instanceId, courseType, dayOfWeek, date, teacher, snippet;
+
+        CursorColumns(Cursor cursor) {
+            instanceId = cursor.getColumnIndexOrThrow(SearchRepository.COLUMN_INSTANCE_ID);
+            courseType = cursor.getColumnIndexOrThrow(SearchRepository.COLUMN_COURSE_TYPE);
+            dayOfWeek = cursor.getColumnIndexOrThrow(SearchRepository.COLUMN_DAY_OF_WEEK);
+            date = cursor.getColumnIndexOrThrow(SearchRepository.COLUMN_DATE);
+            teacher = cursor.getColumnIndexOrThrow(SearchRepository.COLUMN_TEACHER);
+            snippet = cursor.getColumnIndexOrThrow(SearchRepository.COLUMN_SNIPPET);
+        }
     }
 
     static class SearchResultViewHolder extends RecyclerView.ViewHolder {
-        TextView textViewCourseType, textViewInstanceDate, textViewTeacher;
+        TextView textViewCourseType, textViewInstanceDate, textViewTeacher, textViewSnippet;
 
         public SearchResultViewHolder(@NonNull View itemView) {
             super(itemView);
             textViewCourseType = itemView.findViewById(R.id.text_view_search_course_type);
             textViewInstanceDate = itemView.findViewById(R.id.text_view_search_instance_date);
             textViewTeacher = itemView.findViewById(R.id.text_view_search_teacher);
+            textViewSnippet = itemView.findViewById(R.id.text_view_search_snippet);
         }
 
         public void bind(final SearchResult result, final OnSearchResultClickListener listener) {
-            textViewCourseType.setText(result.getCourseType() + " (" + result.getDayOfWeek() + ")");
-            textViewInstanceDate.setText("Date: " + result.getInstanceDate());
-            textViewTeacher.setText("Teacher: " + result.getInstanceTeacher());
+            bindRow(result.getCourseType(), result.getDayOfWeek(), result.getInstanceDate(),
+                    result.getInstanceTeacher(), result.getSnippet());
 
             itemView.setOnClickListener(v -> listener.onResultClick(result));
         }
+
+        void bindRow(String courseType, String dayOfWeek, long date, String teacher, String snippet) {
+            textViewCourseType.setText(courseType + " (" + dayOfWeek + ")");
+            textViewInstanceDate.setText("Date: " + DateUtils.formatEpochDay(date));
+            textViewTeacher.setText("Teacher: " + teacher);
+            textViewSnippet.setText(highlight(snippet));
+        }
+
+        /**
+         * Converts a search snippet into styled text, showing the matched terms in bold.
+         */
+        private static CharSequence highlight(String snippet) {
+            SpannableStringBuilder text = new SpannableStringBuilder();
+            if (snippet == null) return text;
+            int position = 0;
+            while (position < snippet.length()) {
+                int open = snippet.indexOf(FullTextSearch.SNIPPET_START, position);
+                if (open < 0) {
+                    text.append(snippet, position, snippet.length());
+                    break;
+                }
+                text.append(snippet, position, open);
+                int close = snippet.indexOf(FullTextSearch.SNIPPET_END, open);
+                if (close < 0) close = snippet.length();
+                int start = text.length();
+                text.append(snippet, open + 1, close);
+                text.setSpan(new StyleSpan(Typeface.BOLD), start, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                position = close + 1;
+            }
+            return text;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,147 @@
+package com.example.universalyoga.admin.data;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide executors for work that must not run on the main thread.
+ * Database reads share a small pool with a bounded queue (WAL lets them run alongside a write), while
+ * writes go through a single thread because SQLite only ever allows one writer at a time.
+ */
+public final class AppExecutors {
+
+    private static final int DISK_READ_THREADS = 2;
+    // How many reads may wait for a thread; past that, a read is rejected with
+    // RejectedExecutionException, so whoever submits it never waits.
+    private static final int DISK_READ_QUEUE = 32;
+    // CPU-bound work gets a thread per core but one, which is left to the main thread.
+    private static final int COMPUTATION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static final AppExecutors INSTANCE = new AppExecutors();
+
+    private final ThreadPoolExecutor diskRead;
+    private final ExecutorService diskWrite;
+    private final ExecutorService computation;
+    private final Handler mainHandler;
+
+    private AppExecutors() {
+        ThreadPoolExecutor readPool = new ThreadPoolExecutor(DISK_READ_THREADS, DISK_READ_THREADS,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(DISK_READ_QUEUE), runnable -> new Thread(runnable, "db-read"));
+        readPool.allowCoreThreadTimeOut(true);
+        diskRead = readPool;
+        diskWrite = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "db-write"));
+        computation = Executors.newFixedThreadPool(COMPUTATION_THREADS, runnable -> new Thread(runnable, "computation"));
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static AppExecutors get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Executor for database queries. Its queue is bounded: when it is full, submitting a read
+     * throws RejectedExecutionException, and the caller delivers its failure result instead.
+     */
+    public ExecutorService diskRead() {
+        return diskRead;
+    }
+
+    /** Executor for database inserts, updates and deletes, run one at a time in submission order. */
+    public ExecutorService diskWrite() {
+        return diskWrite;
+    }
+
+    /**
+     * Executor for CPU-bound work off the main thread, such as comparing lists, so that work
+     * neither waits behind database reads nor takes a read thread from them.
+     */
+    public ExecutorService computation() {
+        return computation;
+    }
+
+    /**
+     * Waits until the reads running or queued now have finished, then keeps every read thread
+     * waiting until the returned release is run, so no read touches the database meanwhile.
+     * Reads submitted in the meantime run after the release, or are rejected once the queue is
+     * full. May wait for room in the queue, so must not be called on the main thread or a read thread.
+     */
+    public Runnable holdReads() throws InterruptedException {
+        CountDownLatch held = new CountDownLatch(DISK_READ_THREADS);
+        CountDownLatch released = new CountDownLatch(1);
+        // Each task blocks its thread, so the tasks only all run once every earlier read is done.
+        Runnable hold = () -> {
+            held.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        for (int i = 0; i < DISK_READ_THREADS; i++) {
+            try {
+                diskRead.execute(hold);
+            } catch (RejectedExecutionException e) {
+                // The queue is full, so every thread is busy; wait for room behind the queued reads.
+                diskRead.getQueue().put(hold);
+                diskRead.prestartAllCoreThreads();
+            }
+        }
+        try {
+            held.await();
+        } catch (InterruptedException e) {
+            released.countDown();
+            throw e;
+        }
+        return released::countDown;
+    }
+
+    /**
+     * Waits until the tasks running or queued now on a single-thread executor have finished,
+     * then keeps its thread waiting until the returned release is run. Tasks submitted in the
+     * meantime run after the release. Must not be called on that thread, or on a thread its
+     * tasks wait for.
+     */
+    public static Runnable holdThread(ExecutorService thread) throws InterruptedException {
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        thread.execute(() -> {
+            held.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            held.await();
+        } catch (InterruptedException e) {
+            released.countDown();
+            throw e;
+        }
+        return released::countDown;
+    }
+
+    /**
+     * Cancels a read submitted to diskRead() and removes it from the queue if it has not started,
+     * so a superseded read does not hold a place in the queue.
+     */
+    public void cancelRead(Future<?> read) {
+        read.cancel(false);
+        if (read instanceof Runnable) diskRead.remove((Runnable) read);
+    }
+
+    /** Executor that posts to the main (UI) thread. */
+    public Executor mainThread() {
+        return mainHandler::post;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.universalyoga.admin.data;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide view of the device's network connection. One default network callback keeps
+ * the state current as the system reports changes, so checking whether the device is online
+ * is a field read rather than a system call, and listeners hear about a validated network as
+ * soon as it appears.
+ */
+public final class ConnectivityMonitor {
+
+    /**
+     * Receives connectivity changes, on a system callback thread.
+     */
+    public interface Listener {
+        void onConnectivityChanged(boolean online, boolean metered);
+    }
+
+    private static volatile ConnectivityMonitor instance;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean online;
+    private volatile boolean metered;
+
+    public static ConnectivityMonitor getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ConnectivityMonitor.class) {
+                if (instance == null) {
+                    instance = new ConnectivityMonitor(context.getApplicationContext()
+                            .getSystemService(ConnectivityManager.class));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ConnectivityMonitor(ConnectivityManager connectivityManager) {
+        // Read the state once now; the callback reports it too, but only after a round trip.
+        Network network = connectivityManager.getActiveNetwork();
+        update(network == null ? null : connectivityManager.getNetworkCapabilities(network));
+        connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                update(capabilities);
+            }
+
+            @Override
+            public void onLost(Network network) {
+                update(null);
+            }
+        });
+    }
+
+    /**
+     * Returns whether the device has a network that reaches the internet, as last reported.
+     * A network only counts once the system has validated it, so a captive portal does not.
+     */
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * Returns whether the current network may cost the user money, such as mobile data.
+     */
+    public boolean isMetered() {
+        return metered;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private synchronized void update(NetworkCapabilities capabilities) {
+        boolean nowOnline = capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+        boolean nowMetered = capabilities != null
+                && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        // Capabilities are reported often (e.g. on signal strength changes); only real changes are passed on.
+        if (nowOnline == online && nowMetered == metered) return;
+        online = nowOnline;
+        metered = nowMetered;
+        for (Listener listener : listeners) {
+            listener.onConnectivityChanged(nowOnline, nowMetered);
+        }
+    }
+}
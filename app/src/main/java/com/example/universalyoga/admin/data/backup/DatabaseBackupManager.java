@@ -0,0 +1,328 @@
+package com.example.universalyoga.admin.data.backup;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.cache.QueryCache;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.repository.RepositoryCallback;
+import com.example.universalyoga.admin.data.sync.CloudDeleter;
+import com.example.universalyoga.admin.data.sync.CloudPuller;
+import com.example.universalyoga.admin.data.sync.OutboxDispatcher;
+import com.example.universalyoga.admin.data.sync.ScheduleUploader;
+import com.example.universalyoga.admin.data.sync.SyncOutbox;
+import com.example.universalyoga.admin.data.sync.SyncState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Takes compressed snapshots of the live database and restores them.
+ * A snapshot is written with VACUUM INTO, which copies a consistent view of the database page
+ * by page while other connections keep reading, then gzipped into the app's files directory.
+ * Only the newest MAX_BACKUPS snapshots are kept. A restore verifies the snapshot and swaps it
+ * in place of the database file with a single rename, while nothing else uses the database:
+ * the cloud listeners are stopped, the sync threads and the read threads are held, and the
+ * helper is locked so no other thread opens the old file between the close and the rename.
+ *
+ * The restored database becomes what this device has, and the cloud is brought to it: the
+ * writes queued in the backup's outbox and the instances waiting for their course are dropped,
+ * the upload high-water mark goes back to 0 so the next upload sends every restored row, and
+ * the pull watermarks move to the time of the restore so remote changes older than it do not
+ * overwrite the restored rows.
+ */
+public class DatabaseBackupManager {
+
+    private static final int MAX_BACKUPS = 5;
+    private static final String BACKUP_DIRECTORY = "backups";
+    private static final String BACKUP_PREFIX = "universalyoga-";
+    private static final String BACKUP_SUFFIX = ".db.gz";
+    // Sorts chronologically as text, so the newest backup is the last name.
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("uuuuMMdd-HHmmss-SSS");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static volatile DatabaseBackupManager instance;
+
+    private final Context context;
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final QueryCache cache;
+    private final CloudPuller puller;
+    private final OutboxDispatcher dispatcher;
+    private final ScheduleUploader uploader;
+    private final CloudDeleter deleter;
+    // A restore waits for the sync threads, which wait for the write thread, so it runs on neither.
+    private final ExecutorService restoreThread =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "db-restore"));
+
+    public static DatabaseBackupManager getInstance(Context context) {
+        if (instance == null) {
+            synchronized (DatabaseBackupManager.class) {
+                if (instance == null) {
+                    instance = new DatabaseBackupManager(context.getApplicationContext(),
+                            DatabaseHelper.getInstance(context), AppExecutors.get(), QueryCache.get(),
+                            CloudPuller.getInstance(context), OutboxDispatcher.getInstance(context),
+                            ScheduleUploader.getInstance(context), CloudDeleter.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private DatabaseBackupManager(Context context, DatabaseHelper dbHelper, AppExecutors executors, QueryCache cache,
+                                  CloudPuller puller, OutboxDispatcher dispatcher, ScheduleUploader uploader,
+                                  CloudDeleter deleter) {
+        this.context = context;
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.cache = cache;
+        this.puller = puller;
+        this.dispatcher = dispatcher;
+        this.uploader = uploader;
+        this.deleter = deleter;
+    }
+
+    /**
+     * Takes a snapshot of the database and delivers the backup file, or null if it failed.
+     * Runs on the write thread so it is ordered with the writes queued around it, e.g. a
+     * backup queued before a reset captures the data the reset deletes.
+     */
+    public void createBackup(RepositoryCallback<File> callback) {
+        executors.diskWrite().execute(() -> {
+            File backup;
+            try {
+                backup = writeBackup();
+            } catch (IOException | SQLException e) {
+                backup = null;
+            }
+            deliver(callback, backup);
+        });
+    }
+
+    /**
+     * Delivers the available backups, newest first.
+     */
+    public void listBackups(RepositoryCallback<List<File>> callback) {
+        try {
+            executors.diskRead().execute(() -> {
+                List<File> backups = findBackups();
+                Collections.reverse(backups);
+                deliver(callback, backups);
+            });
+        } catch (RejectedExecutionException e) {
+            deliver(callback, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Replaces the database with the given backup and delivers whether it succeeded.
+     * The current database is left untouched if the backup is damaged or from a newer app version.
+     * A running upload is cancelled.
+     */
+    public void restoreBackup(File backup, RepositoryCallback<Boolean> callback) {
+        // Stopping and the swap both run on the write thread, so no snapshot is applied while
+        // the files are swapped; the restart pulls from the watermarks the restore set.
+        puller.stop();
+        restoreThread.execute(() -> {
+            boolean restored;
+            try {
+                restore(backup);
+                restored = true;
+            } catch (IOException | SQLException | ExecutionException e) {
+                restored = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                restored = false;
+            }
+            puller.start();
+            deliver(callback, restored);
+        });
+    }
+
+    private File writeBackup() throws IOException {
+        File directory = backupDirectory();
+        String name = BACKUP_PREFIX + LocalDateTime.now().format(NAME_FORMAT) + BACKUP_SUFFIX;
+        File snapshot = new File(directory, name + ".snapshot");
+        File partial = new File(directory, name + ".part");
+        try {
+            // VACUUM INTO refuses to overwrite, and cannot run inside a transaction.
+            deleteDatabaseFiles(snapshot);
+            dbHelper.getWritableDatabase().execSQL("VACUUM INTO ?", new Object[]{snapshot.getPath()});
+            try (InputStream in = new BufferedInputStream(new FileInputStream(snapshot), BUFFER_SIZE);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(partial), BUFFER_SIZE)) {
+                copy(in, out);
+            }
+            // The finished backup only appears under its real name once it is complete.
+            File backup = new File(directory, name);
+            if (!partial.renameTo(backup)) throw new IOException("Could not save " + backup);
+            deleteOldBackups();
+            return backup;
+        } finally {
+            deleteDatabaseFiles(snapshot);
+            partial.delete();
+        }
+    }
+
+    private void restore(File backup) throws IOException, ExecutionException, InterruptedException {
+        File database = context.getDatabasePath(dbHelper.getDatabaseName());
+        // In the database directory, so the final rename stays on one file system and is atomic.
+        File candidate = new File(database.getParentFile(), database.getName() + ".restore");
+        try {
+            deleteDatabaseFiles(candidate);
+            try (InputStream in = new GZIPInputStream(new FileInputStream(backup), BUFFER_SIZE);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(candidate), BUFFER_SIZE)) {
+                copy(in, out);
+            }
+            verify(candidate);
+
+            // The sync threads read the database themselves, so they are held like the read threads.
+            List<Runnable> releases = new ArrayList<>();
+            try {
+                // The upload goes first: it is cancelled, and a drain may be waiting for it to end.
+                releases.add(uploader.pause());
+                releases.add(dispatcher.pause());
+                releases.add(deleter.pause());
+                executors.diskWrite().submit(() -> {
+                    swap(candidate, database);
+                    return null;
+                }).get();
+            } finally {
+                for (Runnable release : releases) {
+                    release.run();
+                }
+            }
+        } finally {
+            deleteDatabaseFiles(candidate);
+        }
+    }
+
+    /**
+     * Replaces the database file with the verified candidate. Runs on the write thread.
+     */
+    private void swap(File candidate, File database) throws IOException, InterruptedException {
+        Runnable releaseReads = executors.holdReads();
+        try {
+            // The helper's methods lock on it, so while this runs no thread can reopen the old file.
+            synchronized (dbHelper) {
+                // Close every connection so none keeps using the old file, then swap the files.
+                dbHelper.close();
+                new File(database.getPath() + "-wal").delete();
+                new File(database.getPath() + "-shm").delete();
+                if (!candidate.renameTo(database)) throw new IOException("Could not replace the database");
+                cache.invalidateAll();
+                // Reopening runs any migrations the backup needs; its summaries may be days old.
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                DatabaseHelper.refreshStaleCourseSummaries(db);
+                resetSyncState(db);
+            }
+        } finally {
+            releaseReads.run();
+        }
+    }
+
+    /**
+     * Makes the restored database the state the cloud is brought to, see the class comment.
+     */
+    private static void resetSyncState(SQLiteDatabase db) {
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            SyncOutbox.clear(db);
+            db.delete(DatabaseHelper.TABLE_ORPHANS, null, null);
+            SyncState.put(db, DatabaseHelper.STATE_UPLOADED_THROUGH, 0);
+            SyncState.put(db, DatabaseHelper.STATE_PULLED_COURSES_THROUGH, now);
+            SyncState.put(db, DatabaseHelper.STATE_PULLED_INSTANCES_THROUGH, now);
+            SyncState.put(db, DatabaseHelper.STATE_PULLED_DELETIONS_THROUGH, now);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Checks that a decompressed backup is an intact database this app version can open.
+     */
+    private static void verify(File candidate) throws IOException {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(candidate.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            String result = DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null);
+            if (!"ok".equalsIgnoreCase(result)) throw new IOException("The backup is damaged: " + result);
+            if (db.getVersion() < 1 || db.getVersion() > DatabaseHelper.DATABASE_VERSION) {
+                throw new IOException("The backup is not from a compatible version of the app");
+            }
+            DatabaseUtils.queryNumEntries(db, DatabaseHelper.TABLE_COURSES);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Deletes all but the newest MAX_BACKUPS backups.
+     */
+    private void deleteOldBackups() {
+        List<File> backups = findBackups();
+        for (int i = 0; i < backups.size() - MAX_BACKUPS; i++) {
+            backups.get(i).delete();
+        }
+    }
+
+    /**
+     * Returns the complete backups, oldest first.
+     */
+    private List<File> findBackups() {
+        File[] files = backupDirectory().listFiles((dir, name) ->
+                name.startsWith(BACKUP_PREFIX) && name.endsWith(BACKUP_SUFFIX));
+        List<File> backups = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        backups.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return backups;
+    }
+
+    private File backupDirectory() {
+        File directory = new File(context.getFilesDir(), BACKUP_DIRECTORY);
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * Deletes a database file together with the journal files SQLite may have left next to it.
+     */
+    private static void deleteDatabaseFiles(File file) {
+        file.delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        new File(file.getPath() + "-journal").delete();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private <T> void deliver(RepositoryCallback<T> callback, T result) {
+        executors.mainThread().execute(() -> callback.onResult(result));
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.universalyoga.admin.data.cache;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory LRU cache of query results, keyed by query and arguments.
+ * Each entry records the tables it was read from and is dropped only when one of those
+ * tables is written, so returning to a screen whose data has not changed does not touch SQLite.
+ * Cached values are shared between callers and must be treated as read-only.
+ */
+public final class QueryCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private static final QueryCache INSTANCE = new QueryCache();
+
+    private static final class Entry {
+        final Object value;
+        final String[] tables;
+
+        Entry(Object value, String[] tables) {
+            this.value = value;
+            this.tables = tables;
+        }
+    }
+
+    // Access-ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // Incremented on every invalidation; used to reject results that were loaded before a write.
+    private long generation;
+    private final Map<String, Long> lastInvalidated = new HashMap<>();
+    private long lastInvalidatedAll;
+
+    public static QueryCache get() {
+        return INSTANCE;
+    }
+
+    QueryCache() {
+    }
+
+    /**
+     * Builds a cache key from a query name and its arguments.
+     */
+    public static String key(String query, Object... args) {
+        StringBuilder key = new StringBuilder(query);
+        for (Object arg : args) {
+            key.append('|').append(arg);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached result for a key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : (T) entry.value;
+    }
+
+    /**
+     * Marks the start of a load. Pass the returned value to put() once the query has finished.
+     */
+    public synchronized long beginLoad() {
+        return generation;
+    }
+
+    /**
+     * Caches a query result, unless one of its tables was written after the load began,
+     * in which case the result may already be stale and is discarded.
+     * @param loadGeneration The value returned by beginLoad() before the query ran.
+     * @param tables The tables the query read from.
+     */
+    public synchronized void put(String key, Object value, long loadGeneration, String... tables) {
+        if (lastInvalidatedAll > loadGeneration) return;
+        for (String table : tables) {
+            Long invalidatedAt = lastInvalidated.get(table);
+            if (invalidatedAt != null && invalidatedAt > loadGeneration) return;
+        }
+        entries.put(key, new Entry(value, tables));
+    }
+
+    /**
+     * Drops every cached result that was read from any of the given tables.
+     * Call after writing to those tables.
+     */
+    public synchronized void invalidate(String... tables) {
+        generation++;
+        for (String table : tables) {
+            lastInvalidated.put(table, generation);
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (readsAny(iterator.next(), tables)) iterator.remove();
+        }
+    }
+
+    /**
+     * Drops every cached result, e.g. after the whole database file was replaced.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        lastInvalidatedAll = generation;
+        entries.clear();
+    }
+
+    /**
+     * Releases memory in response to ComponentCallbacks2.onTrimMemory().
+     * Everything is dropped once the app is in the background; while the UI is hidden
+     * the least recently used half is dropped.
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            entries.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            int toRemove = entries.size() / 2;
+            Iterator<String> iterator = entries.keySet().iterator();
+            while (toRemove-- > 0 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static boolean readsAny(Entry entry, String[] tables) {
+        for (String read : entry.tables) {
+            for (String written : tables) {
+                if (read.equals(written)) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,14 +1,27 @@
 package com.example.universalyoga.admin.data.database;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Owns the app's single SQLite database. There is one instance per process, obtained with
+ * getInstance(), so every screen shares the same connection pool and the schema check and
+ * connection setup only happen once.
+ */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = "DatabaseHelper";
+
     // Name and version of the database
     private static final String DATABASE_NAME = "universalyoga.db";
-    private static final int DATABASE_VERSION = 1;
+    // Each version above 1 is reached by exactly one step in migrateTo().
+    public static final int DATABASE_VERSION = 13;
 
     // Define table name and columns for the Courses table
     public static final String TABLE_COURSES = "courses";
@@ -20,14 +33,92 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_COURSE_PRICE = "price";
     public static final String COLUMN_COURSE_TYPE = "type";
     public static final String COLUMN_COURSE_DESCRIPTION = "description";
+    public static final String COLUMN_COURSE_UPDATED_AT = "updated_at"; // Change clock value of the last edit, see SYNC_CLOCK
+    public static final String COLUMN_COURSE_CLOUD_ID = "cloud_id"; // Firestore document id, unique across devices
 
     // Define table name and columns for the Class Instances table
     public static final String TABLE_INSTANCES = "class_instances";
     public static final String COLUMN_INSTANCE_ID = "_id";
     public static final String COLUMN_INSTANCE_COURSE_ID = "course_id"; // Foreign key linking to the courses table
-    public static final String COLUMN_INSTANCE_DATE = "date";
+    public static final String COLUMN_INSTANCE_DATE = "date"; // Epoch day (days since 1970-01-01), see DateUtils
     public static final String COLUMN_INSTANCE_TEACHER = "teacher";
     public static final String COLUMN_INSTANCE_COMMENTS = "comments";
+    public static final String COLUMN_INSTANCE_UPDATED_AT = "updated_at"; // Change clock value of the last edit
+    public static final String COLUMN_INSTANCE_CLOUD_ID = "cloud_id"; // Firestore document id, unique across devices
+
+    // Full-text search index: one row per class instance (docid = instance _id) holding the
+    // searchable text of the instance and its course. Kept in sync by triggers, see createSearchIndex().
+    public static final String TABLE_SEARCH = "search_index";
+    public static final String COLUMN_SEARCH_COURSE_ID = "course_id"; // Stored only, not tokenized
+    public static final String COLUMN_SEARCH_TYPE = "type";
+    public static final String COLUMN_SEARCH_DAY_OF_WEEK = "day_of_week";
+    public static final String COLUMN_SEARCH_DESCRIPTION = "description";
+    public static final String COLUMN_SEARCH_DATE = "date"; // dd/MM/yyyy text, so "21/10" matches
+    public static final String COLUMN_SEARCH_TEACHER = "teacher";
+    public static final String COLUMN_SEARCH_COMMENTS = "comments";
+
+    // Per-course summary of its class instances, one row per course that has had instances.
+    // Kept current by triggers on class_instances, see createCourseSummary(), so the course
+    // list reads it with one join instead of aggregating every course's instances.
+    public static final String TABLE_COURSE_SUMMARY = "course_summary";
+    public static final String COLUMN_SUMMARY_COURSE_ID = "course_id";
+    public static final String COLUMN_SUMMARY_INSTANCE_COUNT = "instance_count";
+    public static final String COLUMN_SUMMARY_UPCOMING_COUNT = "upcoming_count"; // Instances dated today or later
+    public static final String COLUMN_SUMMARY_NEXT_DATE = "next_date"; // Epoch day of the next instance, or NULL
+    public static final String COLUMN_SUMMARY_LAST_TEACHER = "last_teacher"; // Teacher of the latest-dated instance
+
+    // Cloud writes waiting to be sent, in the order they were made. Rows are added in the same
+    // transaction as the local write they mirror and removed once Firestore has accepted them,
+    // see SyncOutbox and OutboxDispatcher.
+    public static final String TABLE_OUTBOX = "sync_outbox";
+    public static final String COLUMN_OUTBOX_ID = "_id";
+    public static final String COLUMN_OUTBOX_OP = "op"; // One of the SyncOutbox.OP_ constants
+    public static final String COLUMN_OUTBOX_PATH = "path"; // Firestore document path, e.g. courses/4/instances/17
+    public static final String COLUMN_OUTBOX_PAYLOAD = "payload"; // Document fields as a JSON object, NULL for deletes
+    public static final String COLUMN_OUTBOX_STATUS = "status"; // "pending", or "failed" once it ran out of attempts
+    public static final String COLUMN_OUTBOX_ATTEMPTS = "attempts";
+    public static final String COLUMN_OUTBOX_LAST_ERROR = "last_error";
+    public static final String COLUMN_OUTBOX_CREATED_AT = "created_at"; // Epoch millis
+
+    // Small key-value store for sync bookkeeping, see the STATE_* keys.
+    public static final String TABLE_SYNC_STATE = "sync_state";
+    public static final String COLUMN_STATE_KEY = "key";
+    public static final String COLUMN_STATE_VALUE = "value";
+    // The change clock: epoch millis of the latest change, but always at least one more than the
+    // previous value, so every change gets a distinct, increasing updated_at even within a millisecond.
+    public static final String STATE_CLOCK = "clock";
+    // The change clock value up to which every change has been uploaded.
+    public static final String STATE_UPLOADED_THROUGH = "uploaded_through";
+    // 1 while changes pulled from the cloud are written, which must not be tracked as local changes.
+    public static final String STATE_APPLYING_REMOTE = "applying_remote";
+    // Epoch millis of the newest course, instance and deletion marker documents pulled from the cloud.
+    public static final String STATE_PULLED_COURSES_THROUGH = "pulled_courses_through";
+    public static final String STATE_PULLED_INSTANCES_THROUGH = "pulled_instances_through";
+    public static final String STATE_PULLED_DELETIONS_THROUGH = "pulled_deletions_through";
+
+    // Deleted courses and instances whose deletion has not been uploaded yet, written by triggers.
+    public static final String TABLE_TOMBSTONES = "sync_tombstones";
+    public static final String COLUMN_TOMBSTONE_ID = "_id";
+    public static final String COLUMN_TOMBSTONE_COURSE_ID = "course_id";
+    public static final String COLUMN_TOMBSTONE_INSTANCE_ID = "instance_id"; // NULL when the course itself was deleted
+    public static final String COLUMN_TOMBSTONE_DELETED_AT = "deleted_at"; // Change clock value of the deletion
+    public static final String COLUMN_TOMBSTONE_CLOUD_ID = "cloud_id"; // Cloud id of the deleted row
+
+    // Pulled instance documents whose course has not been pulled yet, applied once it is
+    // (see CloudPuller) and dropped if it never arrives.
+    public static final String TABLE_ORPHANS = "sync_orphans";
+    public static final String COLUMN_ORPHAN_CLOUD_ID = "cloud_id";
+    public static final String COLUMN_ORPHAN_COURSE_CLOUD_ID = "course_cloud_id";
+    public static final String COLUMN_ORPHAN_DATE = "date"; // Epoch day
+    public static final String COLUMN_ORPHAN_TEACHER = "teacher";
+    public static final String COLUMN_ORPHAN_COMMENTS = "comments";
+    public static final String COLUMN_ORPHAN_PULLED_AT = "pulled_at"; // Epoch millis
+
+    // ISO weeks whose schedule document must be rebuilt and sent, marked by triggers on every change
+    // to a class of that week, see createWeekTracking() and WeeklySchedules.
+    public static final String TABLE_DIRTY_WEEKS = "sync_dirty_weeks";
+    public static final String COLUMN_DIRTY_WEEK_START = "week_start"; // Epoch day of the week's Monday
+    public static final String COLUMN_DIRTY_WEEK_MARKED_AT = "marked_at"; // Change clock value of the latest change
 
     // SQL statement to create the Courses table
     private static final String SQL_CREATE_TABLE_COURSES = "CREATE TABLE " + TABLE_COURSES + " (" +
@@ -40,7 +131,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             COLUMN_COURSE_TYPE + " TEXT NOT NULL," +
             COLUMN_COURSE_DESCRIPTION + " TEXT);";
 
-    // SQL statement to create the Class Instances table
+    // SQL statement to create the version 1 Class Instances table (dates as dd/MM/yyyy text).
+    // Migration 3 rebuilds it with integer dates, see createInstancesTable().
     private static final String SQL_CREATE_TABLE_INSTANCES = "CREATE TABLE " + TABLE_INSTANCES + " (" +
             COLUMN_INSTANCE_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
             COLUMN_INSTANCE_COURSE_ID + " INTEGER NOT NULL," +
@@ -49,23 +141,698 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             COLUMN_INSTANCE_COMMENTS + " TEXT," +
             "FOREIGN KEY(" + COLUMN_INSTANCE_COURSE_ID + ") REFERENCES " + TABLE_COURSES + "(" + COLUMN_COURSE_ID + "));";
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    // Index names, kept here so later migrations can drop or rebuild them.
+    private static final String INDEX_INSTANCES_COURSE_DATE = "idx_instances_course_date";
+    private static final String INDEX_INSTANCES_TEACHER = "idx_instances_teacher";
+    private static final String INDEX_COURSES_DAY_TIME = "idx_courses_day_time";
+    private static final String INDEX_COURSES_SCHEDULE = "idx_courses_schedule";
+    private static final String INDEX_OUTBOX_STATUS = "idx_outbox_status";
+    private static final String INDEX_COURSES_UPDATED = "idx_courses_updated";
+    private static final String INDEX_INSTANCES_UPDATED = "idx_instances_updated";
+    private static final String INDEX_TOMBSTONES_DELETED = "idx_tombstones_deleted";
+    private static final String INDEX_INSTANCES_DATE = "idx_instances_date";
+    private static final String INDEX_COURSES_CLOUD_ID = "idx_courses_cloud_id";
+    private static final String INDEX_INSTANCES_CLOUD_ID = "idx_instances_cloud_id";
+    private static final String INDEX_ORPHANS_COURSE = "idx_orphans_course";
+    private static final String INDEX_TOMBSTONES_ROW = "idx_tombstones_row";
+    private static final String INDEX_OUTBOX_PATH = "idx_outbox_path";
+
+    // Days in schedule order. day_of_week is stored as the day name, so the course list is
+    // ordered by COURSE_DAY_NUMBER (1 = Monday ... 7 = Sunday), which has its own expression index.
+    private static final String[] DAYS_OF_WEEK =
+            {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+    public static final String COURSE_DAY_NUMBER = buildDayNumberExpression();
+
+    // Triggers on class_instances that maintain derived tables, see suspendInstanceTriggers().
+    private static final String[] INSTANCE_TRIGGERS = {
+            "search_instance_ai", "search_instance_au", "search_instance_ad",
+            "summary_instance_ai", "summary_instance_au", "summary_instance_ad",
+            "change_instance_ai", "change_instance_au", "change_instance_ad",
+            "week_instance_ai", "week_instance_au", "week_instance_ad",
+            "cloud_instance_ai"};
+
+    // Date given by migration 3 to instances whose text date could not be read (01/01/1970),
+    // so they stay listed, at the start of their course, for the admin to correct.
+    private static final long UNREADABLE_DATE = 0;
+
+    // Today's date in the device's time zone as an epoch day, the SQL equivalent of DateUtils.today().
+    private static final String SQL_TODAY = "CAST(julianday('now', 'localtime') - 2440587.5 AS INTEGER)";
+
+    // Advances the change clock, and reads its current value.
+    private static final String SQL_TICK_CLOCK = "UPDATE " + TABLE_SYNC_STATE + " SET " + COLUMN_STATE_VALUE +
+            " = MAX(" + COLUMN_STATE_VALUE + " + 1, CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER))" +
+            " WHERE " + COLUMN_STATE_KEY + " = '" + STATE_CLOCK + "'";
+    private static final String SQL_CLOCK = "(SELECT " + COLUMN_STATE_VALUE + " FROM " + TABLE_SYNC_STATE +
+            " WHERE " + COLUMN_STATE_KEY + " = '" + STATE_CLOCK + "')";
+    // A new random cloud id: 128 bits as 32 hex digits, a valid Firestore document id.
+    private static final String SQL_NEW_CLOUD_ID = "lower(hex(randomblob(16)))";
+    // Condition of the change tracking triggers: off while pulled changes are applied.
+    private static final String SQL_WHEN_TRACKING = " WHEN (SELECT " + COLUMN_STATE_VALUE + " FROM " + TABLE_SYNC_STATE +
+            " WHERE " + COLUMN_STATE_KEY + " = '" + STATE_APPLYING_REMOTE + "') IS NOT 1";
+
+    // Connection tuning applied in onConfigure().
+    private static final int CACHE_SIZE_KIB = 8 * 1024;
+    private static final long MMAP_SIZE_BYTES = 64L * 1024 * 1024;
+
+    private static volatile DatabaseHelper instance;
+
+    /**
+     * Returns the process-wide database helper, creating it on first use.
+     * @param context Any context; only its application context is kept.
+     */
+    public static DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            synchronized (DatabaseHelper.class) {
+                if (instance == null) {
+                    instance = new DatabaseHelper(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Opens a database with the app's schema under another file name, for benchmarks and tests
+     * that must not touch the app's data. It is not shared; the caller closes it.
+     */
+    @VisibleForTesting
+    public static DatabaseHelper createStandalone(Context context, String name) {
+        return new DatabaseHelper(context.getApplicationContext(), name);
+    }
+
+    private DatabaseHelper(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    private DatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        // synchronous=NORMAL is safe with WAL (a crash can lose the last commits, never corrupt the file)
+        // and is applied to every connection in the pool.
+        setOpenParams(new SQLiteDatabase.OpenParams.Builder()
+                .setSynchronousMode("NORMAL")
+                .build());
+        // With write-ahead logging readers work on their own connection and snapshot,
+        // so queries no longer block writes and writes no longer block queries.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.setForeignKeyConstraintsEnabled(true);
+        runPragma(db, "PRAGMA cache_size = -" + CACHE_SIZE_KIB);
+        runPragma(db, "PRAGMA mmap_size = " + MMAP_SIZE_BYTES);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Execute SQL statements to create tables when the database is first created
+        // Create the version 1 schema, then run every migration so a fresh install
+        // ends up with exactly the same schema as an upgraded one.
         db.execSQL(SQL_CREATE_TABLE_COURSES);
         db.execSQL(SQL_CREATE_TABLE_INSTANCES);
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Drop older tables if they exist and recreate them
-        // In a real-world application, you would need a better data migration strategy
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INSTANCES);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_COURSES);
-        onCreate(db);
+        // Apply each migration step in order. SQLiteOpenHelper already wraps this call
+        // in a transaction, so a failing step rolls the whole upgrade back and keeps the data.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrateTo(db, version);
+        }
+    }
+
+    /**
+     * Upgrades the schema from (version - 1) to the given version without losing data.
+     * Add a new case here (and bump DATABASE_VERSION) for every schema change.
+     * @param db The database being upgraded.
+     * @param version The version this step upgrades to.
+     */
+    private void migrateTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                // Indexes for the lookups every screen does: instances of a course ordered by date,
+                // instances by teacher, and courses by their weekly slot.
+                createInstanceIndexes(db);
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_COURSES_DAY_TIME + " ON " + TABLE_COURSES +
+                        "(" + COLUMN_COURSE_DAY_OF_WEEK + ", " + COLUMN_COURSE_TIME + ")");
+                break;
+            case 3:
+                // Rebuild class_instances with the date stored as an epoch day INTEGER so it sorts
+                // chronologically and range filters can use the (course_id, date) index.
+                // Instances whose date is not a dd/MM/yyyy date are kept with UNREADABLE_DATE.
+                // Instances of courses that no longer exist cannot be kept under the new foreign
+                // key, and deleting a course now cascades to its instances. Both are logged.
+                String dayExpr = "julianday(substr(" + COLUMN_INSTANCE_DATE + ", 7, 4) || '-' || substr(" +
+                        COLUMN_INSTANCE_DATE + ", 4, 2) || '-' || substr(" + COLUMN_INSTANCE_DATE + ", 1, 2))";
+                String hasCourse = COLUMN_INSTANCE_COURSE_ID + " IN (SELECT " + COLUMN_COURSE_ID + " FROM " + TABLE_COURSES + ")";
+                long undated = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_INSTANCES +
+                        " WHERE " + dayExpr + " IS NULL AND " + hasCourse, null);
+                long orphaned = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_INSTANCES +
+                        " WHERE NOT " + hasCourse, null);
+                createInstancesTable(db, TABLE_INSTANCES + "_new");
+                db.execSQL("INSERT INTO " + TABLE_INSTANCES + "_new (" +
+                        COLUMN_INSTANCE_ID + ", " + COLUMN_INSTANCE_COURSE_ID + ", " + COLUMN_INSTANCE_DATE + ", " +
+                        COLUMN_INSTANCE_TEACHER + ", " + COLUMN_INSTANCE_COMMENTS + ")" +
+                        " SELECT " + COLUMN_INSTANCE_ID + ", " + COLUMN_INSTANCE_COURSE_ID +
+                        ", IFNULL(CAST(" + dayExpr + " - 2440587.5 AS INTEGER), " + UNREADABLE_DATE + "), " +
+                        COLUMN_INSTANCE_TEACHER + ", " + COLUMN_INSTANCE_COMMENTS +
+                        " FROM " + TABLE_INSTANCES +
+                        " WHERE " + hasCourse);
+                if (undated > 0) {
+                    Log.w(TAG, undated + " class instances had an unreadable date and were dated 01/01/1970");
+                }
+                if (orphaned > 0) {
+                    Log.w(TAG, orphaned + " class instances of deleted courses were dropped");
+                }
+                db.execSQL("DROP TABLE " + TABLE_INSTANCES);
+                db.execSQL("ALTER TABLE " + TABLE_INSTANCES + "_new RENAME TO " + TABLE_INSTANCES);
+                // Dropping the old table dropped its indexes too.
+                createInstanceIndexes(db);
+                break;
+            case 4:
+                createSearchIndex(db);
+                break;
+            case 5:
+                // Covers the course list order (day in week order, time, id) so keyset pages are index seeks.
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_COURSES_SCHEDULE + " ON " + TABLE_COURSES +
+                        "(" + COURSE_DAY_NUMBER + ", " + COLUMN_COURSE_TIME + ")");
+                break;
+            case 6:
+                createCourseSummary(db);
+                break;
+            case 7:
+                // The dispatcher reads pending entries oldest first, which this index serves directly.
+                db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " (" +
+                        COLUMN_OUTBOX_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        COLUMN_OUTBOX_OP + " TEXT NOT NULL," +
+                        COLUMN_OUTBOX_PATH + " TEXT NOT NULL," +
+                        COLUMN_OUTBOX_PAYLOAD + " TEXT," +
+                        COLUMN_OUTBOX_STATUS + " TEXT NOT NULL DEFAULT 'pending'," +
+                        COLUMN_OUTBOX_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0," +
+                        COLUMN_OUTBOX_LAST_ERROR + " TEXT," +
+                        COLUMN_OUTBOX_CREATED_AT + " INTEGER NOT NULL);");
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_OUTBOX_STATUS + " ON " + TABLE_OUTBOX +
+                        "(" + COLUMN_OUTBOX_STATUS + ", " + COLUMN_OUTBOX_ID + ")");
+                break;
+            case 8:
+                createChangeTracking(db);
+                break;
+            case 9:
+                // Reinstall the change tracking triggers with their condition, so pulled changes are not tracked.
+                db.execSQL("INSERT INTO " + TABLE_SYNC_STATE + " VALUES ('" + STATE_APPLYING_REMOTE + "', 0)");
+                for (String trigger : new String[]{"change_course_ai", "change_course_au", "change_course_ad",
+                        "change_instance_ai", "change_instance_au", "change_instance_ad"}) {
+                    db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+                }
+                createChangeCourseTriggers(db);
+                createChangeInstanceTriggers(db);
+                break;
+            case 10:
+                createWeekTracking(db);
+                break;
+            case 11:
+                // Narrow the search update triggers to the columns the index holds.
+                for (String trigger : new String[]{"search_course_au",
+                        "search_instance_ai", "search_instance_au", "search_instance_ad"}) {
+                    db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+                }
+                createSearchCourseUpdateTrigger(db);
+                createSearchInstanceTriggers(db);
+                break;
+            case 12:
+                createCloudIds(db);
+                break;
+            case 13:
+                // The upload looks up a deleted instance's course tombstone, and skips rows
+                // queued in the outbox, by these columns.
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_TOMBSTONES_ROW + " ON " + TABLE_TOMBSTONES +
+                        "(" + COLUMN_TOMBSTONE_COURSE_ID + ", " + COLUMN_TOMBSTONE_INSTANCE_ID + ")");
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_OUTBOX_PATH + " ON " + TABLE_OUTBOX +
+                        "(" + COLUMN_OUTBOX_PATH + ")");
+                break;
+            default:
+                throw new IllegalStateException("No migration defined for database version " + version);
+        }
+    }
+
+    /**
+     * Creates the current (version 3+) class instances table under the given name.
+     */
+    private void createInstancesTable(SQLiteDatabase db, String tableName) {
+        db.execSQL("CREATE TABLE " + tableName + " (" +
+                COLUMN_INSTANCE_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                COLUMN_INSTANCE_COURSE_ID + " INTEGER NOT NULL," +
+                COLUMN_INSTANCE_DATE + " INTEGER NOT NULL," +
+                COLUMN_INSTANCE_TEACHER + " TEXT NOT NULL," +
+                COLUMN_INSTANCE_COMMENTS + " TEXT," +
+                "FOREIGN KEY(" + COLUMN_INSTANCE_COURSE_ID + ") REFERENCES " + TABLE_COURSES + "(" + COLUMN_COURSE_ID + ")" +
+                " ON DELETE CASCADE);");
+    }
+
+    /**
+     * Creates the indexes on the class instances table.
+     */
+    private void createInstanceIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_INSTANCES_COURSE_DATE + " ON " + TABLE_INSTANCES +
+                "(" + COLUMN_INSTANCE_COURSE_ID + ", " + COLUMN_INSTANCE_DATE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_INSTANCES_TEACHER + " ON " + TABLE_INSTANCES +
+                "(" + COLUMN_INSTANCE_TEACHER + ")");
+    }
+
+    /**
+     * Creates the FTS4 search index, fills it from the existing data and installs the triggers
+     * that keep it in sync with the courses and class instances tables.
+     */
+    private void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_SEARCH + " USING fts4(" +
+                COLUMN_SEARCH_COURSE_ID + ", " + COLUMN_SEARCH_TYPE + ", " + COLUMN_SEARCH_DAY_OF_WEEK + ", " +
+                COLUMN_SEARCH_DESCRIPTION + ", " + COLUMN_SEARCH_DATE + ", " + COLUMN_SEARCH_TEACHER + ", " +
+                COLUMN_SEARCH_COMMENTS + ", notindexed=" + COLUMN_SEARCH_COURSE_ID + ", tokenize=unicode61)");
+
+        db.execSQL("INSERT INTO " + TABLE_SEARCH + selectSearchRows("1"));
+
+        createSearchInstanceTriggers(db);
+        createSearchCourseUpdateTrigger(db);
+        db.execSQL("CREATE TRIGGER search_course_ad AFTER DELETE ON " + TABLE_COURSES + " BEGIN " +
+                "DELETE FROM " + TABLE_SEARCH + " WHERE docid IN (SELECT " + COLUMN_INSTANCE_ID + " FROM " + TABLE_INSTANCES +
+                " WHERE " + COLUMN_INSTANCE_COURSE_ID + " = old." + COLUMN_COURSE_ID + "); " +
+                "END");
+    }
+
+    /**
+     * Installs the trigger that rewrites the search rows of a course's instances when the
+     * course text they include changes. Only those columns fire it: every course write also
+     * stamps updated_at, which would otherwise rewrite all of the course's rows each time.
+     */
+    private static void createSearchCourseUpdateTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER search_course_au AFTER UPDATE OF " + COLUMN_COURSE_TYPE + ", " +
+                COLUMN_COURSE_DAY_OF_WEEK + ", " + COLUMN_COURSE_DESCRIPTION + " ON " + TABLE_COURSES + " BEGIN " +
+                "DELETE FROM " + TABLE_SEARCH + " WHERE docid IN (SELECT " + COLUMN_INSTANCE_ID + " FROM " + TABLE_INSTANCES +
+                " WHERE " + COLUMN_INSTANCE_COURSE_ID + " = new." + COLUMN_COURSE_ID + "); " +
+                "INSERT INTO " + TABLE_SEARCH + selectSearchRows("i." + COLUMN_INSTANCE_COURSE_ID + " = new." + COLUMN_COURSE_ID) + "; " +
+                "END");
+    }
+
+    /**
+     * Installs the triggers that keep the search index in sync with class instance writes.
+     * Updates only fire on the columns the index holds, not on the updated_at stamp.
+     */
+    private static void createSearchInstanceTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER search_instance_ai AFTER INSERT ON " + TABLE_INSTANCES + " BEGIN " +
+                "INSERT INTO " + TABLE_SEARCH + selectSearchRows("i." + COLUMN_INSTANCE_ID + " = new." + COLUMN_INSTANCE_ID) + "; " +
+                "END");
+        db.execSQL("CREATE TRIGGER search_instance_au AFTER UPDATE OF " + COLUMN_INSTANCE_COURSE_ID + ", " +
+                COLUMN_INSTANCE_DATE + ", " + COLUMN_INSTANCE_TEACHER + ", " + COLUMN_INSTANCE_COMMENTS +
+                " ON " + TABLE_INSTANCES + " BEGIN " +
+                "DELETE FROM " + TABLE_SEARCH + " WHERE docid = old." + COLUMN_INSTANCE_ID + "; " +
+                "INSERT INTO " + TABLE_SEARCH + selectSearchRows("i." + COLUMN_INSTANCE_ID + " = new." + COLUMN_INSTANCE_ID) + "; " +
+                "END");
+        db.execSQL("CREATE TRIGGER search_instance_ad AFTER DELETE ON " + TABLE_INSTANCES + " BEGIN " +
+                "DELETE FROM " + TABLE_SEARCH + " WHERE docid = old." + COLUMN_INSTANCE_ID + "; " +
+                "END");
+    }
+
+    /**
+     * Creates the course summary table, fills it from the existing data and installs the
+     * triggers that recompute a course's row whenever one of its instances changes.
+     * Each recompute only seeks the (course_id, date) index of that one course.
+     */
+    private void createCourseSummary(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_COURSE_SUMMARY + " (" +
+                COLUMN_SUMMARY_COURSE_ID + " INTEGER PRIMARY KEY" +
+                " REFERENCES " + TABLE_COURSES + "(" + COLUMN_COURSE_ID + ") ON DELETE CASCADE," +
+                COLUMN_SUMMARY_INSTANCE_COUNT + " INTEGER NOT NULL," +
+                COLUMN_SUMMARY_UPCOMING_COUNT + " INTEGER NOT NULL," +
+                COLUMN_SUMMARY_NEXT_DATE + " INTEGER," +
+                COLUMN_SUMMARY_LAST_TEACHER + " TEXT);");
+
+        db.execSQL(summarizeCourses("1"));
+
+        createSummaryTriggers(db);
+    }
+
+    /**
+     * Installs the triggers that recompute a course's summary when one of its instances changes.
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER summary_instance_ai AFTER INSERT ON " + TABLE_INSTANCES + " BEGIN " +
+                summarizeCourses("c." + COLUMN_COURSE_ID + " = new." + COLUMN_INSTANCE_COURSE_ID) + "; " +
+                "END");
+        // An instance moved to another course changes the summary of both courses.
+        db.execSQL("CREATE TRIGGER summary_instance_au AFTER UPDATE OF " + COLUMN_INSTANCE_COURSE_ID + ", " +
+                COLUMN_INSTANCE_DATE + ", " + COLUMN_INSTANCE_TEACHER + " ON " + TABLE_INSTANCES + " BEGIN " +
+                summarizeCourses("c." + COLUMN_COURSE_ID + " IN (old." + COLUMN_INSTANCE_COURSE_ID +
+                        ", new." + COLUMN_INSTANCE_COURSE_ID + ")") + "; " +
+                "END");
+        // When the course itself is being deleted it is already gone here, so nothing is
+        // re-inserted and its summary row is removed by the cascading foreign key.
+        db.execSQL("CREATE TRIGGER summary_instance_ad AFTER DELETE ON " + TABLE_INSTANCES + " BEGIN " +
+                summarizeCourses("c." + COLUMN_COURSE_ID + " = old." + COLUMN_INSTANCE_COURSE_ID) + "; " +
+                "END");
+    }
+
+    /**
+     * Adds the updated_at columns, the sync state and tombstone tables, and the triggers that
+     * stamp every course and instance change with the change clock and record every deletion,
+     * so an upload can select exactly what changed since the last one.
+     */
+    private void createChangeTracking(SQLiteDatabase db) {
+        // Rows that predate change tracking count as changed (1 > 0), so the first upload sends them.
+        db.execSQL("ALTER TABLE " + TABLE_COURSES + " ADD COLUMN " + COLUMN_COURSE_UPDATED_AT + " INTEGER NOT NULL DEFAULT 1");
+        db.execSQL("ALTER TABLE " + TABLE_INSTANCES + " ADD COLUMN " + COLUMN_INSTANCE_UPDATED_AT + " INTEGER NOT NULL DEFAULT 1");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_COURSES_UPDATED + " ON " + TABLE_COURSES +
+                "(" + COLUMN_COURSE_UPDATED_AT + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_INSTANCES_UPDATED + " ON " + TABLE_INSTANCES +
+                "(" + COLUMN_INSTANCE_UPDATED_AT + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " (" +
+                COLUMN_STATE_KEY + " TEXT PRIMARY KEY," +
+                COLUMN_STATE_VALUE + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + TABLE_SYNC_STATE + " VALUES ('" + STATE_CLOCK + "', 1), ('" +
+                STATE_UPLOADED_THROUGH + "', 0)");
+
+        db.execSQL("CREATE TABLE " + TABLE_TOMBSTONES + " (" +
+                COLUMN_TOMBSTONE_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                COLUMN_TOMBSTONE_COURSE_ID + " INTEGER NOT NULL," +
+                COLUMN_TOMBSTONE_INSTANCE_ID + " INTEGER," +
+                COLUMN_TOMBSTONE_DELETED_AT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_TOMBSTONES_DELETED + " ON " + TABLE_TOMBSTONES +
+                "(" + COLUMN_TOMBSTONE_DELETED_AT + ")");
+
+        createChangeCourseTriggers(db);
+        createChangeInstanceTriggers(db);
+    }
+
+    /**
+     * Installs the triggers that stamp course changes and record course deletions.
+     */
+    private static void createChangeCourseTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER change_course_ai AFTER INSERT ON " + TABLE_COURSES + SQL_WHEN_TRACKING + " BEGIN " +
+                stampChange(TABLE_COURSES, COLUMN_COURSE_UPDATED_AT, "new." + COLUMN_COURSE_ID) +
+                "END");
+        db.execSQL("CREATE TRIGGER change_course_au AFTER UPDATE OF " + COLUMN_COURSE_DAY_OF_WEEK + ", " +
+                COLUMN_COURSE_TIME + ", " + COLUMN_COURSE_CAPACITY + ", " + COLUMN_COURSE_DURATION + ", " +
+                COLUMN_COURSE_PRICE + ", " + COLUMN_COURSE_TYPE + ", " + COLUMN_COURSE_DESCRIPTION +
+                " ON " + TABLE_COURSES + SQL_WHEN_TRACKING + " BEGIN " +
+                stampChange(TABLE_COURSES, COLUMN_COURSE_UPDATED_AT, "new." + COLUMN_COURSE_ID) +
+                "END");
+        db.execSQL("CREATE TRIGGER change_course_ad AFTER DELETE ON " + TABLE_COURSES + SQL_WHEN_TRACKING + " BEGIN " +
+                recordDeletion("old." + COLUMN_COURSE_ID, "NULL", "old." + COLUMN_COURSE_CLOUD_ID) +
+                "END");
+    }
+
+    /**
+     * Installs the triggers that stamp class instance changes and record instance deletions.
+     * Deleting a course fires the delete trigger for each of its instances as they cascade.
+     */
+    private static void createChangeInstanceTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER change_instance_ai AFTER INSERT ON " + TABLE_INSTANCES + SQL_WHEN_TRACKING + " BEGIN " +
+                stampChange(TABLE_INSTANCES, COLUMN_INSTANCE_UPDATED_AT, "new." + COLUMN_INSTANCE_ID) +
+                "END");
+        db.execSQL("CREATE TRIGGER change_instance_au AFTER UPDATE OF " + COLUMN_INSTANCE_COURSE_ID + ", " +
+                COLUMN_INSTANCE_DATE + ", " + COLUMN_INSTANCE_TEACHER + ", " + COLUMN_INSTANCE_COMMENTS +
+                " ON " + TABLE_INSTANCES + SQL_WHEN_TRACKING + " BEGIN " +
+                stampChange(TABLE_INSTANCES, COLUMN_INSTANCE_UPDATED_AT, "new." + COLUMN_INSTANCE_ID) +
+                "END");
+        db.execSQL("CREATE TRIGGER change_instance_ad AFTER DELETE ON " + TABLE_INSTANCES + SQL_WHEN_TRACKING + " BEGIN " +
+                recordDeletion("old." + COLUMN_INSTANCE_COURSE_ID, "old." + COLUMN_INSTANCE_ID,
+                        "old." + COLUMN_INSTANCE_CLOUD_ID) +
+                "END");
+    }
+
+    /**
+     * Gives every course and instance a cloud id, the id of its Firestore document, so rows
+     * created on different devices never share a document. Rows that already exist keep their
+     * row id as cloud id, which is the document they were uploaded to. Tombstones record the
+     * cloud id of the deleted row, and pulled instances wait for their course in sync_orphans.
+     * Both pull watermarks are reset, so the next pull reads every document once, including
+     * those written before documents carried updatedAt.
+     */
+    private void createCloudIds(SQLiteDatabase db) {
+        // The delete triggers are reinstalled to record the new tombstone column.
+        for (String trigger : new String[]{"change_course_ai", "change_course_au", "change_course_ad",
+                "change_instance_ai", "change_instance_au", "change_instance_ad"}) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+        }
+        db.execSQL("ALTER TABLE " + TABLE_COURSES + " ADD COLUMN " + COLUMN_COURSE_CLOUD_ID + " TEXT");
+        db.execSQL("UPDATE " + TABLE_COURSES + " SET " + COLUMN_COURSE_CLOUD_ID + " = CAST(" + COLUMN_COURSE_ID + " AS TEXT)");
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_COURSES_CLOUD_ID + " ON " + TABLE_COURSES +
+                "(" + COLUMN_COURSE_CLOUD_ID + ")");
+        db.execSQL("ALTER TABLE " + TABLE_INSTANCES + " ADD COLUMN " + COLUMN_INSTANCE_CLOUD_ID + " TEXT");
+        db.execSQL("UPDATE " + TABLE_INSTANCES + " SET " + COLUMN_INSTANCE_CLOUD_ID + " = CAST(" + COLUMN_INSTANCE_ID + " AS TEXT)");
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_INSTANCES_CLOUD_ID + " ON " + TABLE_INSTANCES +
+                "(" + COLUMN_INSTANCE_CLOUD_ID + ")");
+        db.execSQL("ALTER TABLE " + TABLE_TOMBSTONES + " ADD COLUMN " + COLUMN_TOMBSTONE_CLOUD_ID + " TEXT");
+        db.execSQL("UPDATE " + TABLE_TOMBSTONES + " SET " + COLUMN_TOMBSTONE_CLOUD_ID + " = CAST(IFNULL(" +
+                COLUMN_TOMBSTONE_INSTANCE_ID + ", " + COLUMN_TOMBSTONE_COURSE_ID + ") AS TEXT)");
+
+        createCloudIdCourseTrigger(db);
+        createCloudIdInstanceTrigger(db);
+        createChangeCourseTriggers(db);
+        createChangeInstanceTriggers(db);
+
+        db.execSQL("CREATE TABLE " + TABLE_ORPHANS + " (" +
+                COLUMN_ORPHAN_CLOUD_ID + " TEXT PRIMARY KEY," +
+                COLUMN_ORPHAN_COURSE_CLOUD_ID + " TEXT NOT NULL," +
+                COLUMN_ORPHAN_DATE + " INTEGER NOT NULL," +
+                COLUMN_ORPHAN_TEACHER + " TEXT NOT NULL," +
+                COLUMN_ORPHAN_COMMENTS + " TEXT," +
+                COLUMN_ORPHAN_PULLED_AT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_ORPHANS_COURSE + " ON " + TABLE_ORPHANS +
+                "(" + COLUMN_ORPHAN_COURSE_CLOUD_ID + ")");
+
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_SYNC_STATE + " VALUES ('" + STATE_PULLED_COURSES_THROUGH +
+                "', 0), ('" + STATE_PULLED_INSTANCES_THROUGH + "', 0)");
+    }
+
+    /**
+     * Installs the trigger that gives a new course a cloud id unless it came with one, as
+     * pulled courses do. It runs whether or not changes are tracked.
+     */
+    private static void createCloudIdCourseTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER cloud_course_ai AFTER INSERT ON " + TABLE_COURSES +
+                " WHEN new." + COLUMN_COURSE_CLOUD_ID + " IS NULL BEGIN " +
+                "UPDATE " + TABLE_COURSES + " SET " + COLUMN_COURSE_CLOUD_ID + " = " + SQL_NEW_CLOUD_ID +
+                " WHERE " + COLUMN_COURSE_ID + " = new." + COLUMN_COURSE_ID + "; " +
+                "END");
+    }
+
+    /**
+     * Installs the trigger that gives a new class instance a cloud id unless it came with one.
+     */
+    private static void createCloudIdInstanceTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER cloud_instance_ai AFTER INSERT ON " + TABLE_INSTANCES +
+                " WHEN new." + COLUMN_INSTANCE_CLOUD_ID + " IS NULL BEGIN " +
+                "UPDATE " + TABLE_INSTANCES + " SET " + COLUMN_INSTANCE_CLOUD_ID + " = " + SQL_NEW_CLOUD_ID +
+                " WHERE " + COLUMN_INSTANCE_ID + " = new." + COLUMN_INSTANCE_ID + "; " +
+                "END");
+    }
+
+    /**
+     * Adds the dirty week table and the triggers that mark the week of every class that is added,
+     * moved, deleted or changed in what the weekly schedule shows (including through its course).
+     * All weeks that already have classes are marked, so their documents are created once.
+     */
+    private void createWeekTracking(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_DIRTY_WEEKS + " (" +
+                COLUMN_DIRTY_WEEK_START + " INTEGER PRIMARY KEY," +
+                COLUMN_DIRTY_WEEK_MARKED_AT + " INTEGER NOT NULL);");
+        // A week's classes are read by date range, across courses.
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_INSTANCES_DATE + " ON " + TABLE_INSTANCES +
+                "(" + COLUMN_INSTANCE_DATE + ")");
+        db.execSQL(SQL_TICK_CLOCK);
+        db.execSQL(markWeeks("SELECT DISTINCT " + weekStart(COLUMN_INSTANCE_DATE) + " FROM " + TABLE_INSTANCES));
+        createWeekCourseTrigger(db);
+        createWeekInstanceTriggers(db);
+    }
+
+    /**
+     * Installs the trigger that marks the weeks of a course's classes when the course fields
+     * the weekly schedule shows change.
+     */
+    private static void createWeekCourseTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER week_course_au AFTER UPDATE OF " + COLUMN_COURSE_DAY_OF_WEEK + ", " +
+                COLUMN_COURSE_TIME + ", " + COLUMN_COURSE_DURATION + ", " + COLUMN_COURSE_TYPE +
+                " ON " + TABLE_COURSES + SQL_WHEN_TRACKING + " BEGIN " +
+                SQL_TICK_CLOCK + "; " +
+                markWeeks("SELECT DISTINCT " + weekStart(COLUMN_INSTANCE_DATE) + " FROM " + TABLE_INSTANCES +
+                        " WHERE " + COLUMN_INSTANCE_COURSE_ID + " = new." + COLUMN_COURSE_ID) + "; " +
+                "END");
+    }
+
+    /**
+     * Installs the triggers that mark the week of a class when it is added, changed or deleted,
+     * and both weeks when it moves to another week. Deleting a course fires the delete trigger
+     * for each of its instances as they cascade.
+     */
+    private static void createWeekInstanceTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER week_instance_ai AFTER INSERT ON " + TABLE_INSTANCES + SQL_WHEN_TRACKING + " BEGIN " +
+                SQL_TICK_CLOCK + "; " +
+                markWeeks("SELECT " + weekStart("new." + COLUMN_INSTANCE_DATE)) + "; " +
+                "END");
+        db.execSQL("CREATE TRIGGER week_instance_au AFTER UPDATE OF " + COLUMN_INSTANCE_COURSE_ID + ", " +
+                COLUMN_INSTANCE_DATE + ", " + COLUMN_INSTANCE_TEACHER +
+                " ON " + TABLE_INSTANCES + SQL_WHEN_TRACKING + " BEGIN " +
+                SQL_TICK_CLOCK + "; " +
+                markWeeks("SELECT " + weekStart("old." + COLUMN_INSTANCE_DATE) +
+                        " UNION SELECT " + weekStart("new." + COLUMN_INSTANCE_DATE)) + "; " +
+                "END");
+        db.execSQL("CREATE TRIGGER week_instance_ad AFTER DELETE ON " + TABLE_INSTANCES + SQL_WHEN_TRACKING + " BEGIN " +
+                SQL_TICK_CLOCK + "; " +
+                markWeeks("SELECT " + weekStart("old." + COLUMN_INSTANCE_DATE)) + "; " +
+                "END");
+    }
+
+    /**
+     * Builds an INSERT OR REPLACE that marks the weeks selected by the query with the current
+     * change clock value, so a week marked again while its document is sent stays dirty.
+     * @param weekStarts A query selecting week start epoch days.
+     */
+    private static String markWeeks(String weekStarts) {
+        return "INSERT OR REPLACE INTO " + TABLE_DIRTY_WEEKS + " (" + COLUMN_DIRTY_WEEK_START + ", " +
+                COLUMN_DIRTY_WEEK_MARKED_AT + ") SELECT ws.*, " + SQL_CLOCK + " FROM (" + weekStarts + ") ws";
+    }
+
+    /**
+     * Builds the expression for the Monday of the ISO week of an epoch day.
+     * Epoch day 0 was a Thursday, three days after a Monday.
+     */
+    private static String weekStart(String epochDay) {
+        return "(" + epochDay + " - (" + epochDay + " + 3) % 7)";
+    }
+
+    /**
+     * Builds the trigger statements that advance the change clock and stamp one row with it.
+     * The UPDATE does not fire the update trigger again: updated_at is not one of its columns.
+     */
+    private static String stampChange(String table, String updatedAtColumn, String rowId) {
+        return SQL_TICK_CLOCK + "; " +
+                "UPDATE " + table + " SET " + updatedAtColumn + " = " + SQL_CLOCK + " WHERE _id = " + rowId + "; ";
+    }
+
+    private static String recordDeletion(String courseId, String instanceId, String cloudId) {
+        return SQL_TICK_CLOCK + "; " +
+                "INSERT INTO " + TABLE_TOMBSTONES + " (" + COLUMN_TOMBSTONE_COURSE_ID + ", " +
+                COLUMN_TOMBSTONE_INSTANCE_ID + ", " + COLUMN_TOMBSTONE_CLOUD_ID + ", " + COLUMN_TOMBSTONE_DELETED_AT + ")" +
+                " VALUES (" + courseId + ", " + instanceId + ", " + cloudId + ", " + SQL_CLOCK + "); ";
+    }
+
+    /**
+     * Drops the per-row triggers on class_instances so a bulk insert does not update the search
+     * index, course summaries, change stamps and dirty weeks once per row. Must be followed, in the
+     * same transaction, by resumeInstanceTriggers(), which brings the derived data up to date.
+     */
+    public static void suspendInstanceTriggers(SQLiteDatabase db) {
+        for (String trigger : INSTANCE_TRIGGERS) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+        }
+    }
+
+    /**
+     * Gives cloud ids to, indexes, summarizes, stamps and marks the weeks of the instances inserted since
+     * suspendInstanceTriggers() in one set-based pass each, then reinstalls the per-row triggers.
+     * @param afterInstanceId The highest instance id before the bulk insert; only newer
+     *                        instances are added to the search index.
+     */
+    public static void resumeInstanceTriggers(SQLiteDatabase db, long afterInstanceId) {
+        db.execSQL("UPDATE " + TABLE_INSTANCES + " SET " + COLUMN_INSTANCE_CLOUD_ID + " = " + SQL_NEW_CLOUD_ID +
+                " WHERE " + COLUMN_INSTANCE_ID + " > " + afterInstanceId + " AND " + COLUMN_INSTANCE_CLOUD_ID + " IS NULL");
+        db.execSQL("INSERT INTO " + TABLE_SEARCH + selectSearchRows("i." + COLUMN_INSTANCE_ID + " > " + afterInstanceId));
+        db.execSQL(summarizeCourses("c." + COLUMN_COURSE_ID + " IN (SELECT " + COLUMN_INSTANCE_COURSE_ID +
+                " FROM " + TABLE_INSTANCES + " WHERE " + COLUMN_INSTANCE_ID + " > " + afterInstanceId + ")"));
+        db.execSQL(SQL_TICK_CLOCK);
+        db.execSQL("UPDATE " + TABLE_INSTANCES + " SET " + COLUMN_INSTANCE_UPDATED_AT + " = " + SQL_CLOCK +
+                " WHERE " + COLUMN_INSTANCE_ID + " > " + afterInstanceId);
+        db.execSQL(markWeeks("SELECT DISTINCT " + weekStart(COLUMN_INSTANCE_DATE) + " FROM " + TABLE_INSTANCES +
+                " WHERE " + COLUMN_INSTANCE_ID + " > " + afterInstanceId));
+        createSearchInstanceTriggers(db);
+        createSummaryTriggers(db);
+        createChangeInstanceTriggers(db);
+        createWeekInstanceTriggers(db);
+        createCloudIdInstanceTrigger(db);
+    }
+
+    /**
+     * Builds an INSERT OR REPLACE that recomputes the summary of the courses matching the condition.
+     * "Upcoming" is relative to the day the statement runs, so rows whose next date has since
+     * passed are recomputed again before they are shown (see refreshStaleCourseSummaries()).
+     * @param condition The WHERE condition selecting the courses, using "c" for courses.
+     */
+    private static String summarizeCourses(String condition) {
+        String instancesOfCourse = " FROM " + TABLE_INSTANCES + " i WHERE i." + COLUMN_INSTANCE_COURSE_ID +
+                " = c." + COLUMN_COURSE_ID;
+        return "INSERT OR REPLACE INTO " + TABLE_COURSE_SUMMARY + " (" + COLUMN_SUMMARY_COURSE_ID + ", " +
+                COLUMN_SUMMARY_INSTANCE_COUNT + ", " + COLUMN_SUMMARY_UPCOMING_COUNT + ", " +
+                COLUMN_SUMMARY_NEXT_DATE + ", " + COLUMN_SUMMARY_LAST_TEACHER + ")" +
+                " SELECT c." + COLUMN_COURSE_ID +
+                ", (SELECT COUNT(*)" + instancesOfCourse + ")" +
+                ", (SELECT COUNT(*)" + instancesOfCourse + " AND i." + COLUMN_INSTANCE_DATE + " >= " + SQL_TODAY + ")" +
+                ", (SELECT MIN(i." + COLUMN_INSTANCE_DATE + ")" + instancesOfCourse +
+                " AND i." + COLUMN_INSTANCE_DATE + " >= " + SQL_TODAY + ")" +
+                ", (SELECT i." + COLUMN_INSTANCE_TEACHER + instancesOfCourse +
+                " ORDER BY i." + COLUMN_INSTANCE_DATE + " DESC, i." + COLUMN_INSTANCE_ID + " DESC LIMIT 1)" +
+                " FROM " + TABLE_COURSES + " c WHERE " + condition;
+    }
+
+    /**
+     * Recomputes the summaries whose next class date has passed since they were written,
+     * which is the only way a summary goes stale without its instances changing.
+     * Must be called on a writable database.
+     */
+    public static void refreshStaleCourseSummaries(SQLiteDatabase db) {
+        db.execSQL(summarizeCourses("c." + COLUMN_COURSE_ID + " IN (SELECT " + COLUMN_SUMMARY_COURSE_ID +
+                " FROM " + TABLE_COURSE_SUMMARY + " WHERE " + COLUMN_SUMMARY_NEXT_DATE +
+                " < " + SQL_TODAY + ")"));
+    }
+
+    /**
+     * Builds the "(columns) SELECT ..." part of an INSERT into the search index for the
+     * instances matching the given condition.
+     * @param condition The WHERE condition selecting the instances to index, using "i" for class_instances.
+     */
+    private static String selectSearchRows(String condition) {
+        return "(docid, " + COLUMN_SEARCH_COURSE_ID + ", " + COLUMN_SEARCH_TYPE + ", " + COLUMN_SEARCH_DAY_OF_WEEK + ", " +
+                COLUMN_SEARCH_DESCRIPTION + ", " + COLUMN_SEARCH_DATE + ", " + COLUMN_SEARCH_TEACHER + ", " +
+                COLUMN_SEARCH_COMMENTS + ")" +
+                " SELECT i." + COLUMN_INSTANCE_ID + ", c." + COLUMN_COURSE_ID + ", c." + COLUMN_COURSE_TYPE +
+                ", c." + COLUMN_COURSE_DAY_OF_WEEK + ", c." + COLUMN_COURSE_DESCRIPTION +
+                ", strftime('%d/%m/%Y', i." + COLUMN_INSTANCE_DATE + " * 86400, 'unixepoch')" +
+                ", i." + COLUMN_INSTANCE_TEACHER + ", i." + COLUMN_INSTANCE_COMMENTS +
+                " FROM " + TABLE_INSTANCES + " i" +
+                " JOIN " + TABLE_COURSES + " c ON c." + COLUMN_COURSE_ID + " = i." + COLUMN_INSTANCE_COURSE_ID +
+                " WHERE " + condition;
+    }
+
+    /**
+     * Runs a PRAGMA statement. Some pragmas return their new value, which execSQL() rejects,
+     * so they are run as a query and the result is discarded.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the position of a day in the week (1 = Monday ... 7 = Sunday), matching
+     * COURSE_DAY_NUMBER, or 8 for an unknown day.
+     */
+    public static int dayNumber(String dayOfWeek) {
+        for (int i = 0; i < DAYS_OF_WEEK.length; i++) {
+            if (DAYS_OF_WEEK[i].equals(dayOfWeek)) return i + 1;
+        }
+        return DAYS_OF_WEEK.length + 1;
+    }
+
+    private static String buildDayNumberExpression() {
+        StringBuilder expression = new StringBuilder("(CASE " + COLUMN_COURSE_DAY_OF_WEEK);
+        for (int i = 0; i < DAYS_OF_WEEK.length; i++) {
+            expression.append(" WHEN '").append(DAYS_OF_WEEK[i]).append("' THEN ").append(i + 1);
+        }
+        return expression.append(" ELSE ").append(DAYS_OF_WEEK.length + 1).append(" END)").toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package com.example.universalyoga.admin.data.database;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Helpers for querying the FTS4 search index.
+ * FTS4 has no built-in ranking function, so results are ranked with Okapi BM25 computed
+ * from the matchinfo(search_index, 'pcnalx') blob of each matching row.
+ */
+public final class FullTextSearch {
+
+    // The matchinfo format string the ranking below expects.
+    public static final String MATCHINFO_FORMAT = "pcnalx";
+
+    // Markers placed around matched terms by snippet(). They cannot be typed by the user,
+    // so the adapter can safely turn them into bold spans.
+    public static final String SNIPPET_START = "\u0002";
+    public static final String SNIPPET_END = "\u0003";
+
+    // Per-column weights, in the column order of the search index:
+    // course_id, type, day_of_week, description, date, teacher, comments.
+    private static final double[] COLUMN_WEIGHTS = {0.0, 2.0, 1.0, 0.5, 1.0, 2.0, 0.5};
+
+    // Standard BM25 tuning constants.
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private FullTextSearch() {
+    }
+
+    /**
+     * Turns free text typed by the user into an FTS MATCH expression where every word is
+     * treated as a prefix and all words must match, e.g. "jes mon" becomes "jes* mon*".
+     * @return The MATCH expression, or null if the text contains no searchable words.
+     */
+    public static String toMatchExpression(String userInput) {
+        StringBuilder expression = new StringBuilder();
+        for (String token : userInput.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) continue;
+            if (expression.length() > 0) expression.append(' ');
+            expression.append(token).append('*');
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    /**
+     * Computes the BM25 score of one matching row. Higher scores are better matches.
+     * @param matchinfo The value of matchinfo(search_index, 'pcnalx') for the row.
+     */
+    public static double bm25(byte[] matchinfo) {
+        // matchinfo is an array of unsigned 32-bit integers in the machine byte order.
+        ByteBuffer buffer = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+        int phraseCount = buffer.getInt(0);
+        int columnCount = buffer.getInt(4);
+        long rowCount = buffer.getInt(8) & 0xFFFFFFFFL;
+        int avgLengthOffset = 3;
+        int lengthOffset = avgLengthOffset + columnCount;
+        int hitsOffset = lengthOffset + columnCount;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount && column < COLUMN_WEIGHTS.length; column++) {
+                double weight = COLUMN_WEIGHTS[column];
+                if (weight == 0) continue;
+                int hitsIndex = hitsOffset + 3 * (column + phrase * columnCount);
+                int hitsInRow = buffer.getInt(4 * hitsIndex);
+                if (hitsInRow == 0) continue;
+                int rowsWithHits = buffer.getInt(4 * (hitsIndex + 2));
+                double avgLength = Math.max(1, buffer.getInt(4 * (avgLengthOffset + column)));
+                double length = buffer.getInt(4 * (lengthOffset + column));
+
+                // Clamp the IDF so terms that appear in most rows still count a little.
+                double idf = Math.max(0.01, Math.log((rowCount - rowsWithHits + 0.5) / (rowsWithHits + 0.5)));
+                double tf = hitsInRow * (K1 + 1) / (hitsInRow + K1 * (1 - B + B * length / avgLength));
+                score += weight * idf * tf;
+            }
+        }
+        return score;
+    }
+}
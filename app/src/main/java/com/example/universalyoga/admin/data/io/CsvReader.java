@@ -0,0 +1,93 @@
+package com.example.universalyoga.admin.data.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 CSV records one at a time from a stream.
+ * Fields may be enclosed in double quotes, in which case they can contain commas, line breaks
+ * and doubled quotes (""). Records end with LF or CRLF.
+ */
+final class CsvReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    // Reused between records.
+    private final StringBuilder field = new StringBuilder();
+    private final List<String> record = new ArrayList<>();
+
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next record.
+     * @return The fields of the record, or null at the end of the input.
+     * @throws IOException if reading fails or a quoted field is not closed.
+     */
+    String[] readRecord() throws IOException {
+        if (!fill()) return null;
+        record.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (!fill()) {
+                if (quoted) throw new IOException("Unterminated quoted field at the end of the file");
+                return endRecord();
+            }
+            char c = buffer[position++];
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (peek() == '"') {
+                    field.append('"');
+                    position++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                return endRecord();
+            } else if (c == '\r') {
+                if (peek() == '\n') position++;
+                return endRecord();
+            } else {
+                field.append(c);
+            }
+        }
+    }
+
+    private String[] endRecord() {
+        record.add(field.toString());
+        return record.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the next character without consuming it, or -1 at the end of the input.
+     */
+    private int peek() throws IOException {
+        return fill() ? buffer[position] : -1;
+    }
+
+    /**
+     * Makes sure at least one character is buffered.
+     * @return false at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        if (position < limit) return true;
+        int read = reader.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.universalyoga.admin.data.io;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a schedule import.
+ */
+public class ImportResult {
+    private final int coursesImported;
+    private final int instancesImported;
+    private final int rowsRejected;
+    private final List<String> errors; // The first few rejected rows, e.g. "Row 12: missing teacher"
+    private final String failure; // Why nothing was imported, or null if the import ran
+
+    public ImportResult(int coursesImported, int instancesImported, int rowsRejected, List<String> errors) {
+        this(coursesImported, instancesImported, rowsRejected, errors, null);
+    }
+
+    private ImportResult(int coursesImported, int instancesImported, int rowsRejected, List<String> errors,
+                         String failure) {
+        this.coursesImported = coursesImported;
+        this.instancesImported = instancesImported;
+        this.rowsRejected = rowsRejected;
+        this.errors = Collections.unmodifiableList(errors);
+        this.failure = failure;
+    }
+
+    /**
+     * Creates the result of an import that was rolled back.
+     */
+    public static ImportResult failed(String failure) {
+        return new ImportResult(0, 0, 0, Collections.emptyList(), failure);
+    }
+
+    public int getCoursesImported() { return coursesImported; }
+    public int getInstancesImported() { return instancesImported; }
+    public int getRowsRejected() { return rowsRejected; }
+    public List<String> getErrors() { return errors; }
+    public String getFailure() { return failure; }
+    public boolean isSuccessful() { return failure == null; }
+}
@@ -0,0 +1,313 @@
+package com.example.universalyoga.admin.data.io;
+
+import android.content.Context;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.JsonWriter;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.repository.RepositoryCallback;
+import com.example.universalyoga.admin.utils.DateUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Exports every course and its class instances to a CSV or JSON file in the format
+ * ScheduleImporter reads (see ScheduleFormat).
+ * The export reads a private snapshot of the database, taken with VACUUM INTO on a read-only
+ * connection of its own, so it is consistent however long writing the file takes, and writers
+ * are never held up: in WAL mode a reader does not block them. The data comes from one ordered
+ * join cursor over the snapshot and goes straight to the file through a buffered channel writer,
+ * so memory use is the same for ten rows or a million.
+ */
+public class ScheduleExporter {
+
+    /**
+     * Receives the number of rows written so far, on the main thread.
+     */
+    public interface ProgressListener {
+        void onProgress(int rowsWritten, int totalRows);
+    }
+
+    public enum Format { CSV, JSON }
+
+    // Progress is reported every this many rows.
+    private static final int PROGRESS_INTERVAL = 1000;
+    private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+    // A larger cursor window than the default means fewer refills of the cursor on big exports.
+    private static final long CURSOR_WINDOW_BYTES = 8L * 1024 * 1024;
+    private static final String SNAPSHOT_FILE = "export-snapshot.db";
+
+    // Columns of the export query, in order.
+    private static final int COURSE_ID = 0, DAY_OF_WEEK = 1, TIME = 2, CAPACITY = 3, DURATION = 4, PRICE = 5,
+            TYPE = 6, DESCRIPTION = 7, INSTANCE_ID = 8, DATE = 9, TEACHER = 10, COMMENTS = 11;
+
+    private static volatile ScheduleExporter instance;
+
+    private final Context context;
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    // Exports run one at a time, so they can share the snapshot file.
+    private final ExecutorService exportThread =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "export"));
+
+    public static ScheduleExporter getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ScheduleExporter.class) {
+                if (instance == null) {
+                    instance = new ScheduleExporter(context.getApplicationContext(),
+                            DatabaseHelper.getInstance(context), AppExecutors.get());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ScheduleExporter(Context context, DatabaseHelper dbHelper, AppExecutors executors) {
+        this.context = context;
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+    }
+
+    /**
+     * Writes the schedule to the document at the given content URI and delivers the number
+     * of rows written, or -1 if the export failed.
+     */
+    public void exportSchedule(Uri uri, Format format, ProgressListener progress, RepositoryCallback<Integer> callback) {
+        exportThread.execute(() -> {
+            int rowsWritten;
+            File snapshot = new File(context.getCacheDir(), SNAPSHOT_FILE);
+            try (ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "wt")) {
+                if (descriptor == null) throw new IOException("The file could not be opened");
+                takeSnapshot(snapshot);
+                SQLiteDatabase db = SQLiteDatabase.openDatabase(snapshot.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+                try (FileChannel channel = new FileOutputStream(descriptor.getFileDescriptor()).getChannel();
+                     Writer writer = new BufferedWriter(
+                             Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), WRITE_BUFFER_CHARS),
+                             WRITE_BUFFER_CHARS)) {
+                    rowsWritten = export(db, writer, format, progress);
+                } finally {
+                    db.close();
+                }
+            } catch (IOException | ExecutionException | RejectedExecutionException | RuntimeException e) {
+                rowsWritten = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rowsWritten = -1;
+            } finally {
+                SQLiteDatabase.deleteDatabase(snapshot);
+            }
+            int delivered = rowsWritten;
+            executors.mainThread().execute(() -> callback.onResult(delivered));
+        });
+    }
+
+    /**
+     * Copies the database into the snapshot file, in one read transaction on a read-only
+     * connection separate from the helper's, so it neither waits for nor holds up the write
+     * connection. It runs as a read, so a restore (see DatabaseBackupManager) waits for it
+     * like for any other read before it swaps the database file.
+     */
+    private void takeSnapshot(File snapshot) throws ExecutionException, InterruptedException {
+        // VACUUM INTO refuses to overwrite a file.
+        SQLiteDatabase.deleteDatabase(snapshot);
+        File database = context.getDatabasePath(dbHelper.getDatabaseName());
+        executors.diskRead().submit(() -> {
+            SQLiteDatabase reader = SQLiteDatabase.openDatabase(database.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                reader.execSQL("VACUUM INTO ?", new Object[]{snapshot.getPath()});
+            } finally {
+                reader.close();
+            }
+        }).get();
+    }
+
+    private int export(SQLiteDatabase db, Writer writer, Format format, ProgressListener progress) throws IOException {
+        int totalRows = (int) (DatabaseUtils.queryNumEntries(db, DatabaseHelper.TABLE_COURSES) +
+                DatabaseUtils.queryNumEntries(db, DatabaseHelper.TABLE_INSTANCES));
+        Cursor cursor = db.rawQuery(buildQuery(), null);
+        try {
+            if (cursor instanceof SQLiteCursor) {
+                // Each window starts at the row asked for instead of around it, so no row is copied
+                // into two windows. A refill still steps the query past every earlier row, which
+                // the large window keeps to a few refills.
+                ((SQLiteCursor) cursor).setFillWindowForwardOnly(true);
+                ((AbstractWindowedCursor) cursor).setWindow(new CursorWindow("export", CURSOR_WINDOW_BYTES));
+            }
+            RowCounter counter = new RowCounter(progress, totalRows);
+            if (format == Format.JSON) {
+                writeJson(cursor, writer, counter);
+            } else {
+                writeCsv(cursor, writer, counter);
+            }
+            return counter.rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Selects every course with its instances (a course without instances once, with NULL
+     * instance columns), courses in list order and each course's instances by date.
+     * Both orders come from indexes, so SQLite streams the rows without sorting them.
+     */
+    private static String buildQuery() {
+        return "SELECT c." + DatabaseHelper.COLUMN_COURSE_ID + ", c." + DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK +
+                ", c." + DatabaseHelper.COLUMN_COURSE_TIME + ", c." + DatabaseHelper.COLUMN_COURSE_CAPACITY +
+                ", c." + DatabaseHelper.COLUMN_COURSE_DURATION + ", c." + DatabaseHelper.COLUMN_COURSE_PRICE +
+                ", c." + DatabaseHelper.COLUMN_COURSE_TYPE + ", c." + DatabaseHelper.COLUMN_COURSE_DESCRIPTION +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_ID + ", i." + DatabaseHelper.COLUMN_INSTANCE_DATE +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_TEACHER + ", i." + DatabaseHelper.COLUMN_INSTANCE_COMMENTS +
+                " FROM " + DatabaseHelper.TABLE_COURSES + " c" +
+                " LEFT JOIN " + DatabaseHelper.TABLE_INSTANCES + " i ON i." + DatabaseHelper.COLUMN_INSTANCE_COURSE_ID +
+                " = c." + DatabaseHelper.COLUMN_COURSE_ID +
+                " ORDER BY " + DatabaseHelper.COURSE_DAY_NUMBER + ", c." + DatabaseHelper.COLUMN_COURSE_TIME +
+                ", c." + DatabaseHelper.COLUMN_COURSE_ID + ", i." + DatabaseHelper.COLUMN_INSTANCE_DATE +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_ID;
+    }
+
+    private static void writeCsv(Cursor cursor, Writer writer, RowCounter counter) throws IOException {
+        writeCsvRecord(writer, ScheduleFormat.CSV_COLUMNS);
+        String[] record = new String[ScheduleFormat.CSV_COLUMNS.length];
+        long currentCourseId = -1;
+        while (cursor.moveToNext()) {
+            long courseId = cursor.getLong(COURSE_ID);
+            if (courseId != currentCourseId) {
+                currentCourseId = courseId;
+                Arrays.fill(record, null);
+                record[0] = ScheduleFormat.KIND_COURSE;
+                record[1] = String.valueOf(courseId);
+                record[3] = cursor.getString(DAY_OF_WEEK);
+                record[4] = cursor.getString(TIME);
+                record[5] = cursor.getString(CAPACITY);
+                record[6] = cursor.getString(DURATION);
+                record[7] = String.valueOf(cursor.getDouble(PRICE));
+                record[8] = cursor.getString(TYPE);
+                record[9] = cursor.getString(DESCRIPTION);
+                writeCsvRecord(writer, record);
+                counter.add();
+            }
+            if (cursor.isNull(INSTANCE_ID)) continue;
+            Arrays.fill(record, null);
+            record[0] = ScheduleFormat.KIND_INSTANCE;
+            record[2] = String.valueOf(courseId);
+            record[10] = DateUtils.formatEpochDay(cursor.getLong(DATE));
+            record[11] = cursor.getString(TEACHER);
+            record[12] = cursor.getString(COMMENTS);
+            writeCsvRecord(writer, record);
+            counter.add();
+        }
+        counter.finish();
+    }
+
+    private static void writeCsvRecord(Writer writer, String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) writer.write(',');
+            String field = fields[i];
+            if (field == null) continue;
+            if (needsQuotes(field)) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return !field.isEmpty() && (field.charAt(0) == ' ' || field.charAt(field.length() - 1) == ' ');
+    }
+
+    private static void writeJson(Cursor cursor, Writer writer, RowCounter counter) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name(ScheduleFormat.JSON_COURSES).beginArray();
+        long currentCourseId = -1;
+        while (cursor.moveToNext()) {
+            long courseId = cursor.getLong(COURSE_ID);
+            if (courseId != currentCourseId) {
+                if (currentCourseId != -1) {
+                    json.endArray().endObject();
+                }
+                currentCourseId = courseId;
+                json.beginObject();
+                json.name(ScheduleFormat.JSON_REF).value(String.valueOf(courseId));
+                json.name(ScheduleFormat.JSON_DAY_OF_WEEK).value(cursor.getString(DAY_OF_WEEK));
+                json.name(ScheduleFormat.JSON_TIME).value(cursor.getString(TIME));
+                json.name(ScheduleFormat.JSON_CAPACITY).value(cursor.getInt(CAPACITY));
+                json.name(ScheduleFormat.JSON_DURATION).value(cursor.getInt(DURATION));
+                json.name(ScheduleFormat.JSON_PRICE).value(cursor.getDouble(PRICE));
+                json.name(ScheduleFormat.JSON_TYPE).value(cursor.getString(TYPE));
+                json.name(ScheduleFormat.JSON_DESCRIPTION).value(cursor.getString(DESCRIPTION));
+                json.name(ScheduleFormat.JSON_INSTANCES).beginArray();
+                counter.add();
+            }
+            if (cursor.isNull(INSTANCE_ID)) continue;
+            json.beginObject();
+            json.name(ScheduleFormat.JSON_DATE).value(DateUtils.formatEpochDay(cursor.getLong(DATE)));
+            json.name(ScheduleFormat.JSON_TEACHER).value(cursor.getString(TEACHER));
+            json.name(ScheduleFormat.JSON_COMMENTS).value(cursor.getString(COMMENTS));
+            json.endObject();
+            counter.add();
+        }
+        if (currentCourseId != -1) {
+            json.endArray().endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+        counter.finish();
+    }
+
+    /**
+     * Counts written rows and posts progress every PROGRESS_INTERVAL rows.
+     */
+    private final class RowCounter {
+        private final ProgressListener progress;
+        private final int totalRows;
+        int rows;
+
+        RowCounter(ProgressListener progress, int totalRows) {
+            this.progress = progress;
+            this.totalRows = totalRows;
+        }
+
+        void add() {
+            if (++rows % PROGRESS_INTERVAL == 0) post();
+        }
+
+        void finish() {
+            post();
+        }
+
+        private void post() {
+            int written = rows;
+            executors.mainThread().execute(() -> progress.onProgress(written, totalRows));
+        }
+    }
+}
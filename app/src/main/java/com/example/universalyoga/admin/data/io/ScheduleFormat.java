@@ -0,0 +1,52 @@
+package com.example.universalyoga.admin.data.io;
+
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+
+/**
+ * The file formats used to import and export the schedule (courses and their class instances).
+ *
+ * CSV: a header row, then one record per course or instance. The "kind" column says which,
+ * and "ref" is a key of the course that its instances point to with "course_ref". A course
+ * record must come before its instances. Columns are matched by header name; the other
+ * columns use the database column names and dates are dd/MM/yyyy.
+ *
+ * JSON: {"courses": [{"ref": ..., "dayOfWeek": ..., ..., "instances": [{"date": ..., "teacher": ...,
+ * "comments": ...}]}]}, using the same keys as the Firestore documents. The course fields
+ * must come before its "instances" array; fields after it are ignored.
+ */
+public final class ScheduleFormat {
+
+    public static final String KIND_COURSE = "course";
+    public static final String KIND_INSTANCE = "instance";
+
+    // CSV columns.
+    public static final String CSV_KIND = "kind";
+    public static final String CSV_REF = "ref";
+    public static final String CSV_COURSE_REF = "course_ref";
+    public static final String[] CSV_COLUMNS = {
+            CSV_KIND, CSV_REF, CSV_COURSE_REF,
+            DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK, DatabaseHelper.COLUMN_COURSE_TIME,
+            DatabaseHelper.COLUMN_COURSE_CAPACITY, DatabaseHelper.COLUMN_COURSE_DURATION,
+            DatabaseHelper.COLUMN_COURSE_PRICE, DatabaseHelper.COLUMN_COURSE_TYPE,
+            DatabaseHelper.COLUMN_COURSE_DESCRIPTION,
+            DatabaseHelper.COLUMN_INSTANCE_DATE, DatabaseHelper.COLUMN_INSTANCE_TEACHER,
+            DatabaseHelper.COLUMN_INSTANCE_COMMENTS};
+
+    // JSON keys.
+    public static final String JSON_COURSES = "courses";
+    public static final String JSON_INSTANCES = "instances";
+    public static final String JSON_REF = "ref";
+    public static final String JSON_DAY_OF_WEEK = "dayOfWeek";
+    public static final String JSON_TIME = "time";
+    public static final String JSON_CAPACITY = "capacity";
+    public static final String JSON_DURATION = "duration";
+    public static final String JSON_PRICE = "price";
+    public static final String JSON_TYPE = "type";
+    public static final String JSON_DESCRIPTION = "description";
+    public static final String JSON_DATE = "date";
+    public static final String JSON_TEACHER = "teacher";
+    public static final String JSON_COMMENTS = "comments";
+
+    private ScheduleFormat() {
+    }
+}
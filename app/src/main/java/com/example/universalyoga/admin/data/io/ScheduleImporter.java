@@ -0,0 +1,571 @@
+package com.example.universalyoga.admin.data.io;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.cache.QueryCache;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.repository.RepositoryCallback;
+import com.example.universalyoga.admin.utils.DateUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports courses and class instances in bulk from a CSV or JSON file (see ScheduleFormat).
+ * The file is streamed rather than loaded: a parser thread reads it in chunks, the chunks are
+ * validated in parallel, and the database writer inserts them in file order with compiled
+ * statements. The whole import is one transaction, so a file that cannot be read leaves the
+ * database untouched, while rows that fail validation are skipped and reported.
+ */
+public class ScheduleImporter {
+
+    /**
+     * Receives the running totals after each chunk, on the main thread.
+     */
+    public interface ProgressListener {
+        void onProgress(int rowsImported, int rowsRejected);
+    }
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    // Validation threads; the parser and the database writer each have their own thread.
+    private static final int VALIDATION_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 2));
+    // Marks the end of the file in the chunk queue.
+    private static final List<Row> END = new ArrayList<>(0);
+
+    private static volatile ScheduleImporter instance;
+
+    private final Context context;
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final QueryCache cache;
+
+    public static ScheduleImporter getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ScheduleImporter.class) {
+                if (instance == null) {
+                    instance = new ScheduleImporter(context.getApplicationContext(),
+                            DatabaseHelper.getInstance(context), AppExecutors.get(), QueryCache.get());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ScheduleImporter(Context context, DatabaseHelper dbHelper, AppExecutors executors, QueryCache cache) {
+        this.context = context;
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.cache = cache;
+    }
+
+    /**
+     * Imports the file at the given content URI on the database write thread.
+     * CSV or JSON is recognised from the content of the file.
+     */
+    public void importSchedule(Uri uri, ProgressListener progress, RepositoryCallback<ImportResult> callback) {
+        executors.diskWrite().execute(() -> {
+            ImportResult result;
+            try (InputStream input = context.getContentResolver().openInputStream(uri)) {
+                if (input == null) throw new IOException("The file could not be opened");
+                result = importStream(input, progress);
+            } catch (IOException | RuntimeException e) {
+                result = ImportResult.failed(e.getMessage());
+            }
+            cache.invalidate(DatabaseHelper.TABLE_COURSES, DatabaseHelper.TABLE_INSTANCES,
+                    DatabaseHelper.TABLE_COURSE_SUMMARY);
+            ImportResult delivered = result;
+            executors.mainThread().execute(() -> callback.onResult(delivered));
+        });
+    }
+
+    private ImportResult importStream(InputStream input, ProgressListener progress) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 64 * 1024);
+        boolean json = startsWithJson(reader);
+        ExecutorService parsing = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "import-parse"));
+        ExecutorService validation = Executors.newFixedThreadPool(VALIDATION_THREADS,
+                runnable -> new Thread(runnable, "import-validate"));
+        // Bounded, so the parser stays only a few chunks ahead of the writer whatever the file size.
+        BlockingQueue<Future<List<Row>>> chunks = new ArrayBlockingQueue<>(VALIDATION_THREADS * 2);
+        parsing.execute(() -> parse(reader, json, new Chunker(validation, chunks)));
+        try {
+            return insertChunks(chunks, progress);
+        } finally {
+            parsing.shutdownNow();
+            validation.shutdownNow();
+        }
+    }
+
+    /**
+     * Inserts the validated chunks in file order in one transaction. The per-row triggers of
+     * the derived tables are suspended meanwhile and their data is rebuilt once at the end.
+     */
+    private ImportResult insertChunks(BlockingQueue<Future<List<Row>>> chunks, ProgressListener progress)
+            throws IOException {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        RowWriter writer;
+        db.beginTransaction();
+        try {
+            long lastInstanceId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + DatabaseHelper.COLUMN_INSTANCE_ID +
+                    "), 0) FROM " + DatabaseHelper.TABLE_INSTANCES, null);
+            DatabaseHelper.suspendInstanceTriggers(db);
+            writer = new RowWriter(db);
+            try {
+                List<Row> chunk;
+                while ((chunk = takeChunk(chunks)) != END) {
+                    for (Row row : chunk) {
+                        writer.write(row);
+                    }
+                    int imported = writer.coursesImported + writer.instancesImported;
+                    int rejected = writer.rowsRejected;
+                    executors.mainThread().execute(() -> progress.onProgress(imported, rejected));
+                }
+            } finally {
+                writer.close();
+            }
+            DatabaseHelper.resumeInstanceTriggers(db, lastInstanceId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return new ImportResult(writer.coursesImported, writer.instancesImported, writer.rowsRejected, writer.errors);
+    }
+
+    private static List<Row> takeChunk(BlockingQueue<Future<List<Row>>> chunks) throws IOException {
+        try {
+            return chunks.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The import was interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause == null ? "The file could not be read" : cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Peeks at the first significant character: JSON files start with '{'.
+     */
+    private static boolean startsWithJson(BufferedReader reader) throws IOException {
+        reader.mark(1024);
+        int c;
+        int skipped = 0;
+        do {
+            c = reader.read();
+        } while (c != -1 && (Character.isWhitespace(c) || c == '\uFEFF') && ++skipped < 1000);
+        reader.reset();
+        return c == '{';
+    }
+
+    // ---- Parsing (on the parser thread) ----
+
+    /**
+     * Receives parsed rows in file order.
+     */
+    private interface RowSink {
+        void accept(Row row) throws InterruptedException;
+    }
+
+    private static void parse(Reader reader, boolean json, Chunker chunker) {
+        try {
+            if (json) {
+                parseJson(reader, chunker);
+            } else {
+                parseCsv(reader, chunker);
+            }
+            chunker.finish();
+        } catch (InterruptedException e) {
+            // The writer stopped, nothing is waiting for more rows.
+        } catch (IOException | RuntimeException e) {
+            chunker.fail(e);
+        }
+    }
+
+    private static void parseCsv(Reader reader, RowSink sink) throws IOException, InterruptedException {
+        CsvReader csv = new CsvReader(reader);
+        String[] header = csv.readRecord();
+        if (header == null) throw new IOException("The file is empty");
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            columns.put(header[i].replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey(ScheduleFormat.CSV_KIND)) {
+            throw new IOException("The CSV header has no \"" + ScheduleFormat.CSV_KIND + "\" column");
+        }
+        int[] index = new int[ScheduleFormat.CSV_COLUMNS.length];
+        for (int i = 0; i < index.length; i++) {
+            Integer column = columns.get(ScheduleFormat.CSV_COLUMNS[i]);
+            index[i] = column == null ? -1 : column;
+        }
+
+        String[] record;
+        while ((record = csv.readRecord()) != null) {
+            String kind = field(record, index[0]);
+            if (kind == null && record.length == 1) continue; // Blank line
+            Row row;
+            if (ScheduleFormat.KIND_COURSE.equalsIgnoreCase(kind)) {
+                row = new Row(true);
+                row.ref = field(record, index[1]);
+                row.dayOfWeek = field(record, index[3]);
+                row.time = field(record, index[4]);
+                row.capacity = field(record, index[5]);
+                row.duration = field(record, index[6]);
+                row.price = field(record, index[7]);
+                row.type = field(record, index[8]);
+                row.description = field(record, index[9]);
+            } else {
+                row = new Row(false);
+                if (!ScheduleFormat.KIND_INSTANCE.equalsIgnoreCase(kind)) {
+                    row.error = "unknown kind \"" + kind + "\"";
+                }
+                row.courseRef = field(record, index[2]);
+                row.date = field(record, index[10]);
+                row.teacher = field(record, index[11]);
+                row.comments = field(record, index[12]);
+            }
+            sink.accept(row);
+        }
+    }
+
+    /**
+     * Returns a trimmed field, or null if the column is missing or the field is empty.
+     */
+    private static String field(String[] record, int index) {
+        if (index < 0 || index >= record.length) return null;
+        String value = record[index].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void parseJson(Reader reader, RowSink sink) throws IOException, InterruptedException {
+        JsonReader json = new JsonReader(reader);
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!ScheduleFormat.JSON_COURSES.equals(json.nextName())) {
+                json.skipValue();
+                continue;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                parseJsonCourse(json, sink);
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    private static void parseJsonCourse(JsonReader json, RowSink sink) throws IOException, InterruptedException {
+        Row course = new Row(true);
+        // Once handed to the sink the row is validated on another thread, so it is not touched again.
+        boolean emitted = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+            } else if (ScheduleFormat.JSON_INSTANCES.equals(name)) {
+                if (!emitted) {
+                    sink.accept(course);
+                    emitted = true;
+                }
+                json.beginArray();
+                while (json.hasNext()) {
+                    sink.accept(parseJsonInstance(json, course.ref));
+                }
+                json.endArray();
+            } else if (emitted) {
+                json.skipValue();
+            } else {
+                switch (name) {
+                    case ScheduleFormat.JSON_REF: course.ref = json.nextString(); break;
+                    case ScheduleFormat.JSON_DAY_OF_WEEK: course.dayOfWeek = json.nextString(); break;
+                    case ScheduleFormat.JSON_TIME: course.time = json.nextString(); break;
+                    case ScheduleFormat.JSON_CAPACITY: course.capacity = json.nextString(); break;
+                    case ScheduleFormat.JSON_DURATION: course.duration = json.nextString(); break;
+                    case ScheduleFormat.JSON_PRICE: course.price = json.nextString(); break;
+                    case ScheduleFormat.JSON_TYPE: course.type = json.nextString(); break;
+                    case ScheduleFormat.JSON_DESCRIPTION: course.description = json.nextString(); break;
+                    default: json.skipValue();
+                }
+            }
+        }
+        json.endObject();
+        if (!emitted) sink.accept(course);
+    }
+
+    private static Row parseJsonInstance(JsonReader json, String courseRef) throws IOException {
+        Row row = new Row(false);
+        row.courseRef = courseRef;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (name) {
+                case ScheduleFormat.JSON_DATE: row.date = json.nextString(); break;
+                case ScheduleFormat.JSON_TEACHER: row.teacher = json.nextString(); break;
+                case ScheduleFormat.JSON_COMMENTS: row.comments = json.nextString(); break;
+                default: json.skipValue();
+            }
+        }
+        json.endObject();
+        return row;
+    }
+
+    /**
+     * Numbers the parsed rows, groups them into chunks and submits each chunk for validation,
+     * queueing the pending results in file order for the writer.
+     */
+    private static final class Chunker implements RowSink {
+        private final ExecutorService validation;
+        private final BlockingQueue<Future<List<Row>>> chunks;
+        private List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+        private int rowNumber;
+
+        Chunker(ExecutorService validation, BlockingQueue<Future<List<Row>>> chunks) {
+            this.validation = validation;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void accept(Row row) throws InterruptedException {
+            row.number = ++rowNumber;
+            chunk.add(row);
+            if (chunk.size() == CHUNK_SIZE) submit();
+        }
+
+        void finish() throws InterruptedException {
+            if (!chunk.isEmpty()) submit();
+            chunks.put(CompletableFuture.completedFuture(END));
+        }
+
+        void fail(Exception e) {
+            CompletableFuture<List<Row>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                chunks.put(failed);
+            } catch (InterruptedException ignored) {
+                // The writer stopped already.
+            }
+        }
+
+        private void submit() throws InterruptedException {
+            List<Row> full = chunk;
+            chunks.put(validation.submit(() -> validate(full)));
+            chunk = new ArrayList<>(CHUNK_SIZE);
+        }
+    }
+
+    // ---- Validation (on the validation threads) ----
+
+    private static List<Row> validate(List<Row> chunk) {
+        for (Row row : chunk) {
+            if (row.error == null) {
+                row.error = row.course ? validateCourse(row) : validateInstance(row);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Checks a course row against the same rules as the course form and converts its numbers.
+     * @return An error message, or null if the row is valid.
+     */
+    static String validateCourse(Row row) {
+        if (row.ref == null) return "missing ref";
+        row.dayNumber = DatabaseHelper.dayNumber(row.dayOfWeek);
+        if (row.dayNumber > 7) return "invalid day_of_week \"" + row.dayOfWeek + "\"";
+        if (!isTime(row.time)) return "time must be HH:mm";
+        row.capacityValue = parsePositiveInt(row.capacity);
+        if (row.capacityValue <= 0) return "capacity must be a positive whole number";
+        row.durationValue = parsePositiveInt(row.duration);
+        if (row.durationValue <= 0) return "duration must be a positive whole number";
+        try {
+            row.priceValue = Double.parseDouble(row.price);
+        } catch (NullPointerException | NumberFormatException e) {
+            return "invalid price";
+        }
+        if (!(row.priceValue > 0 && row.priceValue <= 1000)) return "price must be above 0 and at most 1000";
+        if (row.type == null) return "missing type";
+        return null;
+    }
+
+    /**
+     * Checks an instance row and parses its date. Whether the date falls on its course's day
+     * is checked by the writer, which knows the course.
+     * @return An error message, or null if the row is valid.
+     */
+    static String validateInstance(Row row) {
+        if (row.courseRef == null) return "missing course_ref";
+        if (row.date == null) return "missing date";
+        try {
+            row.epochDay = DateUtils.parseDisplayDate(row.date);
+        } catch (DateTimeParseException e) {
+            return "date must be dd/MM/yyyy";
+        }
+        if (row.teacher == null) return "missing teacher";
+        return null;
+    }
+
+    private static boolean isTime(String time) {
+        if (time == null || time.length() != 5 || time.charAt(2) != ':') return false;
+        int hours = parsePositiveInt(time.substring(0, 2));
+        int minutes = parsePositiveInt(time.substring(3));
+        return hours >= 0 && hours < 24 && minutes >= 0 && minutes < 60;
+    }
+
+    /**
+     * Parses a non-negative decimal integer, or returns -1 if the text is not one.
+     */
+    private static int parsePositiveInt(String text) {
+        if (text == null || text.isEmpty() || text.length() > 9) return -1;
+        int value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // ---- Writing (on the database write thread) ----
+
+    /**
+     * Inserts validated rows with compiled statements and keeps the import totals.
+     */
+    private static final class RowWriter {
+        private final SQLiteStatement insertCourse;
+        private final SQLiteStatement insertInstance;
+        // Courses of this file by ref, for resolving the course_ref of their instances.
+        private final Map<String, ImportedCourse> courses = new HashMap<>();
+        final List<String> errors = new ArrayList<>();
+        int coursesImported;
+        int instancesImported;
+        int rowsRejected;
+
+        RowWriter(SQLiteDatabase db) {
+            insertCourse = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_COURSES + " (" +
+                    DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK + ", " + DatabaseHelper.COLUMN_COURSE_TIME + ", " +
+                    DatabaseHelper.COLUMN_COURSE_CAPACITY + ", " + DatabaseHelper.COLUMN_COURSE_DURATION + ", " +
+                    DatabaseHelper.COLUMN_COURSE_PRICE + ", " + DatabaseHelper.COLUMN_COURSE_TYPE + ", " +
+                    DatabaseHelper.COLUMN_COURSE_DESCRIPTION + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+            insertInstance = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_INSTANCES + " (" +
+                    DatabaseHelper.COLUMN_INSTANCE_COURSE_ID + ", " + DatabaseHelper.COLUMN_INSTANCE_DATE + ", " +
+                    DatabaseHelper.COLUMN_INSTANCE_TEACHER + ", " + DatabaseHelper.COLUMN_INSTANCE_COMMENTS +
+                    ") VALUES (?, ?, ?, ?)");
+        }
+
+        void write(Row row) {
+            if (row.error == null) {
+                row.error = row.course ? writeCourse(row) : writeInstance(row);
+            }
+            if (row.error != null) {
+                rowsRejected++;
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add("Row " + row.number + ": " + row.error);
+                }
+            }
+        }
+
+        private String writeCourse(Row row) {
+            if (courses.containsKey(row.ref)) return "duplicate ref \"" + row.ref + "\"";
+            insertCourse.bindString(1, row.dayOfWeek);
+            insertCourse.bindString(2, row.time);
+            insertCourse.bindLong(3, row.capacityValue);
+            insertCourse.bindLong(4, row.durationValue);
+            insertCourse.bindDouble(5, row.priceValue);
+            insertCourse.bindString(6, row.type);
+            bindText(insertCourse, 7, row.description);
+            courses.put(row.ref, new ImportedCourse(insertCourse.executeInsert(), row.dayNumber));
+            coursesImported++;
+            return null;
+        }
+
+        private String writeInstance(Row row) {
+            ImportedCourse course = courses.get(row.courseRef);
+            if (course == null) return "no valid course with ref \"" + row.courseRef + "\" before this row";
+            if (LocalDate.ofEpochDay(row.epochDay).getDayOfWeek().getValue() != course.dayNumber) {
+                return row.date + " is not on the course's day of the week";
+            }
+            insertInstance.bindLong(1, course.id);
+            insertInstance.bindLong(2, row.epochDay);
+            insertInstance.bindString(3, row.teacher);
+            bindText(insertInstance, 4, row.comments);
+            insertInstance.executeInsert();
+            instancesImported++;
+            return null;
+        }
+
+        private static void bindText(SQLiteStatement statement, int index, String value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindString(index, value);
+            }
+        }
+
+        void close() {
+            insertCourse.close();
+            insertInstance.close();
+        }
+    }
+
+    private static final class ImportedCourse {
+        final long id;
+        final int dayNumber; // 1 = Monday ... 7 = Sunday, as DatabaseHelper.dayNumber()
+
+        ImportedCourse(long id, int dayNumber) {
+            this.id = id;
+            this.dayNumber = dayNumber;
+        }
+    }
+
+    /**
+     * One course or instance record of the file, as text until validate() converts it.
+     */
+    static final class Row {
+        final boolean course;
+        int number; // Position in the file, for error messages
+        String ref;
+        String courseRef;
+        String dayOfWeek, time, capacity, duration, price, type, description;
+        String date, teacher, comments;
+        // Set by validation.
+        int dayNumber, capacityValue, durationValue;
+        double priceValue;
+        long epochDay;
+        String error;
+
+        Row(boolean course) {
+            this.course = course;
+        }
+    }
+}
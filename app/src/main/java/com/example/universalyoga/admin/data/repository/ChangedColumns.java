@@ -0,0 +1,77 @@
+package com.example.universalyoga.admin.data.repository;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Works out which columns of an edit actually change the stored row, so an update only
+ * writes, and only sends to the cloud, the fields the user changed.
+ */
+final class ChangedColumns {
+
+    private ChangedColumns() {
+    }
+
+    /**
+     * Compares the edited values with the row as it is stored.
+     * Must run in the transaction of the update, so the row cannot change in between.
+     * @param values The edited columns of the row.
+     * @return The columns whose value differs from the stored one (empty if none do),
+     *         or null if the row does not exist.
+     */
+    @Nullable
+    static ContentValues of(SQLiteDatabase db, String table, String idColumn, long id, ContentValues values) {
+        String[] columns = values.keySet().toArray(new String[0]);
+        Cursor cursor = db.query(table, columns, idColumn + " = ?", new String[]{String.valueOf(id)},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) return null;
+            ContentValues changed = new ContentValues();
+            for (Map.Entry<String, Object> column : values.valueSet()) {
+                int index = cursor.getColumnIndexOrThrow(column.getKey());
+                if (!isStored(cursor, index, column.getValue())) {
+                    copy(values, column.getKey(), changed);
+                }
+            }
+            return changed;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns whether the cursor column holds the value, comparing by the value's type:
+     * numbers as numbers, so a price of 12 equals a stored 12.0, and everything else as text.
+     */
+    private static boolean isStored(Cursor cursor, int index, Object value) {
+        if (value == null || cursor.isNull(index)) return value == null && cursor.isNull(index);
+        if (value instanceof Double || value instanceof Float) {
+            return cursor.getDouble(index) == ((Number) value).doubleValue();
+        }
+        if (value instanceof Number) {
+            return cursor.getLong(index) == ((Number) value).longValue();
+        }
+        return Objects.equals(cursor.getString(index), value.toString());
+    }
+
+    private static void copy(ContentValues from, String column, ContentValues to) {
+        Object value = from.get(column);
+        if (value == null) {
+            to.putNull(column);
+        } else if (value instanceof Double) {
+            to.put(column, (Double) value);
+        } else if (value instanceof Integer) {
+            to.put(column, (Integer) value);
+        } else if (value instanceof Long) {
+            to.put(column, (Long) value);
+        } else {
+            to.put(column, value.toString());
+        }
+    }
+}
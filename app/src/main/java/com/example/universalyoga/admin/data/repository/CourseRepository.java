@@ -0,0 +1,324 @@
+package com.example.universalyoga.admin.data.repository;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.cache.QueryCache;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.sync.CloudDocuments;
+import com.example.universalyoga.admin.data.sync.OutboxDispatcher;
+import com.example.universalyoga.admin.data.sync.SyncOutbox;
+import com.example.universalyoga.admin.data.sync.SyncState;
+import com.example.universalyoga.admin.models.Course;
+import com.example.universalyoga.admin.models.CourseSummary;
+import com.example.universalyoga.admin.utils.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads and writes courses in the local database.
+ * All SQLite work runs on AppExecutors and results are delivered to the main thread,
+ * so activities only have to render them. Course queries are served from the QueryCache
+ * until a write invalidates them; a cached result is delivered immediately. An operation that
+ * fails with a database error delivers the failure result it documents (null, -1 or 0).
+ * Every course write also queues the matching cloud write in the sync outbox.
+ */
+public class CourseRepository {
+
+    private static final String TAG = "CourseRepository";
+
+    private static volatile CourseRepository instance;
+
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final QueryCache cache;
+    private final OutboxDispatcher dispatcher;
+    // The day course summaries were last checked for passed dates. Only touched on the main thread.
+    private long summariesCheckedDay = Long.MIN_VALUE;
+
+    public static CourseRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CourseRepository.class) {
+                if (instance == null) {
+                    instance = new CourseRepository(DatabaseHelper.getInstance(context), AppExecutors.get(), QueryCache.get(),
+                            OutboxDispatcher.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private CourseRepository(DatabaseHelper dbHelper, AppExecutors executors, QueryCache cache,
+                             OutboxDispatcher dispatcher) {
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.cache = cache;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Loads one page of courses (id, type, day, time and their CourseSummary), ordered by day of
+     * the week, time and id. Pages are seeks on the schedule index, so each costs the same however
+     * far into the list it starts, and the instance overview is one primary key lookup per course.
+     * Delivers null if the page could not be read.
+     * @param after The last course of the previous page, or null for the first page.
+     * @param limit The maximum number of courses to load.
+     */
+    public void loadCoursePage(Course after, int limit, RepositoryCallback<Page<Course>> callback) {
+        String key = after == null
+                ? QueryCache.key("courses", limit)
+                : QueryCache.key("courses", after.getDayOfWeek(), after.getTime(), after.getId(), limit);
+        if (after == null && DateUtils.today() != summariesCheckedDay) {
+            // Once a day, before the first page, recompute summaries whose next class has passed.
+            summariesCheckedDay = DateUtils.today();
+            run(executors.diskWrite(), callback, null, () -> {
+                DatabaseHelper.refreshStaleCourseSummaries(dbHelper.getWritableDatabase());
+                cache.invalidate(DatabaseHelper.TABLE_COURSE_SUMMARY);
+                executors.mainThread().execute(() -> loadCoursePage(null, limit, callback));
+            });
+            return;
+        }
+        Page<Course> cached = cache.get(key);
+        if (cached != null) {
+            callback.onResult(cached);
+            return;
+        }
+        run(executors.diskRead(), callback, null, () -> {
+            long generation = cache.beginLoad();
+            List<Course> courses = new ArrayList<>();
+            String sql = "SELECT " + DatabaseHelper.COLUMN_COURSE_ID + ", " + DatabaseHelper.COLUMN_COURSE_TYPE +
+                    ", " + DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK + ", " + DatabaseHelper.COLUMN_COURSE_TIME +
+                    ", " + DatabaseHelper.COLUMN_SUMMARY_INSTANCE_COUNT + ", " + DatabaseHelper.COLUMN_SUMMARY_UPCOMING_COUNT +
+                    ", " + DatabaseHelper.COLUMN_SUMMARY_NEXT_DATE + ", " + DatabaseHelper.COLUMN_SUMMARY_LAST_TEACHER +
+                    " FROM " + DatabaseHelper.TABLE_COURSES +
+                    " LEFT JOIN " + DatabaseHelper.TABLE_COURSE_SUMMARY + " ON " + DatabaseHelper.COLUMN_SUMMARY_COURSE_ID +
+                    " = " + DatabaseHelper.COLUMN_COURSE_ID;
+            // Arguments are bound as text; the day number has no column affinity, hence the CAST.
+            String[] args;
+            if (after == null) {
+                args = new String[]{String.valueOf(limit + 1)};
+            } else {
+                sql += " WHERE (" + DatabaseHelper.COURSE_DAY_NUMBER + ", " + DatabaseHelper.COLUMN_COURSE_TIME +
+                        ", " + DatabaseHelper.COLUMN_COURSE_ID + ") > (CAST(? AS INTEGER), ?, ?)";
+                args = new String[]{String.valueOf(DatabaseHelper.dayNumber(after.getDayOfWeek())),
+                        after.getTime(), String.valueOf(after.getId()), String.valueOf(limit + 1)};
+            }
+            // One extra row is read to know whether another page follows.
+            sql += " ORDER BY " + DatabaseHelper.COURSE_DAY_NUMBER + ", " + DatabaseHelper.COLUMN_COURSE_TIME +
+                    ", " + DatabaseHelper.COLUMN_COURSE_ID + " LIMIT ?";
+            Cursor cursor = dbHelper.getReadableDatabase().rawQuery(sql, args);
+            try {
+                while (cursor.moveToNext()) {
+                    // A course without instances has no summary row; its NULL columns read as zero.
+                    CourseSummary summary = new CourseSummary(cursor.getInt(4), cursor.getInt(5), cursor.getLong(6),
+                            cursor.getString(7));
+                    courses.add(new Course(cursor.getLong(0), cursor.getString(2), cursor.getString(3), cursor.getString(1),
+                            summary));
+                }
+            } finally {
+                cursor.close();
+            }
+            boolean hasMore = courses.size() > limit;
+            if (hasMore) courses.remove(limit);
+            Page<Course> page = new Page<>(Collections.unmodifiableList(courses), hasMore);
+            cache.put(key, page, generation, DatabaseHelper.TABLE_COURSES, DatabaseHelper.TABLE_INSTANCES,
+                    DatabaseHelper.TABLE_COURSE_SUMMARY);
+            deliver(callback, page);
+        });
+    }
+
+    /**
+     * Loads all details of one course, or delivers null if it does not exist or could not be read.
+     */
+    public void loadCourse(long id, RepositoryCallback<Course> callback) {
+        String key = QueryCache.key("course", id);
+        Course cached = cache.get(key);
+        if (cached != null) {
+            callback.onResult(cached);
+            return;
+        }
+        run(executors.diskRead(), callback, null, () -> {
+            long generation = cache.beginLoad();
+            Course course = null;
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            String selection = DatabaseHelper.COLUMN_COURSE_ID + " = ?";
+            String[] selectionArgs = { String.valueOf(id) };
+            Cursor cursor = db.query(DatabaseHelper.TABLE_COURSES, null, selection, selectionArgs, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    course = readCourse(cursor);
+                    cache.put(key, course, generation, DatabaseHelper.TABLE_COURSES);
+                }
+            } finally {
+                cursor.close();
+            }
+            deliver(callback, course);
+        });
+    }
+
+    /**
+     * Inserts a new course and delivers its row id, or -1 on failure.
+     */
+    public void insertCourse(ContentValues values, RepositoryCallback<Long> callback) {
+        run(executors.diskWrite(), callback, -1L, () -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            long newRowId;
+            db.beginTransaction();
+            try {
+                newRowId = db.insert(DatabaseHelper.TABLE_COURSES, null, values);
+                if (newRowId != -1) {
+                    SyncOutbox.enqueueSet(db, CloudDocuments.coursePathOf(db, newRowId), CloudDocuments.courseFields(values));
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
+            cache.invalidate(DatabaseHelper.TABLE_COURSES);
+            if (newRowId != -1) dispatcher.requestDrain();
+            deliver(callback, newRowId);
+        });
+    }
+
+    /**
+     * Updates an existing course and delivers the number of rows changed.
+     * Only the columns whose value differs from the stored row are written, and only their
+     * fields are sent to the cloud, so an edit of the price does not resend the description.
+     * @param values The columns as edited; unchanged columns may be included.
+     */
+    public void updateCourse(long id, ContentValues values, RepositoryCallback<Integer> callback) {
+        run(executors.diskWrite(), callback, 0, () -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            String selection = DatabaseHelper.COLUMN_COURSE_ID + " = ?";
+            String[] selectionArgs = { String.valueOf(id) };
+            int count = 0;
+            boolean queued = false;
+            db.beginTransaction();
+            try {
+                ContentValues changed = ChangedColumns.of(db, DatabaseHelper.TABLE_COURSES,
+                        DatabaseHelper.COLUMN_COURSE_ID, id, values);
+                if (changed != null && changed.size() == 0) {
+                    count = 1; // Saved without changes: the row is already as edited.
+                } else if (changed != null) {
+                    count = db.update(DatabaseHelper.TABLE_COURSES, changed, selection, selectionArgs);
+                    SyncOutbox.enqueueMerge(db, CloudDocuments.coursePathOf(db, id), CloudDocuments.courseFieldsOf(changed));
+                    queued = true;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (queued) {
+                cache.invalidate(DatabaseHelper.TABLE_COURSES);
+                dispatcher.requestDrain();
+            }
+            deliver(callback, count);
+        });
+    }
+
+    /**
+     * Deletes a course (its instances are removed by the cascading foreign key)
+     * and delivers the number of courses deleted.
+     */
+    public void deleteCourse(long id, RepositoryCallback<Integer> callback) {
+        run(executors.diskWrite(), callback, 0, () -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            String selection = DatabaseHelper.COLUMN_COURSE_ID + " = ?";
+            String[] selectionArgs = { String.valueOf(id) };
+            int deletedRows;
+            db.beginTransaction();
+            try {
+                // The document path is read from the row, so it is read before the row goes.
+                String path = CloudDocuments.coursePathOf(db, id);
+                deletedRows = db.delete(DatabaseHelper.TABLE_COURSES, selection, selectionArgs);
+                if (deletedRows > 0) {
+                    // Firestore does not cascade, so the course's instance documents are deleted with it.
+                    SyncOutbox.enqueueDeleteTree(db, path);
+                    SyncOutbox.enqueueSet(db, CloudDocuments.deletionPath(path), CloudDocuments.deletionFields(path));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            cache.invalidate(DatabaseHelper.TABLE_COURSES, DatabaseHelper.TABLE_INSTANCES);
+            if (deletedRows > 0) dispatcher.requestDrain();
+            deliver(callback, deletedRows);
+        });
+    }
+
+    /**
+     * Deletes every course and class instance in one transaction.
+     * This only resets the local database, so the deletions are not uploaded to the cloud.
+     * Delivers whether the data was deleted.
+     */
+    public void deleteAll(RepositoryCallback<Boolean> callback) {
+        run(executors.diskWrite(), callback, false, () -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                long clock = SyncState.get(db, DatabaseHelper.STATE_CLOCK);
+                // Courses first: their instances and summaries go with them through the cascading
+                // foreign keys, without recomputing a summary for every deleted instance.
+                db.delete(DatabaseHelper.TABLE_COURSES, null, null);
+                db.delete(DatabaseHelper.TABLE_INSTANCES, null, null);
+                db.delete(DatabaseHelper.TABLE_TOMBSTONES, DatabaseHelper.COLUMN_TOMBSTONE_DELETED_AT + " > ?",
+                        new String[]{String.valueOf(clock)});
+                db.delete(DatabaseHelper.TABLE_DIRTY_WEEKS, DatabaseHelper.COLUMN_DIRTY_WEEK_MARKED_AT + " > ?",
+                        new String[]{String.valueOf(clock)});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            cache.invalidate(DatabaseHelper.TABLE_COURSES, DatabaseHelper.TABLE_INSTANCES);
+            deliver(callback, true);
+        });
+    }
+
+    /**
+     * Reads all columns of the course at the cursor's current row.
+     */
+    private static Course readCourse(Cursor cursor) {
+        return new Course(
+                cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK)),
+                cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_TIME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_TYPE)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_CAPACITY)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_DURATION)),
+                cursor.getDouble(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_PRICE)),
+                cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COURSE_DESCRIPTION)));
+    }
+
+    /**
+     * Runs a database task on the given executor. If it fails with a database error, such as
+     * a full disk, the error is logged and the callback receives the given failure value instead.
+     * So does a task the executor rejects because its queue is full; the caller never waits.
+     */
+    private <T> void run(ExecutorService executor, RepositoryCallback<T> callback, T failure, Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (SQLException e) {
+                    Log.w(TAG, "Database operation failed", e);
+                    deliver(callback, failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Database busy, operation not queued", e);
+            deliver(callback, failure);
+        }
+    }
+
+    private <T> void deliver(RepositoryCallback<T> callback, T result) {
+        executors.mainThread().execute(() -> callback.onResult(result));
+    }
+}
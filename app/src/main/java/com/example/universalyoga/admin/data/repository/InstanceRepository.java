@@ -0,0 +1,234 @@
+package com.example.universalyoga.admin.data.repository;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.cache.QueryCache;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.sync.CloudDocuments;
+import com.example.universalyoga.admin.data.sync.OutboxDispatcher;
+import com.example.universalyoga.admin.data.sync.SyncOutbox;
+import com.example.universalyoga.admin.models.ClassInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads and writes class instances in the local database, off the main thread.
+ * Instance lists are served from the QueryCache until an instance write invalidates them.
+ * Every instance write also queues the matching cloud write in the sync outbox.
+ * An operation that fails with a database error delivers the failure result it documents
+ * (null, -1 or 0).
+ */
+public class InstanceRepository {
+
+    private static final String TAG = "InstanceRepository";
+
+    private static volatile InstanceRepository instance;
+
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final QueryCache cache;
+    private final OutboxDispatcher dispatcher;
+
+    public static InstanceRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (InstanceRepository.class) {
+                if (instance == null) {
+                    instance = new InstanceRepository(DatabaseHelper.getInstance(context), AppExecutors.get(), QueryCache.get(),
+                            OutboxDispatcher.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private InstanceRepository(DatabaseHelper dbHelper, AppExecutors executors, QueryCache cache,
+                               OutboxDispatcher dispatcher) {
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.cache = cache;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Loads one page of a course's instances in chronological order (date, then id).
+     * Pages are seeks on the (course_id, date) index. Delivers null if the page could not be read.
+     * @param after The last instance of the previous page, or null for the first page.
+     * @param limit The maximum number of instances to load.
+     */
+    public void loadInstancePage(long courseId, ClassInstance after, int limit,
+                                 RepositoryCallback<Page<ClassInstance>> callback) {
+        String key = after == null
+                ? QueryCache.key("instances", courseId, limit)
+                : QueryCache.key("instances", courseId, after.getEpochDay(), after.getId(), limit);
+        Page<ClassInstance> cached = cache.get(key);
+        if (cached != null) {
+            callback.onResult(cached);
+            return;
+        }
+        run(executors.diskRead(), callback, null, () -> {
+            long generation = cache.beginLoad();
+            String selection = DatabaseHelper.COLUMN_INSTANCE_COURSE_ID + " = ?";
+            String[] selectionArgs = { String.valueOf(courseId) };
+            if (after != null) {
+                selection += " AND (" + DatabaseHelper.COLUMN_INSTANCE_DATE + ", " + DatabaseHelper.COLUMN_INSTANCE_ID + ") > (?, ?)";
+                selectionArgs = new String[]{String.valueOf(courseId),
+                        String.valueOf(after.getEpochDay()), String.valueOf(after.getId())};
+            }
+            // One extra row is read to know whether another page follows.
+            List<ClassInstance> instances = queryInstances(dbHelper.getReadableDatabase(), selection, selectionArgs,
+                    String.valueOf(limit + 1));
+            boolean hasMore = instances.size() > limit;
+            if (hasMore) instances.remove(limit);
+            Page<ClassInstance> page = new Page<>(Collections.unmodifiableList(instances), hasMore);
+            cache.put(key, page, generation, DatabaseHelper.TABLE_INSTANCES);
+            deliver(callback, page);
+        });
+    }
+
+    /**
+     * Inserts a new instance and delivers its row id, or -1 on failure.
+     */
+    public void insertInstance(ContentValues values, RepositoryCallback<Long> callback) {
+        run(executors.diskWrite(), callback, -1L, () -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            long newRowId;
+            db.beginTransaction();
+            try {
+                newRowId = db.insert(DatabaseHelper.TABLE_INSTANCES, null, values);
+                if (newRowId != -1) {
+                    SyncOutbox.enqueueSet(db, CloudDocuments.instancePathOf(db, newRowId),
+                            CloudDocuments.instanceFields(values));
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
+            cache.invalidate(DatabaseHelper.TABLE_INSTANCES);
+            if (newRowId != -1) dispatcher.requestDrain();
+            deliver(callback, newRowId);
+        });
+    }
+
+    /**
+     * Updates an existing instance and delivers the number of rows changed.
+     * Only the columns whose value differs from the stored row are written, and only their
+     * fields are sent to the cloud.
+     * @param values The date, teacher and comments as edited; unchanged columns may be included.
+     */
+    public void updateInstance(long id, ContentValues values, RepositoryCallback<Integer> callback) {
+        run(executors.diskWrite(), callback, 0, () -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            String selection = DatabaseHelper.COLUMN_INSTANCE_ID + " = ?";
+            String[] selectionArgs = { String.valueOf(id) };
+            int count = 0;
+            boolean queued = false;
+            db.beginTransaction();
+            try {
+                ContentValues changed = ChangedColumns.of(db, DatabaseHelper.TABLE_INSTANCES,
+                        DatabaseHelper.COLUMN_INSTANCE_ID, id, values);
+                if (changed != null && changed.size() == 0) {
+                    count = 1; // Saved without changes: the row is already as edited.
+                } else if (changed != null) {
+                    count = db.update(DatabaseHelper.TABLE_INSTANCES, changed, selection, selectionArgs);
+                    SyncOutbox.enqueueMerge(db, CloudDocuments.instancePathOf(db, id),
+                            CloudDocuments.instanceFieldsOf(changed));
+                    queued = true;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (queued) {
+                cache.invalidate(DatabaseHelper.TABLE_INSTANCES);
+                dispatcher.requestDrain();
+            }
+            deliver(callback, count);
+        });
+    }
+
+    /**
+     * Deletes an instance and delivers the number of rows deleted.
+     */
+    public void deleteInstance(long id, RepositoryCallback<Integer> callback) {
+        run(executors.diskWrite(), callback, 0, () -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            String selection = DatabaseHelper.COLUMN_INSTANCE_ID + " = ?";
+            String[] selectionArgs = { String.valueOf(id) };
+            int deletedRows = 0;
+            db.beginTransaction();
+            try {
+                // The document path is read from the row, so it is read before the row goes.
+                String path = CloudDocuments.instancePathOf(db, id);
+                if (path != null) {
+                    deletedRows = db.delete(DatabaseHelper.TABLE_INSTANCES, selection, selectionArgs);
+                    SyncOutbox.enqueueDelete(db, path);
+                    SyncOutbox.enqueueSet(db, CloudDocuments.deletionPath(path), CloudDocuments.deletionFields(path));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            cache.invalidate(DatabaseHelper.TABLE_INSTANCES);
+            if (deletedRows > 0) dispatcher.requestDrain();
+            deliver(callback, deletedRows);
+        });
+    }
+
+    private static List<ClassInstance> queryInstances(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                                      String limit) {
+        List<ClassInstance> instances = new ArrayList<>();
+        String[] projection = {
+                DatabaseHelper.COLUMN_INSTANCE_ID,
+                DatabaseHelper.COLUMN_INSTANCE_DATE,
+                DatabaseHelper.COLUMN_INSTANCE_TEACHER,
+                DatabaseHelper.COLUMN_INSTANCE_COMMENTS
+        };
+        // Dates are epoch days, so this ordering is chronological and served by the (course_id, date) index.
+        String orderBy = DatabaseHelper.COLUMN_INSTANCE_DATE + ", " + DatabaseHelper.COLUMN_INSTANCE_ID;
+        Cursor cursor = db.query(DatabaseHelper.TABLE_INSTANCES, projection, selection, selectionArgs,
+                null, null, orderBy, limit);
+        try {
+            while (cursor.moveToNext()) {
+                instances.add(new ClassInstance(cursor.getLong(0), cursor.getLong(1), cursor.getString(2), cursor.getString(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return instances;
+    }
+
+    /**
+     * Runs a database task on the given executor. If it fails with a database error, such as
+     * a full disk, the error is logged and the callback receives the given failure value instead.
+     * So does a task the executor rejects because its queue is full; the caller never waits.
+     */
+    private <T> void run(ExecutorService executor, RepositoryCallback<T> callback, T failure, Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (SQLException e) {
+                    Log.w(TAG, "Database operation failed", e);
+                    deliver(callback, failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Database busy, operation not queued", e);
+            deliver(callback, failure);
+        }
+    }
+
+    private <T> void deliver(RepositoryCallback<T> callback, T result) {
+        executors.mainThread().execute(() -> callback.onResult(result));
+    }
+}
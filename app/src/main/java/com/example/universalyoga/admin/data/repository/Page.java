@@ -0,0 +1,21 @@
+package com.example.universalyoga.admin.data.repository;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated list.
+ * The next page is requested with the last item of this one as its starting key.
+ * @param <T> The type of the items.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final boolean hasMore;
+
+    public Page(List<T> items, boolean hasMore) {
+        this.items = items;
+        this.hasMore = hasMore;
+    }
+
+    public List<T> getItems() { return items; }
+    public boolean hasMore() { return hasMore; }
+}
@@ -0,0 +1,10 @@
+package com.example.universalyoga.admin.data.repository;
+
+/**
+ * Receives the result of a repository operation. Always called on the main thread.
+ * A failed operation delivers the failure result its method documents, such as null or -1.
+ * @param <T> The type of the result.
+ */
+public interface RepositoryCallback<T> {
+    void onResult(T result);
+}
@@ -0,0 +1,206 @@
+package com.example.universalyoga.admin.data.repository;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.database.FullTextSearch;
+import com.example.universalyoga.admin.models.SearchResult;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs full-text searches over courses and class instances, off the main thread.
+ */
+public class SearchRepository {
+
+    private static final String TAG = "SearchRepository";
+
+    // The number of best-ranked matches returned for a query. Rows are only read from the
+    // cursor window when they are shown, so this can be generous.
+    private static final int MAX_RESULTS = 500;
+
+    // Key of the result cursor's extras holding how many rows matched, see matchCount().
+    private static final String EXTRA_MATCH_COUNT = "match_count";
+
+    // Column names of the result cursor.
+    public static final String COLUMN_INSTANCE_ID = "_id";
+    public static final String COLUMN_COURSE_ID = "course_id";
+    public static final String COLUMN_COURSE_TYPE = "type";
+    public static final String COLUMN_DAY_OF_WEEK = "day_of_week";
+    public static final String COLUMN_DATE = "date";
+    public static final String COLUMN_TEACHER = "teacher";
+    public static final String COLUMN_SNIPPET = "snippet";
+
+    /**
+     * A matching row and its BM25 score.
+     */
+    private static final class Match {
+        final long id;
+        final double score;
+
+        Match(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    private static volatile SearchRepository instance;
+
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    // The last search submitted, cancelled if it is still queued when the next one comes.
+    // Only touched on the main thread.
+    private Future<?> pendingSearch;
+
+    public static SearchRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SearchRepository.class) {
+                if (instance == null) {
+                    instance = new SearchRepository(DatabaseHelper.getInstance(context), AppExecutors.get());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private SearchRepository(DatabaseHelper dbHelper, AppExecutors executors) {
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+    }
+
+    /**
+     * Searches the full-text index and delivers a cursor over the best matches first,
+     * or null if nothing matches or the search failed.
+     * Every matching row is ranked with BM25 using only its id and match statistics; the course
+     * details and highlighted snippet are then read for the best MAX_RESULTS only. How many rows
+     * matched in all is available from matchCount(), so the caller can tell when results were left out.
+     * The cursor's window is filled in the background, and the receiver owns the cursor
+     * and must close it (SearchAdapter.swapCursor() does so when it is replaced or dropped).
+     * A search that has not started when the next one is requested is cancelled and delivers
+     * nothing, so typing quickly does not fill the read queue with searches nobody will see.
+     * If the read queue is full anyway, null is delivered. Call on the main thread.
+     * @param query The text typed by the user.
+     */
+    public void search(String query, RepositoryCallback<Cursor> callback) {
+        if (pendingSearch != null) executors.cancelRead(pendingSearch);
+        try {
+            pendingSearch = executors.diskRead().submit(() -> runSearch(query, callback));
+        } catch (RejectedExecutionException e) {
+            pendingSearch = null;
+            executors.mainThread().execute(() -> callback.onResult(null));
+        }
+    }
+
+    private void runSearch(String query, RepositoryCallback<Cursor> callback) {
+        String matchExpression = FullTextSearch.toMatchExpression(query);
+        Cursor cursor = null;
+        try {
+            if (matchExpression != null) {
+                cursor = querySearchIndex(dbHelper.getReadableDatabase(), matchExpression);
+            }
+            // getCount() runs the query and fills the first window here rather than on the main thread.
+            if (cursor != null) cursor.getCount();
+        } catch (SQLException e) {
+            Log.w(TAG, "Search failed", e);
+            if (cursor != null) cursor.close();
+            cursor = null;
+        }
+        Cursor result = cursor;
+        executors.mainThread().execute(() -> callback.onResult(result));
+    }
+
+    /**
+     * Returns how many rows matched the search that produced the cursor. The cursor holds
+     * at most MAX_RESULTS of them.
+     */
+    public static int matchCount(Cursor cursor) {
+        return cursor.getExtras().getInt(EXTRA_MATCH_COUNT, cursor.getCount());
+    }
+
+    /**
+     * Reads the search result at the cursor's current row.
+     */
+    public static SearchResult readResult(Cursor cursor) {
+        return new SearchResult(
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_INSTANCE_ID)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_COURSE_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_COURSE_TYPE)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_DATE)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TEACHER)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DAY_OF_WEEK)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SNIPPET)));
+    }
+
+    @Nullable
+    private static Cursor querySearchIndex(SQLiteDatabase db, String matchExpression) {
+        // Phase 1: rank every match from the index alone, keeping the best MAX_RESULTS.
+        // Only ids and matchinfo blobs are read, and the heap never holds more than MAX_RESULTS.
+        PriorityQueue<Match> best = new PriorityQueue<>(MAX_RESULTS, (a, b) -> Double.compare(a.score, b.score));
+        Cursor rankCursor = db.rawQuery("SELECT docid, matchinfo(" + DatabaseHelper.TABLE_SEARCH + ", '" +
+                FullTextSearch.MATCHINFO_FORMAT + "') FROM " + DatabaseHelper.TABLE_SEARCH +
+                " WHERE " + DatabaseHelper.TABLE_SEARCH + " MATCH ?",
+                new String[]{matchExpression});
+        int matchCount = 0;
+        try {
+            while (rankCursor.moveToNext()) {
+                matchCount++;
+                double score = FullTextSearch.bm25(rankCursor.getBlob(1));
+                if (best.size() < MAX_RESULTS) {
+                    best.add(new Match(rankCursor.getLong(0), score));
+                } else if (score > best.peek().score) {
+                    best.poll();
+                    best.add(new Match(rankCursor.getLong(0), score));
+                }
+            }
+        } finally {
+            rankCursor.close();
+        }
+        // The heap yields the worst match first, so the ranks are filled from the end.
+        long[] rankedIds = new long[best.size()];
+        for (int rank = rankedIds.length - 1; rank >= 0; rank--) {
+            rankedIds[rank] = best.poll().id;
+        }
+
+        // Phase 2: load details and snippets for the top results, with SQLite putting them in rank order.
+        StringBuilder ids = new StringBuilder();
+        StringBuilder rankOrder = new StringBuilder("CASE " + DatabaseHelper.TABLE_SEARCH + ".docid");
+        int resultCount = rankedIds.length;
+        for (int rank = 0; rank < resultCount; rank++) {
+            long id = rankedIds[rank];
+            if (rank > 0) ids.append(',');
+            ids.append(id);
+            rankOrder.append(" WHEN ").append(id).append(" THEN ").append(rank);
+        }
+        if (resultCount == 0) return null;
+        rankOrder.append(" END");
+
+        String search = DatabaseHelper.TABLE_SEARCH;
+        String rawQuery = "SELECT " + search + ".docid AS " + COLUMN_INSTANCE_ID +
+                ", " + search + "." + DatabaseHelper.COLUMN_SEARCH_COURSE_ID + " AS " + COLUMN_COURSE_ID +
+                ", " + search + "." + DatabaseHelper.COLUMN_SEARCH_TYPE + " AS " + COLUMN_COURSE_TYPE +
+                ", " + search + "." + DatabaseHelper.COLUMN_SEARCH_DAY_OF_WEEK + " AS " + COLUMN_DAY_OF_WEEK +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_DATE + " AS " + COLUMN_DATE +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_TEACHER + " AS " + COLUMN_TEACHER +
+                ", snippet(" + search + ", '" + FullTextSearch.SNIPPET_START + "', '" +
+                FullTextSearch.SNIPPET_END + "', '…', -1, 8) AS " + COLUMN_SNIPPET +
+                " FROM " + search +
+                " JOIN " + DatabaseHelper.TABLE_INSTANCES + " i ON i." + DatabaseHelper.COLUMN_INSTANCE_ID + " = " + search + ".docid" +
+                " WHERE " + search + " MATCH ? AND " + search + ".docid IN (" + ids + ")" +
+                " ORDER BY " + rankOrder;
+        Cursor cursor = db.rawQuery(rawQuery, new String[]{matchExpression});
+        Bundle extras = new Bundle();
+        extras.putInt(EXTRA_MATCH_COUNT, matchCount);
+        cursor.setExtras(extras);
+        return cursor;
+    }
+}
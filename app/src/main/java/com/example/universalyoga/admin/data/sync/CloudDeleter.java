@@ -0,0 +1,166 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.repository.RepositoryCallback;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Deletes documents from the cloud together with the documents of their subcollections,
+ * which Firestore leaves behind when only the parent is deleted. A collection is read a page
+ * of PAGE_SIZE documents at a time, and each page is deleted as one batch while the next is
+ * read, with up to MAX_CONCURRENT_COMMITS batches in flight. Which subcollections a document
+ * has comes from CloudDocuments.subcollectionsOf(), as clients cannot list them.
+ */
+public class CloudDeleter {
+
+    private static final int PAGE_SIZE = CloudSyncGateway.MAX_BATCH_SIZE;
+    private static final int MAX_CONCURRENT_COMMITS = 4;
+    // Longer than an operation can take with all its retries, see ResilientSyncGateway.MAX_OPERATION_MS.
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private static volatile CloudDeleter instance;
+
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final CloudSyncGateway gateway;
+    // A purge blocks on the cloud for as long as it takes, so it gets its own thread.
+    private final ExecutorService purgeThread =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "sync-purge"));
+
+    public static CloudDeleter getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CloudDeleter.class) {
+                if (instance == null) {
+                    instance = new CloudDeleter(DatabaseHelper.getInstance(context), AppExecutors.get(),
+                            ResilientSyncGateway.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    CloudDeleter(DatabaseHelper dbHelper, AppExecutors executors, CloudSyncGateway gateway) {
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.gateway = gateway;
+    }
+
+    /**
+     * Deletes every course with its instances and every weekly schedule from the cloud, after
+     * dropping the cloud writes still queued on this device so none of them recreates a document.
+     * Delivers the number of documents deleted, or -1 if the purge failed; the documents deleted
+     * until then stay deleted and purging again finishes the job.
+     */
+    public void purgeCloud(RepositoryCallback<Integer> callback) {
+        purgeThread.execute(() -> {
+            int deleted;
+            try {
+                executors.diskWrite().submit(() -> {
+                    SQLiteDatabase db = dbHelper.getWritableDatabase();
+                    db.beginTransaction();
+                    try {
+                        SyncOutbox.clear(db);
+                        db.delete(DatabaseHelper.TABLE_DIRTY_WEEKS, null, null);
+                        db.delete(DatabaseHelper.TABLE_TOMBSTONES, null, null);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }).get();
+                deleted = deleteCollection(CloudDocuments.COLLECTION_COURSES)
+                        + deleteCollection(CloudDocuments.COLLECTION_SCHEDULES);
+            } catch (ExecutionException | TimeoutException e) {
+                deleted = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                deleted = -1;
+            }
+            int result = deleted;
+            executors.mainThread().execute(() -> callback.onResult(result));
+        });
+    }
+
+    /**
+     * Waits for a running purge to finish and keeps further purges from starting until the
+     * returned release is run. Must not be called on the database write thread, which a purge
+     * waits for.
+     */
+    public Runnable pause() throws InterruptedException {
+        return AppExecutors.holdThread(purgeThread);
+    }
+
+    /**
+     * Deletes the documents of all subcollections of a document, but not the document itself.
+     * Blocks until they are deleted.
+     * @return The number of documents deleted.
+     */
+    int deleteSubcollections(String documentPath)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        int deleted = 0;
+        for (String subcollection : CloudDocuments.subcollectionsOf(documentPath)) {
+            deleted += deleteCollection(documentPath + "/" + subcollection);
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes every document of a collection, each after the documents of its own subcollections.
+     * Blocks until they are deleted.
+     * @return The number of documents deleted.
+     * @throws ExecutionException If a page could not be read or a batch was rejected.
+     */
+    int deleteCollection(String collectionPath)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        Semaphore inFlight = new Semaphore(MAX_CONCURRENT_COMMITS);
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        int nested = 0;
+        String lastId = null;
+        while (failure.get() == null) {
+            // Pages are read by id after the previous one, so deleting a page does not move the next.
+            List<String> page = Tasks.await(gateway.listDocuments(collectionPath, lastId, PAGE_SIZE),
+                    TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (page.isEmpty()) break;
+            List<CloudSyncGateway.Write> writes = new ArrayList<>(page.size());
+            for (String path : page) {
+                nested += deleteSubcollections(path);
+                writes.add(CloudSyncGateway.Write.delete(path));
+            }
+            if (!inFlight.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new TimeoutException("Deleting " + collectionPath + " timed out");
+            }
+            gateway.commit(writes).addOnCompleteListener(Runnable::run, task -> {
+                if (task.isSuccessful()) {
+                    deleted.addAndGet(writes.size());
+                } else {
+                    failure.compareAndSet(null, task.getException());
+                }
+                inFlight.release();
+            });
+            if (page.size() < PAGE_SIZE) break;
+            String last = page.get(page.size() - 1);
+            lastId = last.substring(last.lastIndexOf('/') + 1);
+        }
+        // Wait for the batches still in flight.
+        if (!inFlight.tryAcquire(MAX_CONCURRENT_COMMITS, TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new TimeoutException("Deleting " + collectionPath + " timed out");
+        }
+        if (failure.get() != null) throw new ExecutionException(failure.get());
+        return deleted.get() + nested;
+    }
+}
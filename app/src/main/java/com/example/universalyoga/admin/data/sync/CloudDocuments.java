@@ -0,0 +1,338 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.Nullable;
+
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.utils.DateUtils;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.IsoFields;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The layout of the schedule in Cloud Firestore: where each course and class instance lives
+ * and which fields its document holds. Courses are documents of the "courses" collection and
+ * each course's instances are documents of its "instances" subcollection, keyed by the row's
+ * cloud id, which is random so rows created on different devices never share a document.
+ * The "schedules" collection holds one read-only document per ISO week listing that week's
+ * classes, derived from the courses and instances. Deleting a course or instance also writes a
+ * marker to the "deletions" collection, keyed by the same cloud id and holding the deleted
+ * document's path, so a device that was not running when the document went still learns of it.
+ * Every write also sets FIELD_UPDATED_AT to the server's time, which is what devices pulling
+ * changes (see CloudPuller) query on.
+ */
+public final class CloudDocuments {
+
+    public static final String COLLECTION_COURSES = "courses";
+    public static final String COLLECTION_INSTANCES = "instances";
+    public static final String COLLECTION_SCHEDULES = "schedules";
+    public static final String COLLECTION_DELETIONS = "deletions";
+    public static final String FIELD_UPDATED_AT = "updatedAt";
+    public static final String FIELD_PATH = "path";
+
+    private CloudDocuments() {
+    }
+
+    public static String coursePath(String courseCloudId) {
+        return COLLECTION_COURSES + "/" + courseCloudId;
+    }
+
+    public static String instancePath(String courseCloudId, String instanceCloudId) {
+        return coursePath(courseCloudId) + "/" + COLLECTION_INSTANCES + "/" + instanceCloudId;
+    }
+
+    /**
+     * Returns the path of the deletion marker of a course or instance document.
+     */
+    public static String deletionPath(String documentPath) {
+        return COLLECTION_DELETIONS + "/" + documentPath.substring(documentPath.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Builds the deletion marker of a course or instance document.
+     */
+    public static Map<String, Object> deletionFields(String documentPath) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FIELD_PATH, documentPath);
+        return fields;
+    }
+
+    /**
+     * Returns the document path of a course row, or null if there is no such row.
+     */
+    @Nullable
+    public static String coursePathOf(SQLiteDatabase db, long courseId) {
+        Cursor cursor = db.query(DatabaseHelper.TABLE_COURSES, new String[]{DatabaseHelper.COLUMN_COURSE_CLOUD_ID},
+                DatabaseHelper.COLUMN_COURSE_ID + " = ?", new String[]{String.valueOf(courseId)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? coursePath(cursor.getString(0)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the document path of a class instance row, or null if there is no such row.
+     */
+    @Nullable
+    public static String instancePathOf(SQLiteDatabase db, long instanceId) {
+        Cursor cursor = db.rawQuery("SELECT c." + DatabaseHelper.COLUMN_COURSE_CLOUD_ID +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID +
+                " FROM " + DatabaseHelper.TABLE_INSTANCES + " i JOIN " + DatabaseHelper.TABLE_COURSES + " c ON c." +
+                DatabaseHelper.COLUMN_COURSE_ID + " = i." + DatabaseHelper.COLUMN_INSTANCE_COURSE_ID +
+                " WHERE i." + DatabaseHelper.COLUMN_INSTANCE_ID + " = ?", new String[]{String.valueOf(instanceId)});
+        try {
+            return cursor.moveToFirst() ? instancePath(cursor.getString(0), cursor.getString(1)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the subcollections a document can have, which a recursive delete must empty.
+     * Course documents hold their instances; no other document has subcollections.
+     */
+    public static List<String> subcollectionsOf(String documentPath) {
+        String[] segments = documentPath.split("/");
+        return segments.length == 2 && segments[0].equals(COLLECTION_COURSES)
+                ? Collections.singletonList(COLLECTION_INSTANCES)
+                : Collections.emptyList();
+    }
+
+    /**
+     * Returns the path of the schedule document of an ISO week, e.g. schedules/2026-W42.
+     * @param weekStart The epoch day of the week's Monday.
+     */
+    public static String weekPath(long weekStart) {
+        LocalDate monday = LocalDate.ofEpochDay(weekStart);
+        return String.format(Locale.ROOT, "%s/%d-W%02d", COLLECTION_SCHEDULES,
+                monday.get(IsoFields.WEEK_BASED_YEAR), monday.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+    }
+
+    /**
+     * Builds the schedule document of an ISO week: the week's classes in the order a timetable
+     * lists them, so a customer app shows the whole week with one document read.
+     * @param classes Entries built with weekClass().
+     */
+    public static Map<String, Object> weekFields(long weekStart, List<Map<String, Object>> classes) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("weekStart", weekStart);
+        fields.put("classes", classes);
+        return fields;
+    }
+
+    /**
+     * Builds the compact entry of one class in its week's schedule document.
+     */
+    public static Map<String, Object> weekClass(String instanceId, String courseId, long epochDay, String time,
+                                                String type, int duration, String teacher) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("instanceId", instanceId);
+        entry.put("courseId", courseId);
+        entry.put("date", DateUtils.formatEpochDay(epochDay));
+        entry.put("epochDay", epochDay);
+        entry.put("time", time);
+        entry.put("type", type);
+        entry.put("duration", duration);
+        entry.put("teacher", teacher);
+        return entry;
+    }
+
+    /**
+     * Builds a course document from the columns of a course row.
+     */
+    public static Map<String, Object> courseFields(ContentValues values) {
+        return courseFields(values.getAsString(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK),
+                values.getAsString(DatabaseHelper.COLUMN_COURSE_TIME),
+                values.getAsString(DatabaseHelper.COLUMN_COURSE_TYPE),
+                values.getAsInteger(DatabaseHelper.COLUMN_COURSE_CAPACITY),
+                values.getAsInteger(DatabaseHelper.COLUMN_COURSE_DURATION),
+                values.getAsDouble(DatabaseHelper.COLUMN_COURSE_PRICE),
+                values.getAsString(DatabaseHelper.COLUMN_COURSE_DESCRIPTION));
+    }
+
+    public static Map<String, Object> courseFields(String dayOfWeek, String time, String type, int capacity,
+                                                   int duration, double price, String description) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("dayOfWeek", dayOfWeek);
+        fields.put("time", time);
+        fields.put("type", type);
+        fields.put("capacity", capacity);
+        fields.put("duration", duration);
+        fields.put("price", price);
+        fields.put("description", description);
+        return fields;
+    }
+
+    /**
+     * Builds a class instance document from the columns of an instance row.
+     */
+    public static Map<String, Object> instanceFields(ContentValues values) {
+        return instanceFields(values.getAsLong(DatabaseHelper.COLUMN_INSTANCE_DATE),
+                values.getAsString(DatabaseHelper.COLUMN_INSTANCE_TEACHER),
+                values.getAsString(DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
+    }
+
+    /**
+     * Builds a class instance document. The date is stored both as dd/MM/yyyy text, which the
+     * customer app shows, and as an epoch day.
+     */
+    public static Map<String, Object> instanceFields(long epochDay, String teacher, String comments) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("date", DateUtils.formatEpochDay(epochDay));
+        fields.put("epochDay", epochDay);
+        fields.put("teacher", teacher);
+        fields.put("comments", comments);
+        return fields;
+    }
+
+    /**
+     * Builds the part of a course document held by the given columns, for a merge write
+     * that sends only the fields an edit changed.
+     */
+    public static Map<String, Object> courseFieldsOf(ContentValues changed) {
+        Map<String, Object> fields = new HashMap<>();
+        if (changed.containsKey(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK)) {
+            fields.put("dayOfWeek", changed.getAsString(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK));
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_COURSE_TIME)) {
+            fields.put("time", changed.getAsString(DatabaseHelper.COLUMN_COURSE_TIME));
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_COURSE_TYPE)) {
+            fields.put("type", changed.getAsString(DatabaseHelper.COLUMN_COURSE_TYPE));
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_COURSE_CAPACITY)) {
+            fields.put("capacity", changed.getAsInteger(DatabaseHelper.COLUMN_COURSE_CAPACITY));
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_COURSE_DURATION)) {
+            fields.put("duration", changed.getAsInteger(DatabaseHelper.COLUMN_COURSE_DURATION));
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_COURSE_PRICE)) {
+            fields.put("price", changed.getAsDouble(DatabaseHelper.COLUMN_COURSE_PRICE));
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_COURSE_DESCRIPTION)) {
+            fields.put("description", changed.getAsString(DatabaseHelper.COLUMN_COURSE_DESCRIPTION));
+        }
+        return fields;
+    }
+
+    /**
+     * Builds the part of a class instance document held by the given columns, for a merge
+     * write that sends only the fields an edit changed. A new date updates both date fields.
+     */
+    public static Map<String, Object> instanceFieldsOf(ContentValues changed) {
+        Map<String, Object> fields = new HashMap<>();
+        if (changed.containsKey(DatabaseHelper.COLUMN_INSTANCE_DATE)) {
+            long epochDay = changed.getAsLong(DatabaseHelper.COLUMN_INSTANCE_DATE);
+            fields.put("date", DateUtils.formatEpochDay(epochDay));
+            fields.put("epochDay", epochDay);
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_INSTANCE_TEACHER)) {
+            fields.put("teacher", changed.getAsString(DatabaseHelper.COLUMN_INSTANCE_TEACHER));
+        }
+        if (changed.containsKey(DatabaseHelper.COLUMN_INSTANCE_COMMENTS)) {
+            fields.put("comments", changed.getAsString(DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
+        }
+        return fields;
+    }
+
+    /**
+     * Returns a copy of the fields with FIELD_UPDATED_AT set to the server's commit time.
+     * Applied when a write is sent rather than when it is queued, since the marker is not data.
+     */
+    public static Map<String, Object> stamped(Map<String, Object> fields) {
+        Map<String, Object> stamped = new HashMap<>(fields);
+        stamped.put(FIELD_UPDATED_AT, FieldValue.serverTimestamp());
+        return stamped;
+    }
+
+    /**
+     * Returns the server time of a document's last write in epoch millis, or 0 if it has none.
+     */
+    public static long updatedAtMillis(DocumentSnapshot document) {
+        Timestamp updatedAt = document.getTimestamp(FIELD_UPDATED_AT);
+        return updatedAt == null ? 0 : updatedAt.getSeconds() * 1000 + updatedAt.getNanoseconds() / 1_000_000;
+    }
+
+    /**
+     * Reads a course document back into the columns of its row, including the cloud id.
+     * @return The columns, or null if a required field is missing.
+     */
+    @Nullable
+    public static ContentValues courseValues(DocumentSnapshot document) {
+        String dayOfWeek = document.getString("dayOfWeek");
+        String time = document.getString("time");
+        String type = document.getString("type");
+        Long capacity = document.getLong("capacity");
+        Long duration = document.getLong("duration");
+        Double price = document.getDouble("price");
+        if (dayOfWeek == null || time == null || type == null || capacity == null || duration == null ||
+                price == null) {
+            return null;
+        }
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_COURSE_CLOUD_ID, document.getId());
+        values.put(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK, dayOfWeek);
+        values.put(DatabaseHelper.COLUMN_COURSE_TIME, time);
+        values.put(DatabaseHelper.COLUMN_COURSE_TYPE, type);
+        values.put(DatabaseHelper.COLUMN_COURSE_CAPACITY, capacity.intValue());
+        values.put(DatabaseHelper.COLUMN_COURSE_DURATION, duration.intValue());
+        values.put(DatabaseHelper.COLUMN_COURSE_PRICE, price);
+        values.put(DatabaseHelper.COLUMN_COURSE_DESCRIPTION, document.getString("description"));
+        return values;
+    }
+
+    /**
+     * Reads an instance document back into the columns of its row, including the cloud id.
+     * The course is identified by courseCloudIdOf(), since its local row id is not known here.
+     * Documents written before instances carried epochDay only have the dd/MM/yyyy date, which
+     * is read instead.
+     * @return The columns, or null if a required field is missing or the date is not valid.
+     */
+    @Nullable
+    public static ContentValues instanceValues(DocumentSnapshot document) {
+        Long epochDay = document.getLong("epochDay");
+        if (epochDay == null) epochDay = epochDayOfDisplayDate(document.getString("date"));
+        String teacher = document.getString("teacher");
+        if (epochDay == null || teacher == null) return null;
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID, document.getId());
+        values.put(DatabaseHelper.COLUMN_INSTANCE_DATE, epochDay);
+        values.put(DatabaseHelper.COLUMN_INSTANCE_TEACHER, teacher);
+        values.put(DatabaseHelper.COLUMN_INSTANCE_COMMENTS, document.getString("comments"));
+        return values;
+    }
+
+    @Nullable
+    private static Long epochDayOfDisplayDate(@Nullable String date) {
+        if (date == null) return null;
+        try {
+            return DateUtils.parseDisplayDate(date);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cloud id of the course an instance document belongs to, which comes from
+     * the document path, or null if the document is not in a course's instances.
+     */
+    @Nullable
+    public static String courseCloudIdOf(DocumentSnapshot document) {
+        DocumentReference course = document.getReference().getParent().getParent();
+        return course == null || !course.getParent().getId().equals(COLLECTION_COURSES) ? null : course.getId();
+    }
+}
@@ -0,0 +1,448 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.cache.QueryCache;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the local database up to date with changes other devices make in Cloud Firestore.
+ * It listens to the course documents and, through a collection group query, to every course's
+ * instance documents, but only to those written after the newest document already pulled
+ * (the per-collection watermark in sync_state). So a start costs one read per document changed
+ * remotely since the last run, not one per document in the cloud. Until a collection has been
+ * pulled once its watermark is 0 and the listener reads every document, including those written
+ * before documents carried updatedAt, which a filter on it would never match. The collection
+ * group query on updatedAt needs a collection group index, which firestore.indexes.json at the
+ * root of the project defines (deploy it with "firebase deploy --only firestore:indexes").
+ * If a listener fails, e.g. because the index is missing or access was revoked, the error is
+ * logged, every listener is removed and all are started again after a backoff that doubles with
+ * each failure in a row, up to MAX_RETRY_DELAY_MS.
+ *
+ * Each snapshot is applied on the database write thread in one transaction, with change tracking
+ * off so pulled rows are not uploaded back. Documents are matched to rows by cloud id. A document
+ * with a local edit still waiting in the outbox is skipped: the edit is newer and will overwrite
+ * it in the cloud. An instance whose course has not been pulled yet waits in sync_orphans until
+ * the course arrives, or is dropped after ORPHAN_TTL_MS; either way the watermark moves past it.
+ * Documents deleted remotely are removed locally when a listener sees the deletion while the app
+ * is running, and otherwise from the deletion markers (see CloudDocuments), which a third
+ * listener pulls after their own watermark the same way.
+ */
+public class CloudPuller {
+
+    private static final String TAG = "CloudPuller";
+
+    private static final long ORPHAN_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    private static volatile CloudPuller instance;
+
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final QueryCache cache;
+    // Delays restarting the listeners after a failure.
+    private final ScheduledExecutorService retryTimer =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "sync-pull-retry"));
+    // The fields below are only touched on the write thread.
+    // Between start() and stop(), also while the listeners wait to be restarted.
+    private boolean started;
+    private int failuresInARow;
+    private ListenerRegistration courseListener;
+    private ListenerRegistration instanceListener;
+    private ListenerRegistration deletionListener;
+
+    public static CloudPuller getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CloudPuller.class) {
+                if (instance == null) {
+                    instance = new CloudPuller(DatabaseHelper.getInstance(context), AppExecutors.get(), QueryCache.get());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private CloudPuller(DatabaseHelper dbHelper, AppExecutors executors, QueryCache cache) {
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts listening for remote changes, unless already listening. Firestore keeps the
+     * listeners alive across network loss and catches up when the device is back online.
+     */
+    public void start() {
+        executors.diskWrite().execute(() -> {
+            if (started) return;
+            started = true;
+            failuresInARow = 0;
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            // A course that has not arrived in a week was most likely deleted before it could be pulled.
+            db.delete(DatabaseHelper.TABLE_ORPHANS, DatabaseHelper.COLUMN_ORPHAN_PULLED_AT + " < ?",
+                    new String[]{String.valueOf(System.currentTimeMillis() - ORPHAN_TTL_MS)});
+            listen();
+        });
+    }
+
+    /**
+     * Stops listening. Changes made meanwhile are pulled after the next start().
+     */
+    public void stop() {
+        executors.diskWrite().execute(() -> {
+            started = false;
+            removeListeners();
+        });
+    }
+
+    /**
+     * Adds the listeners, each narrowed to the documents after its watermark. Runs on the write thread.
+     */
+    private void listen() {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        // Snapshots are delivered straight to the write thread, where they are applied.
+        courseListener = changedSince(firestore.collection(CloudDocuments.COLLECTION_COURSES),
+                SyncState.get(db, DatabaseHelper.STATE_PULLED_COURSES_THROUGH))
+                .addSnapshotListener(executors.diskWrite(), MetadataChanges.EXCLUDE, (snapshot, error) -> {
+                    if (error != null) {
+                        failed(error);
+                        return;
+                    }
+                    failuresInARow = 0;
+                    applyCourses(snapshot);
+                });
+        instanceListener = changedSince(firestore.collectionGroup(CloudDocuments.COLLECTION_INSTANCES),
+                SyncState.get(db, DatabaseHelper.STATE_PULLED_INSTANCES_THROUGH))
+                .addSnapshotListener(executors.diskWrite(), MetadataChanges.EXCLUDE, (snapshot, error) -> {
+                    if (error != null) {
+                        failed(error);
+                        return;
+                    }
+                    failuresInARow = 0;
+                    List<DocumentSnapshot> changed = new ArrayList<>();
+                    List<DocumentSnapshot> removed = new ArrayList<>();
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        (change.getType() == DocumentChange.Type.REMOVED ? removed : changed)
+                                .add(change.getDocument());
+                    }
+                    applyInstances(changed, removed);
+                });
+        deletionListener = changedSince(firestore.collection(CloudDocuments.COLLECTION_DELETIONS),
+                SyncState.get(db, DatabaseHelper.STATE_PULLED_DELETIONS_THROUGH))
+                .addSnapshotListener(executors.diskWrite(), MetadataChanges.EXCLUDE, (snapshot, error) -> {
+                    if (error != null) {
+                        failed(error);
+                        return;
+                    }
+                    failuresInARow = 0;
+                    applyDeletions(snapshot);
+                });
+    }
+
+    private void removeListeners() {
+        if (courseListener == null) return;
+        courseListener.remove();
+        instanceListener.remove();
+        deletionListener.remove();
+        courseListener = null;
+        instanceListener = null;
+        deletionListener = null;
+    }
+
+    /**
+     * Removes every listener after one failed, and adds them again after a backoff, from the
+     * watermarks reached so far. A listener that failed delivers nothing more, so the others
+     * are restarted with it. Runs on the write thread.
+     */
+    private void failed(FirebaseFirestoreException error) {
+        // The listeners were already removed, by stop() or another listener's failure.
+        if (courseListener == null) return;
+        removeListeners();
+        failuresInARow++;
+        long delayMs = retryDelayMs(failuresInARow);
+        Log.w(TAG, "Listening for cloud changes failed, retrying in " + delayMs + " ms", error);
+        retryTimer.schedule(() -> executors.diskWrite().execute(() -> {
+            if (started && courseListener == null) listen();
+        }), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the delay before the listeners are restarted after the given number of failures
+     * in a row: RETRY_DELAY_MS, doubled with each failure, up to MAX_RETRY_DELAY_MS.
+     */
+    private static long retryDelayMs(int failuresInARow) {
+        // Past 20 doublings the delay is far above the maximum; stopping there keeps the shift from overflowing.
+        return Math.min(MAX_RETRY_DELAY_MS, RETRY_DELAY_MS << Math.min(failuresInARow - 1, 20));
+    }
+
+    /**
+     * Narrows the query to the documents written after the watermark, or leaves it whole
+     * if the collection has never been pulled.
+     */
+    private static Query changedSince(Query query, long watermarkMillis) {
+        if (watermarkMillis == 0) return query;
+        Timestamp watermark = new Timestamp(watermarkMillis / 1000, (int) (watermarkMillis % 1000) * 1_000_000);
+        return query.whereGreaterThan(CloudDocuments.FIELD_UPDATED_AT, watermark);
+    }
+
+    private void applyCourses(QuerySnapshot snapshot) {
+        List<DocumentChange> changes = snapshot.getDocumentChanges();
+        if (changes.isEmpty()) return;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            beginApplyingRemote(db);
+            SQLiteStatement upsert = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_COURSES + " (" +
+                    DatabaseHelper.COLUMN_COURSE_CLOUD_ID + ", " + DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK + ", " +
+                    DatabaseHelper.COLUMN_COURSE_TIME + ", " + DatabaseHelper.COLUMN_COURSE_CAPACITY + ", " +
+                    DatabaseHelper.COLUMN_COURSE_DURATION + ", " + DatabaseHelper.COLUMN_COURSE_PRICE + ", " +
+                    DatabaseHelper.COLUMN_COURSE_TYPE + ", " + DatabaseHelper.COLUMN_COURSE_DESCRIPTION + ", " +
+                    DatabaseHelper.COLUMN_COURSE_UPDATED_AT + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)" +
+                    " ON CONFLICT(" + DatabaseHelper.COLUMN_COURSE_CLOUD_ID + ") DO UPDATE SET " +
+                    assignExcluded(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK, DatabaseHelper.COLUMN_COURSE_TIME,
+                            DatabaseHelper.COLUMN_COURSE_CAPACITY, DatabaseHelper.COLUMN_COURSE_DURATION,
+                            DatabaseHelper.COLUMN_COURSE_PRICE, DatabaseHelper.COLUMN_COURSE_TYPE,
+                            DatabaseHelper.COLUMN_COURSE_DESCRIPTION));
+            try {
+                long newest = SyncState.get(db, DatabaseHelper.STATE_PULLED_COURSES_THROUGH);
+                for (DocumentChange change : changes) {
+                    DocumentSnapshot document = change.getDocument();
+                    newest = Math.max(newest, CloudDocuments.updatedAtMillis(document));
+                    if (hasPendingLocalWrite(db, document.getReference().getPath())) continue;
+                    String[] cloudId = {document.getId()};
+                    if (change.getType() == DocumentChange.Type.REMOVED) {
+                        db.delete(DatabaseHelper.TABLE_COURSES, DatabaseHelper.COLUMN_COURSE_CLOUD_ID + " = ?", cloudId);
+                        db.delete(DatabaseHelper.TABLE_ORPHANS, DatabaseHelper.COLUMN_ORPHAN_COURSE_CLOUD_ID + " = ?",
+                                cloudId);
+                        continue;
+                    }
+                    ContentValues values = CloudDocuments.courseValues(document);
+                    if (values == null) continue;
+                    upsert.clearBindings();
+                    upsert.bindString(1, values.getAsString(DatabaseHelper.COLUMN_COURSE_CLOUD_ID));
+                    upsert.bindString(2, values.getAsString(DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK));
+                    upsert.bindString(3, values.getAsString(DatabaseHelper.COLUMN_COURSE_TIME));
+                    upsert.bindLong(4, values.getAsLong(DatabaseHelper.COLUMN_COURSE_CAPACITY));
+                    upsert.bindLong(5, values.getAsLong(DatabaseHelper.COLUMN_COURSE_DURATION));
+                    upsert.bindDouble(6, values.getAsDouble(DatabaseHelper.COLUMN_COURSE_PRICE));
+                    upsert.bindString(7, values.getAsString(DatabaseHelper.COLUMN_COURSE_TYPE));
+                    bindNullable(upsert, 8, values.getAsString(DatabaseHelper.COLUMN_COURSE_DESCRIPTION));
+                    upsert.executeInsert();
+                }
+                // Documents without updatedAt leave newest at 0, which must not read as "never pulled".
+                SyncState.put(db, DatabaseHelper.STATE_PULLED_COURSES_THROUGH, Math.max(newest, 1));
+            } finally {
+                upsert.close();
+            }
+            // Instances that arrived before their course can be applied now.
+            applyOrphans(db);
+            endApplyingRemote(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        cache.invalidate(DatabaseHelper.TABLE_COURSES, DatabaseHelper.TABLE_INSTANCES,
+                DatabaseHelper.TABLE_COURSE_SUMMARY);
+    }
+
+    /**
+     * Applies instance documents written and deleted remotely. Removals are applied first;
+     * a document is never both, since a snapshot reports each document once.
+     */
+    private void applyInstances(List<DocumentSnapshot> changed, List<DocumentSnapshot> removed) {
+        if (changed.isEmpty() && removed.isEmpty()) return;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            beginApplyingRemote(db);
+            long newest = SyncState.get(db, DatabaseHelper.STATE_PULLED_INSTANCES_THROUGH);
+            for (DocumentSnapshot document : removed) {
+                newest = Math.max(newest, CloudDocuments.updatedAtMillis(document));
+                if (hasPendingLocalWrite(db, document.getReference().getPath())) continue;
+                String[] cloudId = {document.getId()};
+                db.delete(DatabaseHelper.TABLE_INSTANCES, DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID + " = ?", cloudId);
+                db.delete(DatabaseHelper.TABLE_ORPHANS, DatabaseHelper.COLUMN_ORPHAN_CLOUD_ID + " = ?", cloudId);
+            }
+            // Inserts nothing when the course is not there, which leaves the document to sync_orphans.
+            SQLiteStatement upsert = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_INSTANCES + " (" +
+                    DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID + ", " + DatabaseHelper.COLUMN_INSTANCE_COURSE_ID + ", " +
+                    DatabaseHelper.COLUMN_INSTANCE_DATE + ", " + DatabaseHelper.COLUMN_INSTANCE_TEACHER + ", " +
+                    DatabaseHelper.COLUMN_INSTANCE_COMMENTS + ", " + DatabaseHelper.COLUMN_INSTANCE_UPDATED_AT + ")" +
+                    " SELECT ?, " + DatabaseHelper.COLUMN_COURSE_ID + ", ?, ?, ?, 0 FROM " + DatabaseHelper.TABLE_COURSES +
+                    " WHERE " + DatabaseHelper.COLUMN_COURSE_CLOUD_ID + " = ?" +
+                    " ON CONFLICT(" + DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID + ") DO UPDATE SET " +
+                    assignExcluded(DatabaseHelper.COLUMN_INSTANCE_COURSE_ID, DatabaseHelper.COLUMN_INSTANCE_DATE,
+                            DatabaseHelper.COLUMN_INSTANCE_TEACHER, DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
+            SQLiteStatement orphan = db.compileStatement("INSERT OR REPLACE INTO " + DatabaseHelper.TABLE_ORPHANS + " (" +
+                    DatabaseHelper.COLUMN_ORPHAN_CLOUD_ID + ", " + DatabaseHelper.COLUMN_ORPHAN_COURSE_CLOUD_ID + ", " +
+                    DatabaseHelper.COLUMN_ORPHAN_DATE + ", " + DatabaseHelper.COLUMN_ORPHAN_TEACHER + ", " +
+                    DatabaseHelper.COLUMN_ORPHAN_COMMENTS + ", " + DatabaseHelper.COLUMN_ORPHAN_PULLED_AT + ")" +
+                    " VALUES (?, ?, ?, ?, ?, ?)");
+            try {
+                long now = System.currentTimeMillis();
+                for (DocumentSnapshot document : changed) {
+                    newest = Math.max(newest, CloudDocuments.updatedAtMillis(document));
+                    if (hasPendingLocalWrite(db, document.getReference().getPath())) continue;
+                    ContentValues values = CloudDocuments.instanceValues(document);
+                    String courseCloudId = CloudDocuments.courseCloudIdOf(document);
+                    if (values == null || courseCloudId == null) continue;
+                    String cloudId = values.getAsString(DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID);
+                    upsert.clearBindings();
+                    upsert.bindString(1, cloudId);
+                    upsert.bindLong(2, values.getAsLong(DatabaseHelper.COLUMN_INSTANCE_DATE));
+                    upsert.bindString(3, values.getAsString(DatabaseHelper.COLUMN_INSTANCE_TEACHER));
+                    bindNullable(upsert, 4, values.getAsString(DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
+                    upsert.bindString(5, courseCloudId);
+                    if (upsert.executeUpdateDelete() > 0) {
+                        db.delete(DatabaseHelper.TABLE_ORPHANS, DatabaseHelper.COLUMN_ORPHAN_CLOUD_ID + " = ?",
+                                new String[]{cloudId});
+                        continue;
+                    }
+                    orphan.clearBindings();
+                    orphan.bindString(1, cloudId);
+                    orphan.bindString(2, courseCloudId);
+                    orphan.bindLong(3, values.getAsLong(DatabaseHelper.COLUMN_INSTANCE_DATE));
+                    orphan.bindString(4, values.getAsString(DatabaseHelper.COLUMN_INSTANCE_TEACHER));
+                    bindNullable(orphan, 5, values.getAsString(DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
+                    orphan.bindLong(6, now);
+                    orphan.executeInsert();
+                }
+            } finally {
+                upsert.close();
+                orphan.close();
+            }
+            // Orphans are kept in the database, so the watermark can move past them.
+            SyncState.put(db, DatabaseHelper.STATE_PULLED_INSTANCES_THROUGH, Math.max(newest, 1));
+            endApplyingRemote(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        cache.invalidate(DatabaseHelper.TABLE_INSTANCES, DatabaseHelper.TABLE_COURSE_SUMMARY);
+    }
+
+    /**
+     * Deletes the rows of the documents whose deletion markers arrived. A marker is only ever
+     * added, so other kinds of change are ignored. A row with a local edit still waiting in the
+     * outbox is kept, as for documents removed while listening.
+     */
+    private void applyDeletions(QuerySnapshot snapshot) {
+        List<DocumentChange> changes = snapshot.getDocumentChanges();
+        if (changes.isEmpty()) return;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            beginApplyingRemote(db);
+            long newest = SyncState.get(db, DatabaseHelper.STATE_PULLED_DELETIONS_THROUGH);
+            for (DocumentChange change : changes) {
+                DocumentSnapshot marker = change.getDocument();
+                newest = Math.max(newest, CloudDocuments.updatedAtMillis(marker));
+                String path = marker.getString(CloudDocuments.FIELD_PATH);
+                if (change.getType() == DocumentChange.Type.REMOVED || path == null
+                        || hasPendingLocalWrite(db, path)) {
+                    continue;
+                }
+                String[] cloudId = {marker.getId()};
+                if (path.equals(CloudDocuments.coursePath(marker.getId()))) {
+                    // The course's instances go with it through the cascading foreign key.
+                    db.delete(DatabaseHelper.TABLE_COURSES, DatabaseHelper.COLUMN_COURSE_CLOUD_ID + " = ?", cloudId);
+                    db.delete(DatabaseHelper.TABLE_ORPHANS, DatabaseHelper.COLUMN_ORPHAN_COURSE_CLOUD_ID + " = ?",
+                            cloudId);
+                } else {
+                    db.delete(DatabaseHelper.TABLE_INSTANCES, DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID + " = ?", cloudId);
+                    db.delete(DatabaseHelper.TABLE_ORPHANS, DatabaseHelper.COLUMN_ORPHAN_CLOUD_ID + " = ?", cloudId);
+                }
+            }
+            SyncState.put(db, DatabaseHelper.STATE_PULLED_DELETIONS_THROUGH, Math.max(newest, 1));
+            endApplyingRemote(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        cache.invalidate(DatabaseHelper.TABLE_COURSES, DatabaseHelper.TABLE_INSTANCES,
+                DatabaseHelper.TABLE_COURSE_SUMMARY);
+    }
+
+    /**
+     * Moves the orphaned instances whose course now exists into class_instances, in one pass.
+     */
+    private static void applyOrphans(SQLiteDatabase db) {
+        // The WHERE keeps SQLite from reading ON CONFLICT as part of the join.
+        db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_INSTANCES + " (" +
+                DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID + ", " + DatabaseHelper.COLUMN_INSTANCE_COURSE_ID + ", " +
+                DatabaseHelper.COLUMN_INSTANCE_DATE + ", " + DatabaseHelper.COLUMN_INSTANCE_TEACHER + ", " +
+                DatabaseHelper.COLUMN_INSTANCE_COMMENTS + ", " + DatabaseHelper.COLUMN_INSTANCE_UPDATED_AT + ")" +
+                " SELECT o." + DatabaseHelper.COLUMN_ORPHAN_CLOUD_ID + ", c." + DatabaseHelper.COLUMN_COURSE_ID +
+                ", o." + DatabaseHelper.COLUMN_ORPHAN_DATE + ", o." + DatabaseHelper.COLUMN_ORPHAN_TEACHER +
+                ", o." + DatabaseHelper.COLUMN_ORPHAN_COMMENTS + ", 0" +
+                " FROM " + DatabaseHelper.TABLE_ORPHANS + " o JOIN " + DatabaseHelper.TABLE_COURSES + " c ON c." +
+                DatabaseHelper.COLUMN_COURSE_CLOUD_ID + " = o." + DatabaseHelper.COLUMN_ORPHAN_COURSE_CLOUD_ID +
+                " WHERE 1" +
+                " ON CONFLICT(" + DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID + ") DO UPDATE SET " +
+                assignExcluded(DatabaseHelper.COLUMN_INSTANCE_COURSE_ID, DatabaseHelper.COLUMN_INSTANCE_DATE,
+                        DatabaseHelper.COLUMN_INSTANCE_TEACHER, DatabaseHelper.COLUMN_INSTANCE_COMMENTS));
+        db.delete(DatabaseHelper.TABLE_ORPHANS, DatabaseHelper.COLUMN_ORPHAN_COURSE_CLOUD_ID + " IN (SELECT " +
+                DatabaseHelper.COLUMN_COURSE_CLOUD_ID + " FROM " + DatabaseHelper.TABLE_COURSES + ")", null);
+    }
+
+    /**
+     * Turns change tracking off for the rest of the transaction. The flag is only ever set
+     * inside a transaction on the write thread, so no local write can run while it is on.
+     */
+    private static void beginApplyingRemote(SQLiteDatabase db) {
+        SyncState.put(db, DatabaseHelper.STATE_APPLYING_REMOTE, 1);
+    }
+
+    private static void endApplyingRemote(SQLiteDatabase db) {
+        SyncState.put(db, DatabaseHelper.STATE_APPLYING_REMOTE, 0);
+    }
+
+    private static boolean hasPendingLocalWrite(SQLiteDatabase db, String path) {
+        return DatabaseUtils.queryNumEntries(db, DatabaseHelper.TABLE_OUTBOX,
+                DatabaseHelper.COLUMN_OUTBOX_PATH + " = ? AND " + DatabaseHelper.COLUMN_OUTBOX_STATUS + " = ?",
+                new String[]{path, SyncOutbox.STATUS_PENDING}) > 0;
+    }
+
+    /**
+     * Builds "a = excluded.a, b = excluded.b, ..." for an upsert.
+     */
+    private static String assignExcluded(String... columns) {
+        StringBuilder assignments = new StringBuilder();
+        for (String column : columns) {
+            if (assignments.length() > 0) assignments.append(", ");
+            assignments.append(column).append(" = excluded.").append(column);
+        }
+        return assignments.toString();
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
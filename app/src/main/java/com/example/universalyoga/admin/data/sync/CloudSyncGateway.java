@@ -0,0 +1,67 @@
+package com.example.universalyoga.admin.data.sync;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cloud store the sync code writes to. OutboxDispatcher, ScheduleUploader and CloudDeleter
+ * only send batches of document writes and list documents through this interface, so they can
+ * run against FirestoreSyncGateway in the app and against a local stand-in in benchmarks and tests.
+ */
+public interface CloudSyncGateway {
+
+    // Firestore accepts at most 500 writes in one batch; implementations enforce the same limit.
+    int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Commits the writes atomically: either all of them are applied or none.
+     * @param writes At most MAX_BATCH_SIZE writes, to different documents.
+     * @return A task completing when the store has accepted or rejected the batch. Listeners
+     *         may be called on any thread.
+     */
+    Task<Void> commit(List<Write> writes);
+
+    /**
+     * Lists one page of the documents of a collection, as the server has them, ordered by id.
+     * @param collectionPath The collection, e.g. courses/4/instances.
+     * @param startAfterId The id of the last document of the previous page, or null for the first page.
+     * @return A task with the paths of at most limit documents; fewer means this is the last page.
+     */
+    Task<List<String>> listDocuments(String collectionPath, @Nullable String startAfterId, int limit);
+
+    /**
+     * A write to one document: a set of the whole document, a merge of some of its fields
+     * or a delete. The store stamps sets and merges with its own time of the write.
+     */
+    final class Write {
+        public final String op; // One of the SyncOutbox.OP_ constants
+        public final String path;
+        public final Map<String, Object> fields; // null for deletes
+
+        private Write(String op, String path, Map<String, Object> fields) {
+            this.op = op;
+            this.path = path;
+            this.fields = fields;
+        }
+
+        public static Write set(String path, Map<String, Object> fields) {
+            return new Write(SyncOutbox.OP_SET, path, fields);
+        }
+
+        public static Write merge(String path, Map<String, Object> fields) {
+            return new Write(SyncOutbox.OP_MERGE, path, fields);
+        }
+
+        public static Write delete(String path) {
+            return new Write(SyncOutbox.OP_DELETE, path, null);
+        }
+
+        public boolean isDelete() {
+            return SyncOutbox.OP_DELETE.equals(op);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.universalyoga.admin.data.sync;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends sync writes to Cloud Firestore as write batches and lists documents with queries.
+ * Sets and merges are stamped with the server's commit time (see CloudDocuments.stamped()),
+ * which CloudPuller queries on.
+ */
+public class FirestoreSyncGateway implements CloudSyncGateway {
+
+    private final FirebaseFirestore firestore;
+
+    public FirestoreSyncGateway(FirebaseFirestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @Override
+    public Task<Void> commit(List<Write> writes) {
+        if (writes.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " writes per batch, got " + writes.size());
+        }
+        WriteBatch batch = firestore.batch();
+        for (Write write : writes) {
+            DocumentReference document = firestore.document(write.path);
+            if (write.isDelete()) {
+                batch.delete(document);
+            } else if (SyncOutbox.OP_MERGE.equals(write.op)) {
+                batch.set(document, CloudDocuments.stamped(write.fields), SetOptions.merge());
+            } else {
+                batch.set(document, CloudDocuments.stamped(write.fields));
+            }
+        }
+        return batch.commit();
+    }
+
+    @Override
+    public Task<List<String>> listDocuments(String collectionPath, @Nullable String startAfterId, int limit) {
+        Query query = firestore.collection(collectionPath).orderBy(FieldPath.documentId()).limit(limit);
+        if (startAfterId != null) query = query.startAfter(startAfterId);
+        // Only the server knows every document; the local cache may miss those never read on this device.
+        return query.get(Source.SERVER).continueWith(Runnable::run, task -> {
+            List<String> paths = new ArrayList<>();
+            for (DocumentSnapshot document : task.getResult()) {
+                paths.add(document.getReference().getPath());
+            }
+            return paths;
+        });
+    }
+}
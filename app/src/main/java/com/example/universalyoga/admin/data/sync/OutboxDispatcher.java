@@ -0,0 +1,360 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.ConnectivityMonitor;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the entries of the sync outbox to the cloud, through a CloudSyncGateway.
+ * A drain starts COALESCE_WINDOW_MS after it is first requested, so a run of edits made in
+ * quick succession is sent together. It reads the pending entries oldest first, collapses the
+ * entries for the same document into one write (see SyncOutbox.coalesce()), sends the writes in
+ * write batches and removes each batch once the cloud has committed it. A batch ends at a tree
+ * delete: the writes queued before it are committed first, then the subcollections of the
+ * document are emptied (see CloudDeleter) and the document itself is deleted, so no earlier
+ * write can recreate a document below it. Commits go through
+ * ResilientSyncGateway, which retries passing failures itself. If the cloud rejects a batch,
+ * its halves are sent on their own, down to the single write it rejects: that write's entries
+ * are parked at once and the rest of the batch goes through. A batch that fails for another
+ * reason stays queued (with its attempt count and error recorded) and the drain stops until the next
+ * request, which comes with the next local write or when the device gets a network connection again;
+ * entries that fail MAX_ATTEMPTS drains in a row are parked until retryParked(). While the
+ * gateway's circuit is open nothing is counted against the entries and the drain is put off
+ * until the circuit lets a trial through; while the device is offline the drain waits for
+ * the connection to come back.
+ * Once the outbox is empty the drain also sends the schedule documents of the weeks that
+ * changed (see WeeklySchedules).
+ */
+public class OutboxDispatcher {
+
+    private static final int BATCH_SIZE = CloudSyncGateway.MAX_BATCH_SIZE;
+    private static final int MAX_ATTEMPTS = 5;
+    // Longer than a commit can take with all its retries, see ResilientSyncGateway.MAX_OPERATION_MS.
+    private static final long COMMIT_TIMEOUT_SECONDS = 120;
+    // How long writes are collected before a drain sends them.
+    private static final long COALESCE_WINDOW_MS = 3000;
+
+    private static volatile OutboxDispatcher instance;
+
+    private final ConnectivityMonitor connectivity;
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final CloudSyncGateway gateway;
+    private final CloudDeleter deleter;
+    // Drains run one at a time on their own thread, since they block waiting for the cloud.
+    private final ScheduledExecutorService syncThread =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "sync-outbox"));
+    // Set while a drain is scheduled but has not started; further requests join it.
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+    // Set while pause() holds the sync thread; a running drain stops after its current batch.
+    private volatile boolean paused;
+
+    public static OutboxDispatcher getInstance(Context context) {
+        if (instance == null) {
+            synchronized (OutboxDispatcher.class) {
+                if (instance == null) {
+                    instance = new OutboxDispatcher(ConnectivityMonitor.getInstance(context),
+                            DatabaseHelper.getInstance(context), AppExecutors.get(),
+                            ResilientSyncGateway.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    OutboxDispatcher(ConnectivityMonitor connectivity, DatabaseHelper dbHelper, AppExecutors executors,
+                     CloudSyncGateway gateway) {
+        this.connectivity = connectivity;
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.gateway = gateway;
+        this.deleter = new CloudDeleter(dbHelper, executors, gateway);
+    }
+
+    /**
+     * Sends the pending entries in the background, after the coalescing window, if the device
+     * is online. Safe to call from any thread and as often as needed; requests made while a
+     * drain is scheduled share it.
+     */
+    public void requestDrain() {
+        scheduleDrain(COALESCE_WINDOW_MS);
+    }
+
+    /**
+     * Queues the entries parked after failing too often for another round of attempts, then
+     * requests a drain. Called when the app starts and when the device gets back online.
+     */
+    public void retryParked() {
+        executors.diskWrite().execute(() -> {
+            SyncOutbox.unpark(dbHelper.getWritableDatabase());
+            requestDrain();
+        });
+    }
+
+    /**
+     * Stops the drain after the batch it is sending, if one runs, and keeps further drains from
+     * starting until the returned release is run, so nothing reads the outbox meanwhile.
+     * Must not be called on the database write thread, which a running drain may wait for.
+     */
+    public Runnable pause() throws InterruptedException {
+        paused = true;
+        Runnable release;
+        try {
+            release = AppExecutors.holdThread(syncThread);
+        } catch (InterruptedException e) {
+            paused = false;
+            throw e;
+        }
+        return () -> {
+            paused = false;
+            release.run();
+        };
+    }
+
+    private void scheduleDrain(long delayMs) {
+        if (drainQueued.getAndSet(true)) return;
+        syncThread.schedule(() -> {
+            drainQueued.set(false);
+            if (connectivity.isOnline()) drain();
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends all pending entries, one batch at a time, until the outbox is empty or a batch fails,
+     * then the schedule documents of the weeks that changed.
+     * Runs on the calling thread and blocks while the cloud commits.
+     */
+    void drain() {
+        SyncOutbox.SEND_LOCK.lock();
+        try {
+            drainLocked();
+        } finally {
+            SyncOutbox.SEND_LOCK.unlock();
+        }
+    }
+
+    private void drainLocked() {
+        while (!paused) {
+            List<SyncOutbox.Entry> entries = upToTreeDelete(
+                    SyncOutbox.loadPending(dbHelper.getReadableDatabase(), BATCH_SIZE));
+            if (entries.isEmpty()) {
+                sendWeeklySchedules();
+                return;
+            }
+
+            List<SyncOutbox.Entry> writes = new ArrayList<>();
+            SyncOutbox.Entry treeDelete = null;
+            for (SyncOutbox.Entry entry : SyncOutbox.coalesce(entries)) {
+                if (SyncOutbox.OP_DELETE_TREE.equals(entry.op)) {
+                    treeDelete = entry;
+                } else {
+                    writes.add(entry);
+                }
+            }
+            Map<SyncOutbox.Entry, List<SyncOutbox.Entry>> originals = originalsOf(entries, writes, treeDelete);
+            List<SyncOutbox.Entry> unsent = new ArrayList<>(entries);
+            try {
+                if (!writes.isEmpty()) send(writes, originals, unsent);
+                if (treeDelete != null) sendTreeDelete(treeDelete, originals, unsent);
+            } catch (ExecutionException | TimeoutException e) {
+                if (deferred(e)) return;
+                String error = e.getCause() != null ? e.getCause().getMessage() : e.toString();
+                write(() -> SyncOutbox.recordFailure(dbHelper.getWritableDatabase(), unsent, error, MAX_ATTEMPTS));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Commits the coalesced writes and removes their entries. If the cloud rejects the batch,
+     * each half is committed on its own, down to the single write it rejects, which is parked
+     * with its entries; the others still go through.
+     * @param unsent The entries not yet removed or parked; updated as writes settle.
+     * @throws ExecutionException If a commit failed for a reason other than a rejection.
+     */
+    private void send(List<SyncOutbox.Entry> writes, Map<SyncOutbox.Entry, List<SyncOutbox.Entry>> originals,
+                      List<SyncOutbox.Entry> unsent)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        List<CloudSyncGateway.Write> batch = new ArrayList<>();
+        for (SyncOutbox.Entry entry : writes) {
+            batch.add(toWrite(entry));
+        }
+        try {
+            Tasks.await(gateway.commit(batch), COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (!rejected(e)) throw e;
+            if (writes.size() == 1) {
+                park(writes.get(0), originals, unsent, e);
+                return;
+            }
+            int half = writes.size() / 2;
+            send(writes.subList(0, half), originals, unsent);
+            send(writes.subList(half, writes.size()), originals, unsent);
+            return;
+        }
+        List<SyncOutbox.Entry> sent = new ArrayList<>();
+        for (SyncOutbox.Entry entry : writes) {
+            sent.addAll(originals.get(entry));
+        }
+        write(() -> SyncOutbox.remove(dbHelper.getWritableDatabase(), sent));
+        unsent.removeAll(sent);
+    }
+
+    /**
+     * Deletes a document and its subcollections and removes its entries, or parks them if the
+     * cloud rejects the deletion.
+     */
+    private void sendTreeDelete(SyncOutbox.Entry treeDelete, Map<SyncOutbox.Entry, List<SyncOutbox.Entry>> originals,
+                                List<SyncOutbox.Entry> unsent)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        try {
+            // The documents below the deleted one go first, so none is left without its parent.
+            deleter.deleteSubcollections(treeDelete.path);
+            Tasks.await(gateway.commit(Collections.singletonList(toWrite(treeDelete))),
+                    COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (!rejected(e)) throw e;
+            park(treeDelete, originals, unsent, e);
+            return;
+        }
+        List<SyncOutbox.Entry> sent = originals.get(treeDelete);
+        write(() -> SyncOutbox.remove(dbHelper.getWritableDatabase(), sent));
+        unsent.removeAll(sent);
+    }
+
+    private void park(SyncOutbox.Entry write, Map<SyncOutbox.Entry, List<SyncOutbox.Entry>> originals,
+                      List<SyncOutbox.Entry> unsent, ExecutionException e) {
+        List<SyncOutbox.Entry> rejected = originals.get(write);
+        String error = e.getCause() != null ? e.getCause().getMessage() : e.toString();
+        write(() -> SyncOutbox.park(dbHelper.getWritableDatabase(), rejected, error));
+        unsent.removeAll(rejected);
+    }
+
+    /**
+     * Returns whether the cloud refused the commit, so it would fail the same way if sent again.
+     */
+    private static boolean rejected(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ResilientSyncGateway.OfflineException
+                || cause instanceof ResilientSyncGateway.CircuitOpenException) {
+            return false;
+        }
+        return !(cause instanceof Exception) || !ResilientSyncGateway.isTransient((Exception) cause);
+    }
+
+    /**
+     * Maps each coalesced write to the queued entries it stands for: those for the same
+     * document, and for a tree delete also those for the documents below it that it dropped.
+     */
+    private static Map<SyncOutbox.Entry, List<SyncOutbox.Entry>> originalsOf(
+            List<SyncOutbox.Entry> entries, List<SyncOutbox.Entry> writes, SyncOutbox.Entry treeDelete) {
+        Map<String, SyncOutbox.Entry> byPath = new HashMap<>();
+        Map<SyncOutbox.Entry, List<SyncOutbox.Entry>> originals = new IdentityHashMap<>();
+        for (SyncOutbox.Entry write : writes) {
+            byPath.put(write.path, write);
+            originals.put(write, new ArrayList<>());
+        }
+        if (treeDelete != null) originals.put(treeDelete, new ArrayList<>());
+        for (SyncOutbox.Entry entry : entries) {
+            SyncOutbox.Entry write = byPath.get(entry.path);
+            // An entry without a write of its own was dropped by the tree delete, the last entry.
+            originals.get(write != null ? write : treeDelete).add(entry);
+        }
+        return originals;
+    }
+
+    /**
+     * Cuts the entries after the first tree delete, which has to be sent after the entries
+     * queued before it and before those queued after it.
+     */
+    private static List<SyncOutbox.Entry> upToTreeDelete(List<SyncOutbox.Entry> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (SyncOutbox.OP_DELETE_TREE.equals(entries.get(i).op)) return entries.subList(0, i + 1);
+        }
+        return entries;
+    }
+
+    private static CloudSyncGateway.Write toWrite(SyncOutbox.Entry entry) {
+        if (SyncOutbox.isDelete(entry.op)) {
+            return CloudSyncGateway.Write.delete(entry.path);
+        } else if (SyncOutbox.OP_MERGE.equals(entry.op)) {
+            return CloudSyncGateway.Write.merge(entry.path, entry.fields);
+        } else {
+            return CloudSyncGateway.Write.set(entry.path, entry.fields);
+        }
+    }
+
+    /**
+     * Rebuilds and sends the schedule documents of the weeks marked dirty. A failed batch
+     * leaves its weeks marked; they are sent with the next drain.
+     */
+    private void sendWeeklySchedules() {
+        while (!paused) {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            List<WeeklySchedules.DirtyWeek> weeks = WeeklySchedules.loadDirty(db, BATCH_SIZE);
+            if (weeks.isEmpty()) return;
+
+            List<CloudSyncGateway.Write> writes = new ArrayList<>();
+            for (WeeklySchedules.DirtyWeek week : weeks) {
+                writes.add(WeeklySchedules.buildWrite(db, week.weekStart));
+            }
+            try {
+                Tasks.await(gateway.commit(writes), COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                write(() -> WeeklySchedules.markSent(dbHelper.getWritableDatabase(), weeks));
+            } catch (ExecutionException | TimeoutException e) {
+                deferred(e);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * If the gateway did not send the batch because its circuit is open or the device is offline,
+     * puts the drain off: until the circuit lets a trial through, or until the connection comes
+     * back, which requests a drain itself. Nothing was sent, so nothing counts as a failed attempt.
+     * @return Whether the batch was not sent for either reason.
+     */
+    private boolean deferred(Exception e) {
+        if (e.getCause() instanceof ResilientSyncGateway.OfflineException) return true;
+        if (!(e.getCause() instanceof ResilientSyncGateway.CircuitOpenException)) return false;
+        scheduleDrain(((ResilientSyncGateway.CircuitOpenException) e.getCause()).getRetryAfterMs());
+        return true;
+    }
+
+    /**
+     * Runs an outbox update on the database write thread and waits for it, so it is ordered
+     * with the repository writes that enqueue entries.
+     */
+    private void write(Runnable update) {
+        try {
+            executors.diskWrite().submit(update).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
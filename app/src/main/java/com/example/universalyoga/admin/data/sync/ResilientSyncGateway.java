@@ -0,0 +1,291 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.example.universalyoga.admin.data.ConnectivityMonitor;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps a CloudSyncGateway so a passing failure of the backend does not fail the operation.
+ * Operations are not tried while the device is offline; they fail at once with OfflineException.
+ * Each attempt gets ATTEMPT_TIMEOUT_MS to complete. An attempt that fails transiently (the
+ * backend is unavailable, overloaded or too slow) is tried again after an exponential backoff
+ * with full jitter, up to MAX_ATTEMPTS in all; other failures, such as a rejected write, are
+ * passed on at once. A commit is only tried again when the backend reported that it did not
+ * apply it (see isSafeToResend()): one that timed out may still be applied, and sending it
+ * again could land it after writes sent since. A circuit breaker counts consecutive transient
+ * failures across all operations: after FAILURE_THRESHOLD of them it opens for OPEN_MS, during
+ * which operations fail at once with CircuitOpenException instead of adding to the load. After
+ * that the next operation goes through as a trial; success closes the circuit, failure opens it again.
+ * The app shares one instance, so every sync path sees the same circuit.
+ */
+public class ResilientSyncGateway implements CloudSyncGateway {
+
+    static final int MAX_ATTEMPTS = 4;
+    static final long ATTEMPT_TIMEOUT_MS = 20_000;
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 8_000;
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MS = 60_000;
+
+    /**
+     * How long an operation can take in the worst case, all attempts and backoffs included.
+     * Callers waiting for an operation wait at least this long.
+     */
+    public static final long MAX_OPERATION_MS = MAX_ATTEMPTS * ATTEMPT_TIMEOUT_MS
+            + (MAX_ATTEMPTS - 1) * MAX_BACKOFF_MS;
+
+    /**
+     * The failure of an operation that was not tried because the circuit is open.
+     */
+    public static final class CircuitOpenException extends Exception {
+        private final long retryAfterMs;
+
+        CircuitOpenException(long retryAfterMs) {
+            super("Cloud unavailable, not retrying for " + retryAfterMs + " ms");
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        /**
+         * Returns how long until the circuit lets a trial operation through.
+         */
+        public long getRetryAfterMs() {
+            return retryAfterMs;
+        }
+    }
+
+    /**
+     * The failure of an operation that was not tried because the device is offline.
+     */
+    public static final class OfflineException extends Exception {
+        OfflineException() {
+            super("Device is offline");
+        }
+    }
+
+    /**
+     * An operation on the wrapped gateway, started once per attempt.
+     */
+    private interface Operation<T> {
+        Task<T> start();
+
+        /**
+         * Returns whether the operation may be started again after it failed transiently with e.
+         */
+        boolean mayRetry(Exception e);
+    }
+
+    private static volatile ResilientSyncGateway instance;
+
+    private final CloudSyncGateway delegate;
+    private final ConnectivityMonitor connectivity;
+    private final Random random;
+    // Backoffs and timeouts only schedule work, so one thread serves all operations.
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "sync-retry"));
+    private int consecutiveFailures;
+    private long openUntil;
+
+    /**
+     * Returns the gateway to Cloud Firestore that the app's sync paths share.
+     */
+    public static ResilientSyncGateway getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ResilientSyncGateway.class) {
+                if (instance == null) {
+                    instance = new ResilientSyncGateway(new FirestoreSyncGateway(FirebaseFirestore.getInstance()),
+                            ConnectivityMonitor.getInstance(context), new Random());
+                }
+            }
+        }
+        return instance;
+    }
+
+    ResilientSyncGateway(CloudSyncGateway delegate, ConnectivityMonitor connectivity, Random random) {
+        this.delegate = delegate;
+        this.connectivity = connectivity;
+        this.random = random;
+    }
+
+    @Override
+    public Task<Void> commit(List<Write> writes) {
+        return call(new Operation<Void>() {
+            @Override
+            public Task<Void> start() {
+                return delegate.commit(writes);
+            }
+
+            @Override
+            public boolean mayRetry(Exception e) {
+                return isSafeToResend(e);
+            }
+        });
+    }
+
+    @Override
+    public Task<List<String>> listDocuments(String collectionPath, @Nullable String startAfterId, int limit) {
+        return call(new Operation<List<String>>() {
+            @Override
+            public Task<List<String>> start() {
+                return delegate.listDocuments(collectionPath, startAfterId, limit);
+            }
+
+            @Override
+            public boolean mayRetry(Exception e) {
+                // A read changes nothing, so it can be repeated whatever happened to the last one.
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Returns how long until the circuit lets operations through again, or 0 if it is closed.
+     */
+    public synchronized long retryAfterMs() {
+        return Math.max(0, openUntil - SystemClock.elapsedRealtime());
+    }
+
+    private <T> Task<T> call(Operation<T> operation) {
+        TaskCompletionSource<T> result = new TaskCompletionSource<>();
+        attempt(operation, 1, result);
+        return result.getTask();
+    }
+
+    private <T> void attempt(Operation<T> operation, int attempt, TaskCompletionSource<T> result) {
+        if (!connectivity.isOnline()) {
+            // Nothing was sent, so the backend's health is not in question.
+            result.setException(new OfflineException());
+            return;
+        }
+        long retryAfter = retryAfterMs();
+        if (retryAfter > 0) {
+            result.setException(new CircuitOpenException(retryAfter));
+            return;
+        }
+        Task<T> task;
+        try {
+            task = operation.start();
+        } catch (RuntimeException e) {
+            // A malformed request fails the same way on every attempt.
+            result.setException(e);
+            return;
+        }
+        // Whichever comes first, the outcome or the timeout, settles the attempt.
+        AtomicBoolean settled = new AtomicBoolean();
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (settled.compareAndSet(false, true)) {
+                onFailure(operation, attempt, result,
+                        new TimeoutException("No response within " + ATTEMPT_TIMEOUT_MS + " ms"));
+            }
+        }, ATTEMPT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        task.addOnCompleteListener(Runnable::run, completed -> {
+            if (!settled.compareAndSet(false, true)) return;
+            timeout.cancel(false);
+            if (completed.isSuccessful()) {
+                recordSuccess();
+                result.setResult(completed.getResult());
+            } else {
+                onFailure(operation, attempt, result, completed.getException());
+            }
+        });
+    }
+
+    private <T> void onFailure(Operation<T> operation, int attempt, TaskCompletionSource<T> result, Exception e) {
+        if (!isTransient(e)) {
+            // The backend answered, it just refused; that says nothing against its health.
+            recordSuccess();
+            result.setException(e);
+            return;
+        }
+        recordFailure();
+        if (attempt >= MAX_ATTEMPTS || !operation.mayRetry(e)) {
+            result.setException(e);
+            return;
+        }
+        timer.schedule(() -> attempt(operation, attempt + 1, result), backoffMs(attempt), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a random delay of up to backoffCeilingMs(). The randomness keeps clients that
+     * failed together from retrying together.
+     */
+    private long backoffMs(int attempts) {
+        long ceiling = backoffCeilingMs(attempts);
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    /**
+     * Returns the longest delay before the next attempt: BASE_BACKOFF_MS doubled for each
+     * attempt made after the first, capped at MAX_BACKOFF_MS.
+     */
+    static long backoffCeilingMs(int attempts) {
+        return Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempts - 1, 16));
+    }
+
+    private synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        openUntil = 0;
+    }
+
+    private synchronized void recordFailure() {
+        consecutiveFailures++;
+        // Past the threshold, a failed trial after the open period opens the circuit again at once.
+        if (consecutiveFailures >= FAILURE_THRESHOLD) {
+            openUntil = SystemClock.elapsedRealtime() + OPEN_MS;
+        }
+    }
+
+    /**
+     * Returns whether the failure may pass if the operation is tried again.
+     */
+    static boolean isTransient(@Nullable Exception e) {
+        if (e instanceof TimeoutException || e instanceof IOException) return true;
+        if (!(e instanceof FirebaseFirestoreException)) return false;
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether the backend reported that it did not apply a write, so sending it again
+     * cannot apply it twice or out of order. A timeout, or a deadline or internal error on
+     * the backend, leaves open whether the write was applied.
+     */
+    static boolean isSafeToResend(@Nullable Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) return false;
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case UNAVAILABLE:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.universalyoga.admin.data.AppExecutors;
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+import com.example.universalyoga.admin.data.repository.RepositoryCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads the local schedule to the cloud, through a CloudSyncGateway.
+ * Only what changed since the last successful upload is sent: the triggers installed by
+ * DatabaseHelper stamp every course and instance change with the change clock and record every
+ * deletion as a tombstone, and the clock value an upload covered is kept as its high-water mark.
+ *
+ * An upload is a two-stage pipeline. The reader walks the changed courses and instances in pages
+ * of PAGE_ROWS, each starting after the key of the last row read, then the tombstones, turning
+ * each row into a document write. Keyset pages never skip or repeat a row when other rows change
+ * between pages, which an OFFSET-based cursor refill would. The
+ * committer packs the writes into batches of BATCH_SIZE and keeps up to MAX_CONCURRENT_COMMITS
+ * of them in flight. A bounded queue between the stages keeps the reader only a few batches
+ * ahead, so memory use does not grow with the number of changes. The app's gateway retries a
+ * batch that fails transiently (see ResilientSyncGateway); if one still fails, the upload stops
+ * without moving the high-water mark, so its changes stay parked for the next upload.
+ *
+ * The outbox (see OutboxDispatcher) sends the same rows as they are edited. An upload skips
+ * every row and tombstone whose document has an entry in the outbox, which sends it instead,
+ * and holds SyncOutbox.SEND_LOCK while it runs, so the two never send one document at the
+ * same time and the newer copy always lands last.
+ */
+public class ScheduleUploader {
+
+    /**
+     * Receives the number of documents the cloud has accepted so far, on the main thread.
+     */
+    public interface ProgressListener {
+        void onProgress(int documentsWritten, int totalChanges);
+    }
+
+    /**
+     * A running upload, which the caller can stop.
+     */
+    public static final class Upload {
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        /**
+         * Stops the upload after the batches already sent. The high-water mark is not moved,
+         * so the next upload sends all changes again.
+         */
+        public void cancel() {
+            cancelled.set(true);
+        }
+    }
+
+    private static final int BATCH_SIZE = CloudSyncGateway.MAX_BATCH_SIZE;
+    private static final int MAX_CONCURRENT_COMMITS = 4;
+    private static final int QUEUE_CAPACITY = BATCH_SIZE * 2;
+    // Longer than a commit can take with all its retries, see ResilientSyncGateway.MAX_OPERATION_MS.
+    private static final long COMMIT_TIMEOUT_SECONDS = 120;
+    // Rows of the change query read per page.
+    private static final int PAGE_ROWS = BATCH_SIZE;
+
+    // Columns of the change query, in order.
+    private static final int COURSE_ID = 0, COURSE_UPDATED_AT = 1, DAY_OF_WEEK = 2, TIME = 3, CAPACITY = 4,
+            DURATION = 5, PRICE = 6, TYPE = 7, DESCRIPTION = 8, INSTANCE_ID = 9, DATE = 10, TEACHER = 11,
+            COMMENTS = 12, COURSE_CLOUD_ID = 13, INSTANCE_CLOUD_ID = 14;
+
+    // Marks the end of the writes in the queue.
+    private static final CloudSyncGateway.Write END = CloudSyncGateway.Write.delete(null);
+
+    private static volatile ScheduleUploader instance;
+
+    private final DatabaseHelper dbHelper;
+    private final AppExecutors executors;
+    private final CloudSyncGateway gateway;
+    // The reader runs on one thread and the committer on another; both block, on SQLite and the cloud.
+    private final ExecutorService uploadThread =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "sync-upload"));
+    private final ExecutorService commitThread =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "sync-commit"));
+    // The upload the upload thread is running, if any.
+    private final AtomicReference<Upload> running = new AtomicReference<>();
+
+    public static ScheduleUploader getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ScheduleUploader.class) {
+                if (instance == null) {
+                    instance = new ScheduleUploader(DatabaseHelper.getInstance(context), AppExecutors.get(),
+                            ResilientSyncGateway.getInstance(context));
+                }
+            }
+        }
+        return instance;
+    }
+
+    ScheduleUploader(DatabaseHelper dbHelper, AppExecutors executors, CloudSyncGateway gateway) {
+        this.dbHelper = dbHelper;
+        this.executors = executors;
+        this.gateway = gateway;
+    }
+
+    /**
+     * Uploads the courses and instances changed, and deletes the documents of those deleted,
+     * since the last successful upload, then delivers the result.
+     * Uploads run one at a time; one requested while another runs starts when it ends.
+     * @return The upload, which can be cancelled.
+     */
+    public Upload uploadChanges(ProgressListener progress, RepositoryCallback<UploadResult> callback) {
+        Upload upload = new Upload();
+        uploadThread.execute(() -> {
+            running.set(upload);
+            UploadResult result;
+            SyncOutbox.SEND_LOCK.lock();
+            try {
+                result = upload(upload, progress);
+            } catch (RuntimeException e) {
+                result = UploadResult.failed(0, 0, e.getMessage());
+            } finally {
+                SyncOutbox.SEND_LOCK.unlock();
+                running.set(null);
+            }
+            UploadResult delivered = result;
+            executors.mainThread().execute(() -> callback.onResult(delivered));
+        });
+        return upload;
+    }
+
+    /**
+     * Cancels the running upload, waits for it to stop, and keeps further uploads from starting
+     * until the returned release is run, so nothing reads the changes meanwhile.
+     * Must not be called on the database write thread, which a running upload may wait for.
+     */
+    public Runnable pause() throws InterruptedException {
+        Upload upload = running.get();
+        if (upload != null) upload.cancel();
+        return AppExecutors.holdThread(uploadThread);
+    }
+
+    private UploadResult upload(Upload upload, ProgressListener progress) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        long since = SyncState.get(db, DatabaseHelper.STATE_UPLOADED_THROUGH);
+        // Changes stamped after this point are left for the next upload, even if they are
+        // committed while this one reads, so the high-water mark never skips a change.
+        long through = SyncState.get(db, DatabaseHelper.STATE_CLOCK);
+        String[] range = {String.valueOf(since), String.valueOf(through)};
+        int total = countChanges(db, range);
+        if (total == 0) return UploadResult.completed(0);
+
+        Committer committer = new Committer(upload, progress, total);
+        Future<?> committing = commitThread.submit(committer);
+        try {
+            readChanges(db, range, since, through, committer);
+        } finally {
+            // The committer consumes everything up to END, even after it stopped committing,
+            // so the reader can never block on a full queue.
+            putUninterruptibly(committer.queue, END);
+        }
+        try {
+            committing.get();
+        } catch (ExecutionException e) {
+            committer.fail(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            committer.fail(e);
+        }
+
+        int written = committer.written.get();
+        Throwable failure = committer.failure.get();
+        if (failure != null) return UploadResult.failed(written, total, failure.getMessage());
+        if (upload.cancelled.get()) return UploadResult.cancelled(written, total);
+
+        // Everything up to the mark is in the cloud now: move the mark and forget the uploaded deletions.
+        try {
+            executors.diskWrite().submit(() -> {
+                SQLiteDatabase writable = dbHelper.getWritableDatabase();
+                writable.beginTransaction();
+                try {
+                    SyncState.put(writable, DatabaseHelper.STATE_UPLOADED_THROUGH, through);
+                    writable.delete(DatabaseHelper.TABLE_TOMBSTONES, DatabaseHelper.COLUMN_TOMBSTONE_DELETED_AT + " <= ?",
+                            new String[]{String.valueOf(through)});
+                    writable.setTransactionSuccessful();
+                } finally {
+                    writable.endTransaction();
+                }
+            }).get();
+        } catch (ExecutionException | InterruptedException e) {
+            return UploadResult.failed(written, total, "The upload could not be recorded");
+        }
+        return UploadResult.completed(written);
+    }
+
+    private static int countChanges(SQLiteDatabase db, String[] range) {
+        String[] args = {range[0], range[1], range[0], range[1], range[0], range[1]};
+        return (int) DatabaseUtils.longForQuery(db, "SELECT" +
+                " (SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_COURSES + " WHERE " +
+                DatabaseHelper.COLUMN_COURSE_UPDATED_AT + " > ? AND " + DatabaseHelper.COLUMN_COURSE_UPDATED_AT + " <= ?)" +
+                " + (SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_INSTANCES + " WHERE " +
+                DatabaseHelper.COLUMN_INSTANCE_UPDATED_AT + " > ? AND " + DatabaseHelper.COLUMN_INSTANCE_UPDATED_AT + " <= ?)" +
+                // A tombstone is sent as the delete and its deletion marker.
+                " + 2 * (SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_TOMBSTONES + " WHERE " +
+                DatabaseHelper.COLUMN_TOMBSTONE_DELETED_AT + " > ? AND " + DatabaseHelper.COLUMN_TOMBSTONE_DELETED_AT + " <= ?)",
+                args);
+    }
+
+    /**
+     * The reader stage: turns every changed row and tombstone into a document write for the
+     * committer, except those whose document the outbox will write.
+     */
+    private static void readChanges(SQLiteDatabase db, String[] range, long since, long through, Committer committer) {
+        SQLiteStatement queued = db.compileStatement("SELECT EXISTS (SELECT 1 FROM " + DatabaseHelper.TABLE_OUTBOX +
+                " WHERE " + DatabaseHelper.COLUMN_OUTBOX_PATH + " = ?)");
+        try {
+            readChanges(db, range, since, through, committer, queued);
+        } finally {
+            queued.close();
+        }
+    }
+
+    private static void readChanges(SQLiteDatabase db, String[] range, long since, long through, Committer committer,
+                                    SQLiteStatement queued) {
+        // A row edited or deleted while the pages are read is stamped after `through`, so it
+        // drops out of the range and goes with the next upload; the keys of the rest stay put.
+        long afterCourseId = 0;
+        long afterInstanceId = 0;
+        long currentCourseId = -1;
+        int rows = PAGE_ROWS;
+        while (rows == PAGE_ROWS && !committer.stopped()) {
+            rows = 0;
+            Cursor cursor = db.rawQuery(buildChangeQuery(), new String[]{range[0], range[1], range[0], range[1],
+                    String.valueOf(afterCourseId), String.valueOf(afterCourseId), String.valueOf(afterInstanceId),
+                    String.valueOf(PAGE_ROWS)});
+            try {
+                while (cursor.moveToNext() && !committer.stopped()) {
+                    rows++;
+                    long courseId = cursor.getLong(COURSE_ID);
+                    afterCourseId = courseId;
+                    // A course listed without instances has no other rows, so the next page skips it.
+                    afterInstanceId = cursor.isNull(INSTANCE_ID) ? Long.MAX_VALUE : cursor.getLong(INSTANCE_ID);
+                    putChange(cursor, courseId != currentCourseId, since, through, committer, queued);
+                    currentCourseId = courseId;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Cursor tombstones = db.rawQuery(buildTombstoneQuery(), range);
+        try {
+            while (tombstones.moveToNext() && !committer.stopped()) {
+                if (tombstones.isNull(0)) continue; // Its course's cloud id is no longer known.
+                String path = tombstones.isNull(1)
+                        ? CloudDocuments.coursePath(tombstones.getString(0))
+                        : CloudDocuments.instancePath(tombstones.getString(0), tombstones.getString(1));
+                if (isQueued(queued, path)) continue;
+                committer.put(CloudSyncGateway.Write.delete(path));
+                committer.put(CloudSyncGateway.Write.set(CloudDocuments.deletionPath(path),
+                        CloudDocuments.deletionFields(path)));
+            }
+        } finally {
+            tombstones.close();
+        }
+    }
+
+    /**
+     * Queues the writes of one row of the change query: the course's, on the first row of a
+     * course that changed itself, and the instance's, if the row has one.
+     */
+    private static void putChange(Cursor cursor, boolean firstOfCourse, long since, long through, Committer committer,
+                                  SQLiteStatement queued) {
+        String courseCloudId = cursor.getString(COURSE_CLOUD_ID);
+        if (firstOfCourse) {
+            // A course is only listed because of its changed instances unless it changed itself.
+            long updatedAt = cursor.getLong(COURSE_UPDATED_AT);
+            String coursePath = CloudDocuments.coursePath(courseCloudId);
+            if (updatedAt > since && updatedAt <= through && !isQueued(queued, coursePath)) {
+                committer.put(CloudSyncGateway.Write.set(coursePath,
+                        CloudDocuments.courseFields(cursor.getString(DAY_OF_WEEK), cursor.getString(TIME),
+                                cursor.getString(TYPE), cursor.getInt(CAPACITY), cursor.getInt(DURATION),
+                                cursor.getDouble(PRICE), cursor.getString(DESCRIPTION))));
+            }
+        }
+        if (cursor.isNull(INSTANCE_ID)) return;
+        String instancePath = CloudDocuments.instancePath(courseCloudId, cursor.getString(INSTANCE_CLOUD_ID));
+        if (isQueued(queued, instancePath)) return;
+        committer.put(CloudSyncGateway.Write.set(instancePath,
+                CloudDocuments.instanceFields(cursor.getLong(DATE), cursor.getString(TEACHER),
+                        cursor.getString(COMMENTS))));
+    }
+
+    /**
+     * Returns whether the outbox holds an entry for the document, pending or parked.
+     */
+    private static boolean isQueued(SQLiteStatement queued, String path) {
+        queued.bindString(1, path);
+        return queued.simpleQueryForLong() != 0;
+    }
+
+    /**
+     * Selects the changed courses and every course with changed instances, with those instances
+     * (a course without changed instances once, with NULL instance columns), ordered by course
+     * id and instance id, one page after the given (course id, instance id) key. The course id
+     * range is a rowid seek; only each course's own changed instances are sorted.
+     */
+    private static String buildChangeQuery() {
+        return "SELECT c." + DatabaseHelper.COLUMN_COURSE_ID + ", c." + DatabaseHelper.COLUMN_COURSE_UPDATED_AT +
+                ", c." + DatabaseHelper.COLUMN_COURSE_DAY_OF_WEEK + ", c." + DatabaseHelper.COLUMN_COURSE_TIME +
+                ", c." + DatabaseHelper.COLUMN_COURSE_CAPACITY + ", c." + DatabaseHelper.COLUMN_COURSE_DURATION +
+                ", c." + DatabaseHelper.COLUMN_COURSE_PRICE + ", c." + DatabaseHelper.COLUMN_COURSE_TYPE +
+                ", c." + DatabaseHelper.COLUMN_COURSE_DESCRIPTION + ", i." + DatabaseHelper.COLUMN_INSTANCE_ID +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_DATE + ", i." + DatabaseHelper.COLUMN_INSTANCE_TEACHER +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_COMMENTS + ", c." + DatabaseHelper.COLUMN_COURSE_CLOUD_ID +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID +
+                " FROM " + DatabaseHelper.TABLE_COURSES + " c" +
+                " LEFT JOIN " + DatabaseHelper.TABLE_INSTANCES + " i ON i." + DatabaseHelper.COLUMN_INSTANCE_COURSE_ID +
+                " = c." + DatabaseHelper.COLUMN_COURSE_ID +
+                " AND i." + DatabaseHelper.COLUMN_INSTANCE_UPDATED_AT + " > ? AND i." +
+                DatabaseHelper.COLUMN_INSTANCE_UPDATED_AT + " <= ?" +
+                " WHERE ((c." + DatabaseHelper.COLUMN_COURSE_UPDATED_AT + " > ? AND c." +
+                DatabaseHelper.COLUMN_COURSE_UPDATED_AT + " <= ?) OR i." + DatabaseHelper.COLUMN_INSTANCE_ID + " IS NOT NULL)" +
+                " AND c." + DatabaseHelper.COLUMN_COURSE_ID + " >= ?" +
+                " AND (c." + DatabaseHelper.COLUMN_COURSE_ID + " > ? OR i." + DatabaseHelper.COLUMN_INSTANCE_ID + " > ?)" +
+                " ORDER BY c." + DatabaseHelper.COLUMN_COURSE_ID + ", i." + DatabaseHelper.COLUMN_INSTANCE_ID +
+                " LIMIT ?";
+    }
+
+    /**
+     * Selects the tombstones in the range as the cloud id of the course and, for an instance,
+     * of the instance. The course of a deleted instance may be gone too, in which case its
+     * cloud id is read from the course's own tombstone; local course ids are never reused.
+     */
+    private static String buildTombstoneQuery() {
+        return "SELECT CASE WHEN t." + DatabaseHelper.COLUMN_TOMBSTONE_INSTANCE_ID + " IS NULL THEN t." +
+                DatabaseHelper.COLUMN_TOMBSTONE_CLOUD_ID + " ELSE IFNULL(" +
+                "(SELECT c." + DatabaseHelper.COLUMN_COURSE_CLOUD_ID + " FROM " + DatabaseHelper.TABLE_COURSES +
+                " c WHERE c." + DatabaseHelper.COLUMN_COURSE_ID + " = t." + DatabaseHelper.COLUMN_TOMBSTONE_COURSE_ID + "), " +
+                "(SELECT ct." + DatabaseHelper.COLUMN_TOMBSTONE_CLOUD_ID + " FROM " + DatabaseHelper.TABLE_TOMBSTONES +
+                " ct WHERE ct." + DatabaseHelper.COLUMN_TOMBSTONE_COURSE_ID + " = t." + DatabaseHelper.COLUMN_TOMBSTONE_COURSE_ID +
+                " AND ct." + DatabaseHelper.COLUMN_TOMBSTONE_INSTANCE_ID + " IS NULL)) END" +
+                ", CASE WHEN t." + DatabaseHelper.COLUMN_TOMBSTONE_INSTANCE_ID + " IS NOT NULL THEN t." +
+                DatabaseHelper.COLUMN_TOMBSTONE_CLOUD_ID + " END" +
+                " FROM " + DatabaseHelper.TABLE_TOMBSTONES + " t" +
+                " WHERE t." + DatabaseHelper.COLUMN_TOMBSTONE_DELETED_AT + " > ? AND t." +
+                DatabaseHelper.COLUMN_TOMBSTONE_DELETED_AT + " <= ?";
+    }
+
+    private static void putUninterruptibly(BlockingQueue<CloudSyncGateway.Write> queue, CloudSyncGateway.Write write) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(write);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * The committer stage: packs the queued writes into batches and commits them concurrently.
+     * Every document appears at most once per upload, so the order in which the batches
+     * complete does not matter.
+     */
+    private final class Committer implements Runnable {
+        final BlockingQueue<CloudSyncGateway.Write> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final Semaphore inFlight = new Semaphore(MAX_CONCURRENT_COMMITS);
+        private final Upload upload;
+        private final ProgressListener progress;
+        private final int total;
+
+        Committer(Upload upload, ProgressListener progress, int total) {
+            this.upload = upload;
+            this.progress = progress;
+            this.total = total;
+        }
+
+        boolean stopped() {
+            return upload.cancelled.get() || failure.get() != null;
+        }
+
+        void fail(Throwable cause) {
+            failure.compareAndSet(null, cause);
+        }
+
+        void put(CloudSyncGateway.Write write) {
+            putUninterruptibly(queue, write);
+        }
+
+        @Override
+        public void run() {
+            List<CloudSyncGateway.Write> batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                CloudSyncGateway.Write write;
+                while ((write = queue.take()) != END) {
+                    if (stopped()) continue; // Drain the queue so the reader is never stuck
+                    batch.add(write);
+                    if (batch.size() == BATCH_SIZE) {
+                        commit(batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty() && !stopped()) commit(batch);
+                // Wait for the batches still in flight.
+                if (!inFlight.tryAcquire(MAX_CONCURRENT_COMMITS, COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    fail(new IllegalStateException("The upload timed out"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+
+        private void commit(List<CloudSyncGateway.Write> batch) throws InterruptedException {
+            if (!inFlight.tryAcquire(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                fail(new IllegalStateException("The upload timed out"));
+                return;
+            }
+            // Completion runs on the thread that finished the commit, not the main thread.
+            gateway.commit(batch).addOnCompleteListener(Runnable::run, task -> {
+                if (task.isSuccessful()) {
+                    int done = written.addAndGet(batch.size());
+                    executors.mainThread().execute(() -> progress.onProgress(done, total));
+                } else {
+                    fail(task.getException());
+                }
+                inFlight.release();
+            });
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads and writes the sync_outbox table, the durable queue of cloud writes still to be sent.
+ * Repositories enqueue an entry inside the transaction of the local write it mirrors, so a
+ * change is either saved together with its pending cloud write or not at all, whatever the
+ * network is doing. OutboxDispatcher sends the entries and removes them.
+ * All methods run on the calling thread.
+ */
+public final class SyncOutbox {
+
+    /**
+     * Held by OutboxDispatcher while it drains and by ScheduleUploader while it uploads. Both
+     * send writes to the same documents, and without an order between them an older copy of a
+     * row could land after a newer one.
+     */
+    static final ReentrantLock SEND_LOCK = new ReentrantLock();
+
+    public static final String OP_SET = "set";
+    public static final String OP_MERGE = "merge";
+    public static final String OP_DELETE = "delete";
+    // Deletes a document and the documents of its subcollections, see CloudDeleter.
+    public static final String OP_DELETE_TREE = "delete_tree";
+
+    static final String STATUS_PENDING = "pending";
+    static final String STATUS_FAILED = "failed";
+
+    /**
+     * A queued cloud write.
+     */
+    static final class Entry {
+        final long id;
+        final String op;
+        final String path;
+        final Map<String, Object> fields; // null for deletes
+        final int attempts;
+
+        Entry(long id, String op, String path, Map<String, Object> fields, int attempts) {
+            this.id = id;
+            this.op = op;
+            this.path = path;
+            this.fields = fields;
+            this.attempts = attempts;
+        }
+    }
+
+    private SyncOutbox() {
+    }
+
+    /**
+     * Queues a write of the whole document at the given path.
+     */
+    public static void enqueueSet(SQLiteDatabase db, String path, Map<String, Object> fields) {
+        enqueue(db, OP_SET, path, encode(fields));
+    }
+
+    /**
+     * Queues a write of some fields of the document at the given path, leaving its other fields as they are.
+     */
+    public static void enqueueMerge(SQLiteDatabase db, String path, Map<String, Object> fields) {
+        enqueue(db, OP_MERGE, path, encode(fields));
+    }
+
+    /**
+     * Queues the deletion of the document at the given path.
+     */
+    public static void enqueueDelete(SQLiteDatabase db, String path) {
+        enqueue(db, OP_DELETE, path, null);
+    }
+
+    /**
+     * Queues the deletion of the document at the given path together with every document in
+     * its subcollections.
+     */
+    public static void enqueueDeleteTree(SQLiteDatabase db, String path) {
+        enqueue(db, OP_DELETE_TREE, path, null);
+    }
+
+    private static void enqueue(SQLiteDatabase db, String op, String path, String payload) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_OUTBOX_OP, op);
+        values.put(DatabaseHelper.COLUMN_OUTBOX_PATH, path);
+        values.put(DatabaseHelper.COLUMN_OUTBOX_PAYLOAD, payload);
+        values.put(DatabaseHelper.COLUMN_OUTBOX_STATUS, STATUS_PENDING);
+        values.put(DatabaseHelper.COLUMN_OUTBOX_CREATED_AT, System.currentTimeMillis());
+        db.insertOrThrow(DatabaseHelper.TABLE_OUTBOX, null, values);
+    }
+
+    /**
+     * Loads the oldest pending entries, in the order they were queued.
+     */
+    static List<Entry> loadPending(SQLiteDatabase db, int limit) {
+        List<Entry> entries = new ArrayList<>();
+        String[] projection = {
+                DatabaseHelper.COLUMN_OUTBOX_ID,
+                DatabaseHelper.COLUMN_OUTBOX_OP,
+                DatabaseHelper.COLUMN_OUTBOX_PATH,
+                DatabaseHelper.COLUMN_OUTBOX_PAYLOAD,
+                DatabaseHelper.COLUMN_OUTBOX_ATTEMPTS
+        };
+        Cursor cursor = db.query(DatabaseHelper.TABLE_OUTBOX, projection,
+                DatabaseHelper.COLUMN_OUTBOX_STATUS + " = ?", new String[]{STATUS_PENDING},
+                null, null, DatabaseHelper.COLUMN_OUTBOX_ID, String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                Map<String, Object> fields = cursor.isNull(3) ? null : decode(cursor.getString(3));
+                entries.add(new Entry(cursor.getLong(0), cursor.getString(1), cursor.getString(2), fields,
+                        cursor.getInt(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Collapses the entries for the same document into one write with the same effect, so each
+     * document is written once however often it was edited. A whole-document write or a delete
+     * replaces whatever came before it; a merge is folded into the write before it, which
+     * keeps its kind (a delete followed by a merge becomes a merge). A tree delete also drops
+     * the writes queued before it to documents below it, which it deletes anyway.
+     * @param entries Entries in the order they were queued.
+     * @return One entry per document path, in the order the paths were first written.
+     */
+    static List<Entry> coalesce(List<Entry> entries) {
+        Map<String, Entry> latest = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (OP_DELETE_TREE.equals(entry.op)) {
+                String below = entry.path + "/";
+                latest.keySet().removeIf(path -> path.startsWith(below));
+            }
+            Entry previous = latest.get(entry.path);
+            if (previous != null && OP_MERGE.equals(entry.op) && !isDelete(previous.op)) {
+                Map<String, Object> fields = new HashMap<>(previous.fields);
+                fields.putAll(entry.fields);
+                entry = new Entry(entry.id, previous.op, entry.path, fields, entry.attempts);
+            }
+            latest.put(entry.path, entry);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    static boolean isDelete(String op) {
+        return OP_DELETE.equals(op) || OP_DELETE_TREE.equals(op);
+    }
+
+    /**
+     * Removes entries that the cloud has accepted.
+     */
+    static void remove(SQLiteDatabase db, List<Entry> entries) {
+        db.beginTransaction();
+        try {
+            for (Entry entry : entries) {
+                db.delete(DatabaseHelper.TABLE_OUTBOX, DatabaseHelper.COLUMN_OUTBOX_ID + " = ?",
+                        new String[]{String.valueOf(entry.id)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Drops every queued entry, pending or failed.
+     */
+    public static void clear(SQLiteDatabase db) {
+        db.delete(DatabaseHelper.TABLE_OUTBOX, null, null);
+    }
+
+    /**
+     * Records a failed attempt to send the entries. An entry that has used up its attempts is
+     * marked failed and parked: it is no longer sent, so one rejected write cannot hold up the
+     * queue forever, but it is kept until unpark() gives it another round of attempts.
+     */
+    static void recordFailure(SQLiteDatabase db, List<Entry> entries, String error, int maxAttempts) {
+        db.beginTransaction();
+        try {
+            for (Entry entry : entries) {
+                int attempts = entry.attempts + 1;
+                ContentValues values = new ContentValues();
+                values.put(DatabaseHelper.COLUMN_OUTBOX_ATTEMPTS, attempts);
+                values.put(DatabaseHelper.COLUMN_OUTBOX_LAST_ERROR, error);
+                values.put(DatabaseHelper.COLUMN_OUTBOX_STATUS, attempts >= maxAttempts ? STATUS_FAILED : STATUS_PENDING);
+                db.update(DatabaseHelper.TABLE_OUTBOX, values, DatabaseHelper.COLUMN_OUTBOX_ID + " = ?",
+                        new String[]{String.valueOf(entry.id)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Parks entries whose write the cloud rejected, recording the error. A rejected write
+     * fails the same way on every attempt, so it is not sent again until unpark().
+     */
+    static void park(SQLiteDatabase db, List<Entry> entries, String error) {
+        // No attempt count is below a limit of 0, so every entry is marked failed.
+        recordFailure(db, entries, error, 0);
+    }
+
+    /**
+     * Queues the parked entries again, with their attempts reset, in their original order.
+     * @return The number of entries queued again.
+     */
+    static int unpark(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_OUTBOX_STATUS, STATUS_PENDING);
+        values.put(DatabaseHelper.COLUMN_OUTBOX_ATTEMPTS, 0);
+        return db.update(DatabaseHelper.TABLE_OUTBOX, values, DatabaseHelper.COLUMN_OUTBOX_STATUS + " = ?",
+                new String[]{STATUS_FAILED});
+    }
+
+    /**
+     * Writes document fields as a JSON object. Numbers keep their written form, so a price of
+     * 12.0 stays a double and a capacity of 12 stays an integer when decoded.
+     */
+    static String encode(Map<String, Object> fields) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject();
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                json.name(field.getKey());
+                Object value = field.getValue();
+                if (value == null) {
+                    json.nullValue();
+                } else if (value instanceof Number) {
+                    json.value((Number) value);
+                } else if (value instanceof Boolean) {
+                    json.value((Boolean) value);
+                } else {
+                    json.value(value.toString());
+                }
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // A StringWriter does not throw
+        }
+        return out.toString();
+    }
+
+    static Map<String, Object> decode(String payload) {
+        Map<String, Object> fields = new HashMap<>();
+        try (JsonReader json = new JsonReader(new StringReader(payload))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                JsonToken token = json.peek();
+                if (token == JsonToken.NULL) {
+                    json.nextNull();
+                    fields.put(name, null);
+                } else if (token == JsonToken.BOOLEAN) {
+                    fields.put(name, json.nextBoolean());
+                } else if (token == JsonToken.NUMBER) {
+                    String number = json.nextString();
+                    boolean integral = number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+                    fields.put(name, integral ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number));
+                } else {
+                    fields.put(name, json.nextString());
+                }
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt outbox payload", e);
+        }
+        return fields;
+    }
+}
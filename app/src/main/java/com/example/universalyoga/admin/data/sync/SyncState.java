@@ -0,0 +1,33 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+
+/**
+ * Reads and writes the sync_state key-value table (keys are the DatabaseHelper.STATE_* constants).
+ * All methods run on the calling thread.
+ */
+public final class SyncState {
+
+    private SyncState() {
+    }
+
+    /**
+     * Returns the value stored under the key, or 0 if there is none.
+     */
+    public static long get(SQLiteDatabase db, String key) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + DatabaseHelper.COLUMN_STATE_VALUE + "), 0)" +
+                " FROM " + DatabaseHelper.TABLE_SYNC_STATE + " WHERE " + DatabaseHelper.COLUMN_STATE_KEY + " = ?",
+                new String[]{key});
+    }
+
+    public static void put(SQLiteDatabase db, String key, long value) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_STATE_KEY, key);
+        values.put(DatabaseHelper.COLUMN_STATE_VALUE, value);
+        db.insertWithOnConflict(DatabaseHelper.TABLE_SYNC_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.universalyoga.admin.data.sync;
+
+/**
+ * The outcome of an upload of local changes to the cloud.
+ */
+public class UploadResult {
+    private final int documentsWritten;
+    private final int totalChanges;
+    private final boolean cancelled;
+    private final String failure; // Why the upload stopped, or null if it did not fail
+
+    private UploadResult(int documentsWritten, int totalChanges, boolean cancelled, String failure) {
+        this.documentsWritten = documentsWritten;
+        this.totalChanges = totalChanges;
+        this.cancelled = cancelled;
+        this.failure = failure;
+    }
+
+    static UploadResult completed(int documentsWritten) {
+        return new UploadResult(documentsWritten, documentsWritten, false, null);
+    }
+
+    /**
+     * Creates the result of an upload that was stopped by the user. The documents already
+     * written stay in the cloud; all changes are sent again with the next upload.
+     */
+    static UploadResult cancelled(int documentsWritten, int totalChanges) {
+        return new UploadResult(documentsWritten, totalChanges, true, null);
+    }
+
+    /**
+     * Creates the result of an upload that failed. As with a cancelled upload, the changes are
+     * sent again with the next upload.
+     */
+    static UploadResult failed(int documentsWritten, int totalChanges, String failure) {
+        return new UploadResult(documentsWritten, totalChanges, false, failure);
+    }
+
+    public int getDocumentsWritten() { return documentsWritten; }
+    public int getTotalChanges() { return totalChanges; }
+    public boolean isCancelled() { return cancelled; }
+    public String getFailure() { return failure; }
+    public boolean isSuccessful() { return !cancelled && failure == null; }
+}
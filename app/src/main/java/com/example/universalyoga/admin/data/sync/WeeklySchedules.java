@@ -0,0 +1,99 @@
+package com.example.universalyoga.admin.data.sync;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.universalyoga.admin.data.database.DatabaseHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the per-week schedule documents (see CloudDocuments.weekPath()) from the local
+ * database. Triggers mark the week of every changed class in sync_dirty_weeks; only those
+ * weeks are rebuilt and sent, each as one whole-document write, so a change costs one small
+ * write however large the schedule is. OutboxDispatcher sends them after the outbox.
+ * All methods run on the calling thread.
+ */
+final class WeeklySchedules {
+
+    /**
+     * A week whose document must be sent, as marked at the time it was read.
+     */
+    static final class DirtyWeek {
+        final long weekStart;
+        final long markedAt;
+
+        DirtyWeek(long weekStart, long markedAt) {
+            this.weekStart = weekStart;
+            this.markedAt = markedAt;
+        }
+    }
+
+    private WeeklySchedules() {
+    }
+
+    static List<DirtyWeek> loadDirty(SQLiteDatabase db, int limit) {
+        List<DirtyWeek> weeks = new ArrayList<>();
+        Cursor cursor = db.query(DatabaseHelper.TABLE_DIRTY_WEEKS,
+                new String[]{DatabaseHelper.COLUMN_DIRTY_WEEK_START, DatabaseHelper.COLUMN_DIRTY_WEEK_MARKED_AT},
+                null, null, null, null, DatabaseHelper.COLUMN_DIRTY_WEEK_START, String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                weeks.add(new DirtyWeek(cursor.getLong(0), cursor.getLong(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return weeks;
+    }
+
+    /**
+     * Builds the write that brings a week's document up to date: a set of all its classes,
+     * or a delete once the week has none left.
+     */
+    static CloudSyncGateway.Write buildWrite(SQLiteDatabase db, long weekStart) {
+        List<Map<String, Object>> classes = new ArrayList<>();
+        String sql = "SELECT i." + DatabaseHelper.COLUMN_INSTANCE_CLOUD_ID + ", c." + DatabaseHelper.COLUMN_COURSE_CLOUD_ID +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_DATE + ", c." + DatabaseHelper.COLUMN_COURSE_TIME +
+                ", c." + DatabaseHelper.COLUMN_COURSE_TYPE + ", c." + DatabaseHelper.COLUMN_COURSE_DURATION +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_TEACHER +
+                " FROM " + DatabaseHelper.TABLE_INSTANCES + " i JOIN " + DatabaseHelper.TABLE_COURSES + " c ON c." +
+                DatabaseHelper.COLUMN_COURSE_ID + " = i." + DatabaseHelper.COLUMN_INSTANCE_COURSE_ID +
+                " WHERE i." + DatabaseHelper.COLUMN_INSTANCE_DATE + " BETWEEN ? AND ?" +
+                " ORDER BY i." + DatabaseHelper.COLUMN_INSTANCE_DATE + ", c." + DatabaseHelper.COLUMN_COURSE_TIME +
+                ", i." + DatabaseHelper.COLUMN_INSTANCE_ID;
+        Cursor cursor = db.rawQuery(sql, new String[]{String.valueOf(weekStart), String.valueOf(weekStart + 6)});
+        try {
+            while (cursor.moveToNext()) {
+                classes.add(CloudDocuments.weekClass(cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getInt(5), cursor.getString(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        String path = CloudDocuments.weekPath(weekStart);
+        return classes.isEmpty()
+                ? CloudSyncGateway.Write.delete(path)
+                : CloudSyncGateway.Write.set(path, CloudDocuments.weekFields(weekStart, classes));
+    }
+
+    /**
+     * Clears the weeks whose documents the cloud has accepted, unless they were marked again
+     * since they were read, in which case they are sent again with the next drain.
+     */
+    static void markSent(SQLiteDatabase db, List<DirtyWeek> weeks) {
+        db.beginTransaction();
+        try {
+            for (DirtyWeek week : weeks) {
+                db.delete(DatabaseHelper.TABLE_DIRTY_WEEKS, DatabaseHelper.COLUMN_DIRTY_WEEK_START + " = ? AND " +
+                        DatabaseHelper.COLUMN_DIRTY_WEEK_MARKED_AT + " = ?",
+                        new String[]{String.valueOf(week.weekStart), String.valueOf(week.markedAt)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -2,18 +2,18 @@ package com.example.universalyoga.admin.models;
 
 public class ClassInstance {
     private final long id;
-    private final String date;
+    private final long epochDay; // Stored date, format with DateUtils.formatEpochDay()
     private final String teacher;
     private final String comments;
-    public ClassInstance(long id, String date, String teacher, String comments) {
+    public ClassInstance(long id, long epochDay, String teacher, String comments) {
         this.id = id;
-        this.date = date;
+        this.epochDay = epochDay;
         this.teacher = teacher;
         this.comments = comments;
     }
 
     public long getId() { return id; }
-    public String getDate() { return date; }
+    public long getEpochDay() { return epochDay; }
     public String getTeacher() { return teacher; }
     public String getComments() { return comments; }
-}
\ No newline at end of file
+}
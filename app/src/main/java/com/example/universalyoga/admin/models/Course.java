@@ -5,7 +5,13 @@ public class Course {
     private String dayOfWeek;
     private String time;
     private String type;
-    // Add other properties if needed
+    // Full details, only loaded where a screen needs them (e.g. the edit form)
+    private int capacity;
+    private int duration;
+    private double price;
+    private String description;
+    // Instance overview shown in the course list, null where it was not loaded
+    private CourseSummary summary;
 
     public Course(long id, String dayOfWeek, String time, String type) {
         this.id = id;
@@ -14,9 +20,28 @@ public class Course {
         this.type = type;
     }
 
+    public Course(long id, String dayOfWeek, String time, String type, CourseSummary summary) {
+        this(id, dayOfWeek, time, type);
+        this.summary = summary;
+    }
+
+    public Course(long id, String dayOfWeek, String time, String type,
+                  int capacity, int duration, double price, String description) {
+        this(id, dayOfWeek, time, type);
+        this.capacity = capacity;
+        this.duration = duration;
+        this.price = price;
+        this.description = description;
+    }
+
     // Getters
     public long getId() { return id; }
     public String getDayOfWeek() { return dayOfWeek; }
     public String getTime() { return time; }
     public String getType() { return type; }
-}
\ No newline at end of file
+    public int getCapacity() { return capacity; }
+    public int getDuration() { return duration; }
+    public double getPrice() { return price; }
+    public String getDescription() { return description; }
+    public CourseSummary getSummary() { return summary; }
+}
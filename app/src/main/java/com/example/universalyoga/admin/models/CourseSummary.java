@@ -0,0 +1,23 @@
+package com.example.universalyoga.admin.models;
+
+/**
+ * Overview of a course's class instances, read from the course_summary table.
+ */
+public class CourseSummary {
+    private final int instanceCount;
+    private final int upcomingCount; // Instances dated today or later
+    private final long nextEpochDay; // Date of the next instance, only meaningful if upcomingCount > 0
+    private final String lastTeacher; // Teacher of the latest-dated instance, or null
+
+    public CourseSummary(int instanceCount, int upcomingCount, long nextEpochDay, String lastTeacher) {
+        this.instanceCount = instanceCount;
+        this.upcomingCount = upcomingCount;
+        this.nextEpochDay = nextEpochDay;
+        this.lastTeacher = lastTeacher;
+    }
+
+    public int getInstanceCount() { return instanceCount; }
+    public int getUpcomingCount() { return upcomingCount; }
+    public long getNextEpochDay() { return nextEpochDay; }
+    public String getLastTeacher() { return lastTeacher; }
+}
@@ -4,28 +4,36 @@ package com.example.universalyoga.admin.models;
  * Model class to hold information for a search result.
  */
 public class SearchResult {
+    private final long instanceId;
     private final long courseId;
     private final String courseType;
-    private final String instanceDate;
+    private final long instanceDate; // Epoch day
     private final String instanceTeacher;
     private final String dayOfWeek; // Add new field
+    private final String snippet; // Matched text with terms between FullTextSearch markers
 
-    public SearchResult(long courseId, String courseType, String instanceDate, String instanceTeacher, String dayOfWeek) {
+    public SearchResult(long instanceId, long courseId, String courseType, long instanceDate, String instanceTeacher,
+                        String dayOfWeek, String snippet) {
+        this.instanceId = instanceId;
         this.courseId = courseId;
         this.courseType = courseType;
         this.instanceDate = instanceDate;
         this.instanceTeacher = instanceTeacher;
         this.dayOfWeek = dayOfWeek; // Update constructor
+        this.snippet = snippet;
     }
 
     // Getters
+    public long getInstanceId() {
+        return instanceId;
+    }
     public long getCourseId() {
         return courseId;
     }
     public String getCourseType() {
         return courseType;
     }
-    public String getInstanceDate() {
+    public long getInstanceDate() {
         return instanceDate;
     }
     public String getInstanceTeacher() {
@@ -34,4 +42,7 @@ public class SearchResult {
     public String getDayOfWeek() { // Thêm getter mới
         return dayOfWeek;
     }
+    public String getSnippet() {
+        return snippet;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.example.universalyoga.admin.utils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Locale;
+
+/**
+ * Converts class instance dates between the stored form and the displayed form.
+ * Dates are stored as epoch days (days since 1970-01-01) so SQLite can sort them and
+ * answer range queries from an index; the UI always shows them as dd/MM/yyyy.
+ */
+public final class DateUtils {
+
+    // The format shown to the admin and sent to Firestore for the customer app.
+    private static final DateTimeFormatter DISPLAY_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MM/uuuu", Locale.UK).withResolverStyle(ResolverStyle.STRICT);
+    // Compact format for overviews, e.g. "21 Oct".
+    private static final DateTimeFormatter SHORT_FORMAT = DateTimeFormatter.ofPattern("d MMM", Locale.UK);
+
+    private DateUtils() {
+    }
+
+    /**
+     * Formats a stored epoch day for display, e.g. 20017 becomes "21/10/2024".
+     */
+    public static String formatEpochDay(long epochDay) {
+        return LocalDate.ofEpochDay(epochDay).format(DISPLAY_FORMAT);
+    }
+
+    /**
+     * Formats a stored epoch day as a day and month, e.g. 20017 becomes "21 Oct".
+     */
+    public static String formatShortEpochDay(long epochDay) {
+        return LocalDate.ofEpochDay(epochDay).format(SHORT_FORMAT);
+    }
+
+    /**
+     * Parses a dd/MM/yyyy date typed or picked in the UI into an epoch day.
+     * @throws DateTimeParseException if the text is not a valid dd/MM/yyyy date.
+     */
+    public static long parseDisplayDate(String text) {
+        return LocalDate.parse(text.trim(), DISPLAY_FORMAT).toEpochDay();
+    }
+
+    /**
+     * Converts the UTC midnight milliseconds returned by the MaterialDatePicker into an epoch day.
+     */
+    public static long epochDayFromUtcMillis(long utcMillis) {
+        return Instant.ofEpochMilli(utcMillis).atZone(ZoneOffset.UTC).toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Returns today's date in the device's time zone as an epoch day.
+     */
+    public static long today() {
+        return LocalDate.now().toEpochDay();
+    }
+}
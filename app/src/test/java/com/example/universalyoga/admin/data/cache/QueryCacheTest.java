@@ -0,0 +1,115 @@
+package com.example.universalyoga.admin.data.cache;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests how QueryCache keeps results and drops them when their tables are written.
+ */
+public class QueryCacheTest {
+
+    private final QueryCache cache = new QueryCache();
+
+    @Test
+    public void key_joinsQueryAndArguments() {
+        assertEquals("courses|Monday|10:00|3|20", QueryCache.key("courses", "Monday", "10:00", 3L, 20));
+        assertEquals("courses", QueryCache.key("courses"));
+    }
+
+    @Test
+    public void get_returnsCachedResult() {
+        cache.put("courses", "page", cache.beginLoad(), "courses");
+        assertEquals("page", cache.get("courses"));
+        assertNull(cache.get("instances"));
+    }
+
+    @Test
+    public void invalidate_dropsResultsReadFromTheTable() {
+        cache.put("courses", "courses page", cache.beginLoad(), "courses", "course_summary");
+        cache.put("instances", "instances page", cache.beginLoad(), "instances");
+
+        cache.invalidate("course_summary");
+
+        assertNull(cache.get("courses"));
+        assertEquals("instances page", cache.get("instances"));
+    }
+
+    @Test
+    public void put_discardsResultLoadedBeforeItsTableWasWritten() {
+        long generation = cache.beginLoad();
+        cache.invalidate("courses");
+        cache.put("courses", "stale page", generation, "courses");
+
+        assertNull(cache.get("courses"));
+    }
+
+    @Test
+    public void put_keepsResultLoadedBeforeAnotherTableWasWritten() {
+        long generation = cache.beginLoad();
+        cache.invalidate("instances");
+        cache.put("courses", "page", generation, "courses");
+
+        assertEquals("page", cache.get("courses"));
+    }
+
+    @Test
+    public void put_keepsResultLoadedAfterItsTableWasWritten() {
+        cache.invalidate("courses");
+        cache.put("courses", "page", cache.beginLoad(), "courses");
+
+        assertEquals("page", cache.get("courses"));
+    }
+
+    @Test
+    public void invalidateAll_dropsEverythingAndDiscardsEarlierLoads() {
+        cache.put("courses", "page", cache.beginLoad(), "courses");
+        long generation = cache.beginLoad();
+
+        cache.invalidateAll();
+        cache.put("instances", "stale page", generation, "instances");
+
+        assertNull(cache.get("courses"));
+        assertNull(cache.get("instances"));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedPastCapacity() {
+        for (int i = 0; i < 64; i++) {
+            cache.put("key" + i, i, cache.beginLoad(), "courses");
+        }
+        cache.get("key0"); // Now the most recently used.
+
+        cache.put("key64", 64, cache.beginLoad(), "courses");
+
+        assertEquals(0, (int) cache.<Integer>get("key0"));
+        assertNull(cache.get("key1"));
+        assertEquals(64, (int) cache.<Integer>get("key64"));
+    }
+
+    @Test
+    public void trimMemory_dropsLeastRecentlyUsedHalfWhenUiHidden() {
+        for (int i = 0; i < 4; i++) {
+            cache.put("key" + i, i, cache.beginLoad(), "courses");
+        }
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        assertNull(cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertEquals(2, (int) cache.<Integer>get("key2"));
+        assertEquals(3, (int) cache.<Integer>get("key3"));
+    }
+
+    @Test
+    public void trimMemory_dropsEverythingInBackground() {
+        cache.put("courses", "page", cache.beginLoad(), "courses");
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        assertNull(cache.get("courses"));
+    }
+}
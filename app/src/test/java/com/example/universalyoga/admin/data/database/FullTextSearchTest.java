@@ -0,0 +1,146 @@
+package com.example.universalyoga.admin.data.database;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the MATCH expressions and BM25 scores of FullTextSearch.
+ */
+public class FullTextSearchTest {
+
+    // Column order of the search index.
+    private static final int COURSE_ID = 0;
+    private static final int TYPE = 1;
+    private static final int DESCRIPTION = 3;
+    private static final int COLUMNS = 7;
+
+    @Test
+    public void toMatchExpression_makesEveryWordAPrefix() {
+        assertEquals("jes* mon*", FullTextSearch.toMatchExpression("jes mon"));
+    }
+
+    @Test
+    public void toMatchExpression_lowercasesSoOperatorsAreSearchedAsWords() {
+        assertEquals("flow* or* yin*", FullTextSearch.toMatchExpression("Flow OR Yin"));
+    }
+
+    @Test
+    public void toMatchExpression_dropsQueryPunctuation() {
+        assertEquals("yoga* x* near* 3*", FullTextSearch.toMatchExpression("\"yoga\" -x* NEAR/3 ("));
+    }
+
+    @Test
+    public void toMatchExpression_keepsLettersOfAnyScript() {
+        assertEquals("thứ* hai*", FullTextSearch.toMatchExpression("Thứ  Hai"));
+    }
+
+    @Test
+    public void toMatchExpression_nullWithoutSearchableWords() {
+        assertNull(FullTextSearch.toMatchExpression(""));
+        assertNull(FullTextSearch.toMatchExpression("   "));
+        assertNull(FullTextSearch.toMatchExpression("*\"-()"));
+    }
+
+    @Test
+    public void bm25_scoresOneHitAtAverageLength() {
+        // At average length one hit gives a term frequency of 1, so the score is weight * idf.
+        byte[] matchinfo = new MatchInfo(1, 10).length(TYPE, 4, 4).hits(0, TYPE, 1, 1).build();
+        assertEquals(2.0 * Math.log(9.5 / 1.5), FullTextSearch.bm25(matchinfo), 1e-9);
+    }
+
+    @Test
+    public void bm25_zeroWithoutHits() {
+        byte[] matchinfo = new MatchInfo(1, 10).length(TYPE, 4, 4).build();
+        assertEquals(0.0, FullTextSearch.bm25(matchinfo), 0.0);
+    }
+
+    @Test
+    public void bm25_ignoresCourseIdColumn() {
+        byte[] matchinfo = new MatchInfo(1, 10).length(COURSE_ID, 1, 1).hits(0, COURSE_ID, 1, 1).build();
+        assertEquals(0.0, FullTextSearch.bm25(matchinfo), 0.0);
+    }
+
+    @Test
+    public void bm25_rareTermOutscoresCommonTerm() {
+        double rare = FullTextSearch.bm25(new MatchInfo(1, 100).length(TYPE, 4, 4).hits(0, TYPE, 1, 2).build());
+        double common = FullTextSearch.bm25(new MatchInfo(1, 100).length(TYPE, 4, 4).hits(0, TYPE, 1, 60).build());
+        assertTrue(rare > common);
+    }
+
+    @Test
+    public void bm25_commonTermStillCounts() {
+        double everywhere = FullTextSearch.bm25(new MatchInfo(1, 10).length(TYPE, 4, 4).hits(0, TYPE, 1, 10).build());
+        assertTrue(everywhere > 0);
+    }
+
+    @Test
+    public void bm25_moreHitsScoreHigher() {
+        double once = FullTextSearch.bm25(new MatchInfo(1, 10).length(DESCRIPTION, 20, 20).hits(0, DESCRIPTION, 1, 3).build());
+        double thrice = FullTextSearch.bm25(new MatchInfo(1, 10).length(DESCRIPTION, 20, 20).hits(0, DESCRIPTION, 3, 3).build());
+        assertTrue(thrice > once);
+    }
+
+    @Test
+    public void bm25_shorterRowScoresHigher() {
+        double shortRow = FullTextSearch.bm25(new MatchInfo(1, 10).length(DESCRIPTION, 20, 5).hits(0, DESCRIPTION, 1, 3).build());
+        double longRow = FullTextSearch.bm25(new MatchInfo(1, 10).length(DESCRIPTION, 20, 80).hits(0, DESCRIPTION, 1, 3).build());
+        assertTrue(shortRow > longRow);
+    }
+
+    @Test
+    public void bm25_weighsTypeAboveDescription() {
+        double type = FullTextSearch.bm25(new MatchInfo(1, 10).length(TYPE, 4, 4).hits(0, TYPE, 1, 1).build());
+        double description = FullTextSearch.bm25(new MatchInfo(1, 10).length(DESCRIPTION, 4, 4).hits(0, DESCRIPTION, 1, 1).build());
+        assertEquals(4.0, type / description, 1e-9);
+    }
+
+    @Test
+    public void bm25_addsUpPhrases() {
+        double first = FullTextSearch.bm25(new MatchInfo(1, 10).length(TYPE, 4, 4).hits(0, TYPE, 1, 1).build());
+        double both = FullTextSearch.bm25(new MatchInfo(2, 10).length(TYPE, 4, 4)
+                .hits(0, TYPE, 1, 1).hits(1, TYPE, 1, 1).build());
+        assertEquals(2 * first, both, 1e-9);
+    }
+
+    /**
+     * Builds a matchinfo 'pcnalx' blob: phrase count, column count, row count, average column
+     * lengths, column lengths of the row, then per phrase and column the hits in the row, the
+     * hits in all rows and the rows with hits.
+     */
+    private static final class MatchInfo {
+        private final int[] values;
+
+        MatchInfo(int phrases, int rows) {
+            values = new int[3 + 2 * COLUMNS + 3 * COLUMNS * phrases];
+            values[0] = phrases;
+            values[1] = COLUMNS;
+            values[2] = rows;
+        }
+
+        MatchInfo length(int column, int average, int inRow) {
+            values[3 + column] = average;
+            values[3 + COLUMNS + column] = inRow;
+            return this;
+        }
+
+        MatchInfo hits(int phrase, int column, int inRow, int rowsWithHits) {
+            int index = 3 + 2 * COLUMNS + 3 * (column + phrase * COLUMNS);
+            values[index] = inRow;
+            values[index + 1] = inRow;
+            values[index + 2] = rowsWithHits;
+            return this;
+        }
+
+        byte[] build() {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * values.length).order(ByteOrder.nativeOrder());
+            for (int value : values) buffer.putInt(value);
+            return buffer.array();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.universalyoga.admin.data.io;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the row validation of ScheduleImporter.
+ */
+public class ScheduleImporterTest {
+
+    @Test
+    public void validateCourse_acceptsValidRowAndConvertsNumbers() {
+        ScheduleImporter.Row row = course();
+
+        assertNull(ScheduleImporter.validateCourse(row));
+        assertEquals(1, row.dayNumber);
+        assertEquals(20, row.capacityValue);
+        assertEquals(60, row.durationValue);
+        assertEquals(12.5, row.priceValue, 0.0);
+    }
+
+    @Test
+    public void validateCourse_requiresRefAndType() {
+        ScheduleImporter.Row row = course();
+        row.ref = null;
+        assertEquals("missing ref", ScheduleImporter.validateCourse(row));
+
+        row = course();
+        row.type = null;
+        assertEquals("missing type", ScheduleImporter.validateCourse(row));
+    }
+
+    @Test
+    public void validateCourse_rejectsUnknownDay() {
+        ScheduleImporter.Row row = course();
+        row.dayOfWeek = "monday";
+        assertEquals("invalid day_of_week \"monday\"", ScheduleImporter.validateCourse(row));
+    }
+
+    @Test
+    public void validateCourse_rejectsBadTimes() {
+        String[] times = {null, "9:00", "24:00", "10:60", "10-00", "1a:00", "10:00:00"};
+        for (String time : times) {
+            ScheduleImporter.Row row = course();
+            row.time = time;
+            assertEquals(String.valueOf(time), "time must be HH:mm", ScheduleImporter.validateCourse(row));
+        }
+    }
+
+    @Test
+    public void validateCourse_acceptsBoundaryTimes() {
+        for (String time : new String[]{"00:00", "23:59"}) {
+            ScheduleImporter.Row row = course();
+            row.time = time;
+            assertNull(time, ScheduleImporter.validateCourse(row));
+        }
+    }
+
+    @Test
+    public void validateCourse_requiresPositiveWholeCapacityAndDuration() {
+        for (String capacity : new String[]{null, "", "0", "-5", "2.5", "ten", "1234567890"}) {
+            ScheduleImporter.Row row = course();
+            row.capacity = capacity;
+            assertEquals(String.valueOf(capacity), "capacity must be a positive whole number",
+                    ScheduleImporter.validateCourse(row));
+        }
+        ScheduleImporter.Row row = course();
+        row.duration = "0";
+        assertEquals("duration must be a positive whole number", ScheduleImporter.validateCourse(row));
+    }
+
+    @Test
+    public void validateCourse_requiresPriceAboveZeroUpToLimit() {
+        ScheduleImporter.Row row = course();
+        row.price = "free";
+        assertEquals("invalid price", ScheduleImporter.validateCourse(row));
+
+        row = course();
+        row.price = null;
+        assertEquals("invalid price", ScheduleImporter.validateCourse(row));
+
+        for (String price : new String[]{"0", "-1", "1000.01", "NaN"}) {
+            row = course();
+            row.price = price;
+            assertEquals(price, "price must be above 0 and at most 1000", ScheduleImporter.validateCourse(row));
+        }
+
+        row = course();
+        row.price = "1000";
+        assertNull(ScheduleImporter.validateCourse(row));
+    }
+
+    @Test
+    public void validateInstance_acceptsValidRowAndParsesDate() {
+        ScheduleImporter.Row row = instance();
+
+        assertNull(ScheduleImporter.validateInstance(row));
+        assertEquals(LocalDate.of(2024, 10, 21).toEpochDay(), row.epochDay);
+    }
+
+    @Test
+    public void validateInstance_requiresCourseRefDateAndTeacher() {
+        ScheduleImporter.Row row = instance();
+        row.courseRef = null;
+        assertEquals("missing course_ref", ScheduleImporter.validateInstance(row));
+
+        row = instance();
+        row.date = null;
+        assertEquals("missing date", ScheduleImporter.validateInstance(row));
+
+        row = instance();
+        row.teacher = null;
+        assertEquals("missing teacher", ScheduleImporter.validateInstance(row));
+    }
+
+    @Test
+    public void validateInstance_rejectsInvalidDates() {
+        for (String date : new String[]{"2024-10-21", "31/02/2024", "21/10/24", "yesterday"}) {
+            ScheduleImporter.Row row = instance();
+            row.date = date;
+            assertEquals(date, "date must be dd/MM/yyyy", ScheduleImporter.validateInstance(row));
+        }
+    }
+
+    @Test
+    public void validateInstance_leavesCommentsOptional() {
+        ScheduleImporter.Row row = instance();
+        row.comments = null;
+        assertNull(ScheduleImporter.validateInstance(row));
+    }
+
+    private static ScheduleImporter.Row course() {
+        ScheduleImporter.Row row = new ScheduleImporter.Row(true);
+        row.ref = "c1";
+        row.dayOfWeek = "Monday";
+        row.time = "10:00";
+        row.capacity = "20";
+        row.duration = "60";
+        row.price = "12.5";
+        row.type = "Flow Yoga";
+        row.description = "Gentle morning flow";
+        return row;
+    }
+
+    private static ScheduleImporter.Row instance() {
+        ScheduleImporter.Row row = new ScheduleImporter.Row(false);
+        row.courseRef = "c1";
+        row.date = "21/10/2024";
+        row.teacher = "Jess";
+        row.comments = "Bring a mat";
+        return row;
+    }
+}
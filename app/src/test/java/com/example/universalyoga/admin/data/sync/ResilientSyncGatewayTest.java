@@ -0,0 +1,102 @@
+package com.example.universalyoga.admin.data.sync;
+
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.FirebaseFirestoreException.Code;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests which failures ResilientSyncGateway retries and how long it backs off.
+ */
+public class ResilientSyncGatewayTest {
+
+    @Test
+    public void isTransient_timeoutsAndNetworkErrors() {
+        assertTrue(ResilientSyncGateway.isTransient(new TimeoutException()));
+        assertTrue(ResilientSyncGateway.isTransient(new IOException()));
+    }
+
+    @Test
+    public void isTransient_backendErrorsThatMayPass() {
+        Code[] codes = {Code.UNAVAILABLE, Code.DEADLINE_EXCEEDED, Code.RESOURCE_EXHAUSTED, Code.ABORTED,
+                Code.INTERNAL, Code.UNKNOWN};
+        for (Code code : codes) {
+            assertTrue(code.name(), ResilientSyncGateway.isTransient(firestore(code)));
+        }
+    }
+
+    @Test
+    public void isTransient_notRejections() {
+        Code[] codes = {Code.PERMISSION_DENIED, Code.INVALID_ARGUMENT, Code.NOT_FOUND, Code.FAILED_PRECONDITION,
+                Code.UNAUTHENTICATED};
+        for (Code code : codes) {
+            assertFalse(code.name(), ResilientSyncGateway.isTransient(firestore(code)));
+        }
+    }
+
+    @Test
+    public void isTransient_notOtherFailures() {
+        assertFalse(ResilientSyncGateway.isTransient(null));
+        assertFalse(ResilientSyncGateway.isTransient(new IllegalArgumentException()));
+    }
+
+    @Test
+    public void isSafeToResend_onlyWhenBackendDidNotApplyTheWrite() {
+        assertTrue(ResilientSyncGateway.isSafeToResend(firestore(Code.UNAVAILABLE)));
+        assertTrue(ResilientSyncGateway.isSafeToResend(firestore(Code.RESOURCE_EXHAUSTED)));
+        assertTrue(ResilientSyncGateway.isSafeToResend(firestore(Code.ABORTED)));
+    }
+
+    @Test
+    public void isSafeToResend_notWhenOutcomeIsUnknown() {
+        assertFalse(ResilientSyncGateway.isSafeToResend(new TimeoutException()));
+        assertFalse(ResilientSyncGateway.isSafeToResend(new IOException()));
+        assertFalse(ResilientSyncGateway.isSafeToResend(firestore(Code.DEADLINE_EXCEEDED)));
+        assertFalse(ResilientSyncGateway.isSafeToResend(firestore(Code.INTERNAL)));
+        assertFalse(ResilientSyncGateway.isSafeToResend(firestore(Code.UNKNOWN)));
+        assertFalse(ResilientSyncGateway.isSafeToResend(null));
+    }
+
+    @Test
+    public void isSafeToResend_notRejections() {
+        assertFalse(ResilientSyncGateway.isSafeToResend(firestore(Code.PERMISSION_DENIED)));
+        assertFalse(ResilientSyncGateway.isSafeToResend(firestore(Code.INVALID_ARGUMENT)));
+    }
+
+    @Test
+    public void backoffCeilingMs_doublesPerAttempt() {
+        assertEquals(500, ResilientSyncGateway.backoffCeilingMs(1));
+        assertEquals(1_000, ResilientSyncGateway.backoffCeilingMs(2));
+        assertEquals(2_000, ResilientSyncGateway.backoffCeilingMs(3));
+        assertEquals(4_000, ResilientSyncGateway.backoffCeilingMs(4));
+    }
+
+    @Test
+    public void backoffCeilingMs_cappedAtMaximum() {
+        assertEquals(8_000, ResilientSyncGateway.backoffCeilingMs(5));
+        assertEquals(8_000, ResilientSyncGateway.backoffCeilingMs(6));
+        // Large attempt counts must not overflow the shift.
+        assertEquals(8_000, ResilientSyncGateway.backoffCeilingMs(100));
+    }
+
+    @Test
+    public void maxOperationMs_coversEveryAttemptAndBackoff() {
+        long backoffs = 0;
+        for (int attempt = 1; attempt < ResilientSyncGateway.MAX_ATTEMPTS; attempt++) {
+            backoffs += ResilientSyncGateway.backoffCeilingMs(attempt);
+        }
+        assertTrue(ResilientSyncGateway.MAX_OPERATION_MS
+                >= ResilientSyncGateway.MAX_ATTEMPTS * ResilientSyncGateway.ATTEMPT_TIMEOUT_MS + backoffs);
+    }
+
+    private static FirebaseFirestoreException firestore(Code code) {
+        return new FirebaseFirestoreException(code.name(), code);
+    }
+}
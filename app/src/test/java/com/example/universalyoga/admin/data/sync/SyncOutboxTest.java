@@ -0,0 +1,137 @@
+package com.example.universalyoga.admin.data.sync;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how SyncOutbox.coalesce() collapses queued writes.
+ */
+public class SyncOutboxTest {
+
+    private static final String COURSE = "courses/a";
+    private static final String INSTANCE = "courses/a/instances/b";
+    private static final String OTHER_COURSE = "courses/ab";
+
+    @Test
+    public void coalesce_keepsOneEntryPerPathInFirstWrittenOrder() {
+        List<SyncOutbox.Entry> coalesced = SyncOutbox.coalesce(Arrays.asList(
+                set(1, COURSE, fields("price", 10)),
+                set(2, OTHER_COURSE, fields("price", 20)),
+                set(3, COURSE, fields("price", 30))));
+
+        assertEquals(2, coalesced.size());
+        assertEquals(3, coalesced.get(0).id);
+        assertEquals(COURSE, coalesced.get(0).path);
+        assertEquals(30, coalesced.get(0).fields.get("price"));
+        assertEquals(OTHER_COURSE, coalesced.get(1).path);
+    }
+
+    @Test
+    public void coalesce_foldsMergeIntoEarlierSet() {
+        List<SyncOutbox.Entry> coalesced = SyncOutbox.coalesce(Arrays.asList(
+                set(1, COURSE, fields("price", 10, "type", "Flow")),
+                merge(2, COURSE, fields("price", 12))));
+
+        assertEquals(1, coalesced.size());
+        SyncOutbox.Entry entry = coalesced.get(0);
+        assertEquals(2, entry.id);
+        assertEquals(SyncOutbox.OP_SET, entry.op);
+        assertEquals(fields("price", 12, "type", "Flow"), entry.fields);
+    }
+
+    @Test
+    public void coalesce_foldsMergesIntoEachOther() {
+        List<SyncOutbox.Entry> coalesced = SyncOutbox.coalesce(Arrays.asList(
+                merge(1, COURSE, fields("price", 10)),
+                merge(2, COURSE, fields("type", "Flow"))));
+
+        assertEquals(1, coalesced.size());
+        assertEquals(SyncOutbox.OP_MERGE, coalesced.get(0).op);
+        assertEquals(fields("price", 10, "type", "Flow"), coalesced.get(0).fields);
+    }
+
+    @Test
+    public void coalesce_mergeAfterDeleteStaysMerge() {
+        List<SyncOutbox.Entry> coalesced = SyncOutbox.coalesce(Arrays.asList(
+                delete(1, COURSE),
+                merge(2, COURSE, fields("price", 12))));
+
+        assertEquals(1, coalesced.size());
+        assertEquals(SyncOutbox.OP_MERGE, coalesced.get(0).op);
+        assertEquals(fields("price", 12), coalesced.get(0).fields);
+    }
+
+    @Test
+    public void coalesce_deleteReplacesEarlierWrites() {
+        List<SyncOutbox.Entry> coalesced = SyncOutbox.coalesce(Arrays.asList(
+                set(1, COURSE, fields("price", 10)),
+                merge(2, COURSE, fields("price", 12)),
+                delete(3, COURSE)));
+
+        assertEquals(1, coalesced.size());
+        assertEquals(SyncOutbox.OP_DELETE, coalesced.get(0).op);
+        assertNull(coalesced.get(0).fields);
+    }
+
+    @Test
+    public void coalesce_treeDeleteDropsEarlierWritesBelowIt() {
+        List<SyncOutbox.Entry> coalesced = SyncOutbox.coalesce(Arrays.asList(
+                set(1, INSTANCE, fields("teacher", "Jess")),
+                set(2, OTHER_COURSE, fields("price", 20)),
+                deleteTree(3, COURSE)));
+
+        assertEquals(2, coalesced.size());
+        assertEquals(OTHER_COURSE, coalesced.get(0).path);
+        assertEquals(COURSE, coalesced.get(1).path);
+        assertEquals(SyncOutbox.OP_DELETE_TREE, coalesced.get(1).op);
+    }
+
+    @Test
+    public void coalesce_keepsWritesBelowTreeDeleteQueuedAfterIt() {
+        List<SyncOutbox.Entry> coalesced = SyncOutbox.coalesce(Arrays.asList(
+                deleteTree(1, COURSE),
+                set(2, INSTANCE, fields("teacher", "Jess"))));
+
+        assertEquals(2, coalesced.size());
+        assertEquals(COURSE, coalesced.get(0).path);
+        assertEquals(INSTANCE, coalesced.get(1).path);
+    }
+
+    @Test
+    public void coalesce_emptyQueue() {
+        assertTrue(SyncOutbox.coalesce(Collections.emptyList()).isEmpty());
+    }
+
+    private static SyncOutbox.Entry set(long id, String path, Map<String, Object> fields) {
+        return new SyncOutbox.Entry(id, SyncOutbox.OP_SET, path, fields, 0);
+    }
+
+    private static SyncOutbox.Entry merge(long id, String path, Map<String, Object> fields) {
+        return new SyncOutbox.Entry(id, SyncOutbox.OP_MERGE, path, fields, 0);
+    }
+
+    private static SyncOutbox.Entry delete(long id, String path) {
+        return new SyncOutbox.Entry(id, SyncOutbox.OP_DELETE, path, null, 0);
+    }
+
+    private static SyncOutbox.Entry deleteTree(long id, String path) {
+        return new SyncOutbox.Entry(id, SyncOutbox.OP_DELETE_TREE, path, null, 0);
+    }
+
+    private static Map<String, Object> fields(Object... namesAndValues) {
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            fields.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.universalyoga.admin.utils;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the conversions of DateUtils between epoch days and displayed dates.
+ */
+public class DateUtilsTest {
+
+    private static final long OCT_21_2024 = 20017;
+
+    @Test
+    public void formatEpochDay_showsDayMonthYear() {
+        assertEquals("21/10/2024", DateUtils.formatEpochDay(OCT_21_2024));
+        assertEquals("01/01/1970", DateUtils.formatEpochDay(0));
+    }
+
+    @Test
+    public void formatShortEpochDay_showsDayAndMonth() {
+        assertEquals("21 Oct", DateUtils.formatShortEpochDay(OCT_21_2024));
+    }
+
+    @Test
+    public void parseDisplayDate_readsDayMonthYear() {
+        assertEquals(OCT_21_2024, DateUtils.parseDisplayDate("21/10/2024"));
+        assertEquals(OCT_21_2024, DateUtils.parseDisplayDate(" 21/10/2024 "));
+    }
+
+    @Test
+    public void epochDay_roundTripsThroughDisplayDate() {
+        long[] days = {0, OCT_21_2024, LocalDate.of(2024, 2, 29).toEpochDay(), LocalDate.of(1999, 12, 31).toEpochDay(),
+                LocalDate.of(2100, 3, 1).toEpochDay()};
+        for (long day : days) {
+            assertEquals(day, DateUtils.parseDisplayDate(DateUtils.formatEpochDay(day)));
+        }
+    }
+
+    @Test
+    public void displayDate_roundTripsThroughEpochDay() {
+        String[] dates = {"01/01/2000", "29/02/2024", "31/12/2025"};
+        for (String date : dates) {
+            assertEquals(date, DateUtils.formatEpochDay(DateUtils.parseDisplayDate(date)));
+        }
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void parseDisplayDate_rejectsImpossibleDate() {
+        DateUtils.parseDisplayDate("30/02/2024");
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void parseDisplayDate_rejectsFebruary29OutsideLeapYears() {
+        DateUtils.parseDisplayDate("29/02/2023");
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void parseDisplayDate_rejectsOtherFormats() {
+        DateUtils.parseDisplayDate("2024-10-21");
+    }
+
+    @Test
+    public void epochDayFromUtcMillis_takesTheUtcDate() {
+        long midnight = OCT_21_2024 * 24 * 60 * 60 * 1000;
+        assertEquals(OCT_21_2024, DateUtils.epochDayFromUtcMillis(midnight));
+        assertEquals(OCT_21_2024, DateUtils.epochDayFromUtcMillis(midnight + 24 * 60 * 60 * 1000 - 1));
+    }
+}